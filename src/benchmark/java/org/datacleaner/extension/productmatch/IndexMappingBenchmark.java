@@ -0,0 +1,137 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+/**
+ * Compares the query latency of two copies of the POD index, typically one
+ * with the dynamic mapping and one created by {@link PodIndexProvisioner}. The
+ * GTIN lookups and text searches of the scenario CSV files are sent to both
+ * indices in turn, the same way {@link ElasticSearchBackend} sends them, after
+ * a warm-up round.
+ *
+ * <pre>
+ * java ... IndexMappingBenchmark &lt;hostname&gt; &lt;port&gt; &lt;baseline index&gt; &lt;candidate index&gt; [rounds]
+ * </pre>
+ */
+public class IndexMappingBenchmark {
+
+    private static final String GTIN_SCENARIO_FILE = "scenario1_GTIN_only.csv";
+    private static final String TEXT_SCENARIO_FILE = "scenario2_text_info_only.csv";
+
+    private final Client _client;
+    private final List<String> _gtinCodes;
+    private final List<Map<ProductSearchField, Object>> _textInputs;
+
+    public IndexMappingBenchmark(Client client) throws IOException {
+        _client = client;
+        _gtinCodes = new ArrayList<>();
+        for (String value : LoadTestDriver.readColumn(new File(GTIN_SCENARIO_FILE), "GTIN code")) {
+            final String gtinCode = ProductMatchTransformer.normalizeGtinCode(value);
+            if (gtinCode != null) {
+                _gtinCodes.add(gtinCode);
+            }
+        }
+        _textInputs = new ArrayList<>();
+        for (String value : LoadTestDriver.readColumn(new File(TEXT_SCENARIO_FILE), "product")) {
+            final Map<ProductSearchField, Object> input = new EnumMap<>(ProductSearchField.class);
+            input.put(ProductSearchField.ALL, value);
+            _textInputs.add(input);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: IndexMappingBenchmark <hostname> <port> <baseline index> <candidate index> "
+                    + "[rounds]");
+            System.exit(1);
+        }
+        final String[] indexNames = { args[2], args[3] };
+        final int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        try (ElasticSearchClientManager clientManager = new ElasticSearchClientManager(
+                ProductMatchTransformer.INDEX_NAME, args[0], Integer.parseInt(args[1]))) {
+            final IndexMappingBenchmark benchmark = new IndexMappingBenchmark(clientManager.getClient());
+
+            System.out.println("Warming up...");
+            for (String indexName : indexNames) {
+                benchmark.run(indexName, new LatencyHistogram(), new LatencyHistogram());
+            }
+
+            final LatencyHistogram[] gtinLatencies = new LatencyHistogram[indexNames.length];
+            final LatencyHistogram[] textLatencies = new LatencyHistogram[indexNames.length];
+            for (int i = 0; i < indexNames.length; i++) {
+                gtinLatencies[i] = new LatencyHistogram();
+                textLatencies[i] = new LatencyHistogram();
+            }
+            // alternate between the indices, so that both see the same
+            // cluster conditions
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < indexNames.length; i++) {
+                    benchmark.run(indexNames[i], gtinLatencies[i], textLatencies[i]);
+                }
+            }
+
+            System.out.println(String.format("%-30s %-12s %9s %9s %9s %9s %9s %12s", "Index", "Queries", "Count",
+                    "Mean (ms)", "p50 (ms)", "p95 (ms)", "p99 (ms)", "Size (MB)"));
+            for (int i = 0; i < indexNames.length; i++) {
+                final long sizeMegabytes = benchmark.getIndexSizeBytes(indexNames[i]) / (1024 * 1024);
+                print(indexNames[i], "GTIN lookup", gtinLatencies[i], sizeMegabytes);
+                print(indexNames[i], "Text search", textLatencies[i], sizeMegabytes);
+            }
+        }
+    }
+
+    private void run(String indexName, LatencyHistogram gtinLatency, LatencyHistogram textLatency) {
+        for (String gtinCode : _gtinCodes) {
+            execute(createSearch(indexName).setQuery(
+                    QueryBuilders.termQuery(ProductSearchField.GTIN_CD.getFieldName(), gtinCode)), gtinLatency);
+        }
+        for (Map<ProductSearchField, Object> input : _textInputs) {
+            final List<QueryBuilder> queryBuilders = ElasticSearchBackend.createQueryBuilders(input);
+            if (queryBuilders.isEmpty()) {
+                continue;
+            }
+            BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
+            for (QueryBuilder queryBuilder : queryBuilders) {
+                boolQuery = boolQuery.should(queryBuilder);
+            }
+            execute(createSearch(indexName).setQuery(boolQuery), textLatency);
+        }
+    }
+
+    private SearchRequestBuilder createSearch(String indexName) {
+        return _client.prepareSearch(indexName).setTypes(ProductMatchTransformer.DOCUMENT_TYPE)
+                .setSearchType(SearchType.QUERY_AND_FETCH).setSize(1);
+    }
+
+    private void execute(SearchRequestBuilder search, LatencyHistogram latency) {
+        final long startTime = System.nanoTime();
+        search.execute().actionGet();
+        latency.recordSince(startTime);
+    }
+
+    private long getIndexSizeBytes(String indexName) {
+        final IndicesStatsResponse stats = _client.admin().indices().prepareStats(indexName).setStore(true)
+                .execute().actionGet();
+        return stats.getPrimaries().getStore().getSizeInBytes();
+    }
+
+    private static void print(String indexName, String queries, LatencyHistogram latency, long sizeMegabytes) {
+        System.out.println(String.format("%-30s %-12s %9d %9.3f %9.3f %9.3f %9.3f %12d", indexName, queries,
+                latency.getCount(), latency.getMeanMillis(), latency.getPercentileMillis(0.5),
+                latency.getPercentileMillis(0.95), latency.getPercentileMillis(0.99), sizeMegabytes));
+    }
+}
@@ -0,0 +1,155 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.datacleaner.api.InputColumn;
+import org.datacleaner.data.MockInputColumn;
+import org.datacleaner.data.MockInputRow;
+
+/**
+ * Replays the scenario CSV files through the transformer at a scaled-up volume
+ * and a range of thread counts, and reports throughput and latency
+ * percentiles.
+ *
+ * By default the transformer matches against the local {@link PodFixture}.
+ * Set the 'org.datacleaner.extension.productmatch.backend' system property (and
+ * the related host and port properties) to load-test a real backend instead.
+ * The match cache is disabled, so that every row is matched.
+ *
+ * <pre>
+ * java ... LoadTestDriver [rows per run] [thread counts, comma separated]
+ * </pre>
+ */
+public class LoadTestDriver {
+
+    private static final class Scenario {
+
+        private final String _fileName;
+        private final String _columnName;
+        private final ProductInputField _inputField;
+
+        public Scenario(String fileName, String columnName, ProductInputField inputField) {
+            _fileName = fileName;
+            _columnName = columnName;
+            _inputField = inputField;
+        }
+    }
+
+    private static final Scenario[] SCENARIOS = {
+            new Scenario("scenario1_GTIN_only.csv", "GTIN code", ProductInputField.GTIN_CODE),
+            new Scenario("scenario2_text_info_only.csv", "product", ProductInputField.PRODUCT_DESCRIPTION_TEXT) };
+
+    private final File _fixtureDirectory;
+
+    public LoadTestDriver(File fixtureDirectory) {
+        _fixtureDirectory = fixtureDirectory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final String[] threadCounts = (args.length > 1 ? args[1] : "1,4,16").split(",");
+
+        final File fixtureDirectory;
+        if (System.getProperty(ProductMatchTransformer.PROPERTY_BACKEND) == null) {
+            System.out.println("Creating local POD fixture index...");
+            fixtureDirectory = PodFixture.createIndex();
+        } else {
+            fixtureDirectory = null;
+        }
+
+        final LoadTestDriver driver = new LoadTestDriver(fixtureDirectory);
+        System.out.println(String.format("%-30s %7s %9s %10s %9s %9s %9s %9s", "Scenario", "Threads", "Rows",
+                "Rows/s", "p50 (ms)", "p95 (ms)", "p99 (ms)", "Max (ms)"));
+        for (Scenario scenario : SCENARIOS) {
+            for (String threadCount : threadCounts) {
+                driver.run(scenario, rowCount, Integer.parseInt(threadCount.trim()));
+            }
+        }
+    }
+
+    private void run(Scenario scenario, final int rowCount, int threadCount) throws Exception {
+        final List<String> values = readColumn(new File(scenario._fileName), scenario._columnName);
+        final InputColumn<String> column = new MockInputColumn<>(scenario._columnName);
+        final MockInputRow[] rows = new MockInputRow[values.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new MockInputRow().put(column, values.get(i));
+        }
+
+        final ProductMatchTransformer transformer = new ProductMatchTransformer();
+        transformer.inputColumns = new InputColumn[] { column };
+        transformer.inputMapping = new ProductInputField[] { scenario._inputField };
+        transformer.cacheSize = 0;
+        if (_fixtureDirectory == null) {
+            transformer.init();
+        } else {
+            transformer.init(new LuceneBackend(_fixtureDirectory));
+        }
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicInteger nextRow = new AtomicInteger(0);
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        final long startTime = System.nanoTime();
+        try {
+            final List<Future<?>> futures = new ArrayList<>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int row = nextRow.getAndIncrement(); row < rowCount; row = nextRow.getAndIncrement()) {
+                            final long rowStartTime = System.nanoTime();
+                            transformer.transform(rows[row % rows.length]);
+                            latency.recordSince(rowStartTime);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            transformer.close();
+        }
+        final long elapsedNanos = System.nanoTime() - startTime;
+
+        System.out.println(String.format("%-30s %7d %9d %10.0f %9.3f %9.3f %9.3f %9.3f", scenario._fileName,
+                threadCount, rowCount, rowCount * 1e9 / elapsedNanos, latency.getPercentileMillis(0.5),
+                latency.getPercentileMillis(0.95), latency.getPercentileMillis(0.99), latency.getMaxMillis()));
+    }
+
+    static List<String> readColumn(File file, String columnName) throws IOException {
+        final List<String> values = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.ISO_8859_1))) {
+            final String[] header = reader.readLine().split(",");
+            int columnIndex = -1;
+            for (int i = 0; i < header.length; i++) {
+                if (header[i].trim().equals(columnName)) {
+                    columnIndex = i;
+                }
+            }
+            if (columnIndex == -1) {
+                throw new IOException("Column '" + columnName + "' not found in " + file);
+            }
+
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final String[] lineValues = line.split(",");
+                if (lineValues.length > columnIndex) {
+                    values.add(lineValues[columnIndex]);
+                }
+            }
+        }
+        return values;
+    }
+}
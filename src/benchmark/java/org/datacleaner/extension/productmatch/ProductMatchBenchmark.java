@@ -0,0 +1,198 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.datacleaner.api.InputColumn;
+import org.datacleaner.data.MockInputColumn;
+import org.datacleaner.data.MockInputRow;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the per-row matching path. The end-to-end benchmarks run the
+ * transformer against a backend that returns canned products, so they measure
+ * the transformer's own overhead, not the network or the index.
+ *
+ * Run with the 'benchmark' Maven profile:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductMatchBenchmark {
+
+    /**
+     * Backend which returns the same product for every lookup and search.
+     */
+    static class CannedBackend implements ProductMatchBackend {
+
+        private final Map<ProductSearchField, Object> _product;
+
+        public CannedBackend(Map<ProductSearchField, Object> product) {
+            _product = product;
+        }
+
+        @Override
+        public void verify() {
+        }
+
+        @Override
+        public Map<ProductSearchField, Object> lookupGtin(String gtinCode) {
+            // real backends decode a new result for every request
+            final Map<ProductSearchField, Object> result = new EnumMap<>(_product);
+            result.remove(ProductSearchField.SCORE);
+            return result;
+        }
+
+        @Override
+        public Map<ProductSearchField, Object> search(Map<ProductSearchField, Object> input) {
+            return new EnumMap<>(_product);
+        }
+
+        @Override
+        public GtinAndTextResult lookupGtinAndSearch(String gtinCode, Map<ProductSearchField, Object> input) {
+            return new GtinAndTextResult(lookupGtin(gtinCode), search(input));
+        }
+
+        @Override
+        public void lookupGtins(long[] gtins, int count, GtinProductTable products) {
+            for (int i = 0; i < count; i++) {
+                products.put(gtins[i], lookupGtin(GtinUtils.formatGtin(gtins[i])));
+            }
+        }
+
+        @Override
+        public long getProductCount() {
+            return 1;
+        }
+
+        @Override
+        public String getIndexVersion() {
+            return "canned";
+        }
+
+        @Override
+        public Iterator<String> getGtinCodes() {
+            return Collections.singleton((String) _product.get(ProductSearchField.GTIN_CD)).iterator();
+        }
+
+        @Override
+        public void addMetrics(Map<String, Number> metrics) {
+        }
+
+        @Override
+        public void addLatencies(Map<String, LatencyHistogram> latencies) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private ProductMatchTransformer _transformer;
+    private MockInputRow _row;
+    private Map<ProductSearchField, Object> _gtinInput;
+    private Map<ProductSearchField, Object> _textInput;
+    private Map<ProductSearchField, Object> _product;
+    private Object[] _result;
+
+    @Setup
+    public void setUp() {
+        final InputColumn<String> gtinColumn = new MockInputColumn<>("gtin");
+        final InputColumn<String> brandColumn = new MockInputColumn<>("brand");
+        final InputColumn<String> nameColumn = new MockInputColumn<>("name");
+        _row = new MockInputRow().put(gtinColumn, "0300743288131").put(brandColumn, "Abbott Laboratories")
+                .put(nameColumn, "1 Er Tablets");
+
+        _gtinInput = new EnumMap<>(ProductSearchField.class);
+        _gtinInput.put(ProductSearchField.GTIN_CD, "0300743288131");
+
+        _textInput = new EnumMap<>(ProductSearchField.class);
+        _textInput.put(ProductSearchField.BRAND_NM, "Lego");
+        _textInput.put(ProductSearchField.GTIN_NM, "Star wars destroyer");
+        _textInput.put(ProductSearchField.ALL, "Imperial Star Destroyer 6211");
+
+        _product = new EnumMap<>(ProductSearchField.class);
+        _product.put(ProductSearchField.SCORE, 14.04f);
+        _product.put(ProductSearchField.GTIN_CD, "0082493500007");
+        _product.put(ProductSearchField.GTIN_NM, "Star Wars Imperial Star Destroyer");
+        _product.put(ProductSearchField.BRAND_NM, "Lego");
+        _product.put(ProductSearchField.BSIN, "K4TDS2");
+        _product.put(ProductSearchField.GPC_SEGMENT, "Toys/Games");
+        _product.put(ProductSearchField.GPC_FAMILY, "Toys/Games");
+        _product.put(ProductSearchField.GPC_CLASS, "Toys - Riding/Sports/Water Toys");
+        _product.put(ProductSearchField.GPC_BRICK, "Toy Vehicles - Non-ride");
+
+        _result = new Object[ProductOutputField.values().length];
+
+        _transformer = new ProductMatchTransformer();
+        _transformer.inputColumns = new InputColumn[] { gtinColumn, brandColumn, nameColumn };
+        _transformer.inputMapping = new ProductInputField[] { ProductInputField.GTIN_CODE,
+                ProductInputField.BRAND_NAME, ProductInputField.PRODUCT_NAME };
+        // measure every row, not the cache
+        _transformer.cacheSize = 0;
+        _transformer.init(new CannedBackend(_product));
+    }
+
+    @TearDown
+    public void tearDown() {
+        _transformer.close();
+    }
+
+    @Benchmark
+    public String normalizeGtinCode() {
+        return ProductMatchTransformer.normalizeGtinCode("0300743288131");
+    }
+
+    @Benchmark
+    public Map<ProductSearchField, Object> createInputMap() {
+        return _transformer.createInputMap(_row);
+    }
+
+    @Benchmark
+    public List<QueryBuilder> createQueryBuilders() {
+        return ElasticSearchBackend.createQueryBuilders(_textInput);
+    }
+
+    @Benchmark
+    public Object[] applySearchHitToResult() {
+        _transformer.applySearchHitToResult(_product, _result);
+        return _result;
+    }
+
+    @Benchmark
+    public Object[] transformGtinLookup() {
+        return _transformer.transform(_gtinInput);
+    }
+
+    @Benchmark
+    public Object[] transformTextSearch() {
+        return _transformer.transform(_textInput);
+    }
+
+    @Benchmark
+    public Object[] transformRow() {
+        return _transformer.transform(_row);
+    }
+}
@@ -0,0 +1,28 @@
+package org.datacleaner.extension.productmatch;
+
+/**
+ * Thrown by a {@link ProductMatchBackend} when a request could not be
+ * completed, after any retries. The transformer gives the affected rows an
+ * error or timeout match status instead of failing the job.
+ */
+class BackendException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean _timeout;
+
+    public BackendException(String message, boolean timeout, Throwable cause) {
+        super(message, cause);
+        _timeout = timeout;
+    }
+
+    /**
+     * Determines if the request failed because the backend did not respond in
+     * time.
+     *
+     * @return
+     */
+    public boolean isTimeout() {
+        return _timeout;
+    }
+}
@@ -0,0 +1,106 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker that fails requests fast while the backend is unhealthy.
+ * After a number of consecutive failures the breaker opens, and requests are
+ * rejected without being sent. Once the open time has passed, a single trial
+ * request is let through: if it succeeds the breaker closes again, otherwise
+ * it stays open for another period.
+ */
+class CircuitBreaker {
+
+    private final int _failureThreshold;
+    private final long _openMillis;
+    private final AtomicInteger _consecutiveFailures = new AtomicInteger(0);
+    // the time until which the breaker is open, or 0 if it is closed
+    private final AtomicLong _openUntil = new AtomicLong(0);
+    private final AtomicBoolean _trialInFlight = new AtomicBoolean(false);
+    private final AtomicLong _tripCount = new AtomicLong(0);
+    private final AtomicLong _rejectedCount = new AtomicLong(0);
+
+    /**
+     * Creates the circuit breaker.
+     *
+     * @param failureThreshold
+     *            the number of consecutive failures that open the breaker, or
+     *            0 to never open it
+     * @param openMillis
+     *            the time that the breaker stays open before a trial request
+     *            is let through
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        _failureThreshold = failureThreshold;
+        _openMillis = openMillis;
+    }
+
+    /**
+     * Determines if a request may be sent. Rejected requests are counted.
+     *
+     * @return
+     */
+    public boolean allowRequest() {
+        final long openUntil = _openUntil.get();
+        if (openUntil == 0) {
+            return true;
+        }
+        if (System.currentTimeMillis() >= openUntil && _trialInFlight.compareAndSet(false, true)) {
+            return true;
+        }
+        _rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    public boolean isOpen() {
+        return _openUntil.get() != 0;
+    }
+
+    public void recordSuccess() {
+        _consecutiveFailures.set(0);
+        _openUntil.set(0);
+        _trialInFlight.set(false);
+    }
+
+    /**
+     * Records a failed request.
+     *
+     * @return whether the failure opened the breaker
+     */
+    public boolean recordFailure() {
+        if (_failureThreshold <= 0) {
+            return false;
+        }
+        if (_openUntil.get() != 0) {
+            // only the trial request keeps the breaker open, failures of
+            // requests sent before it opened are ignored
+            if (_trialInFlight.compareAndSet(true, false)) {
+                trip();
+                return true;
+            }
+            return false;
+        }
+        // only the failure that reaches the threshold trips the breaker
+        if (_consecutiveFailures.incrementAndGet() == _failureThreshold) {
+            trip();
+            return true;
+        }
+        return false;
+    }
+
+    private void trip() {
+        _openUntil.set(System.currentTimeMillis() + _openMillis);
+        _consecutiveFailures.set(0);
+        _tripCount.incrementAndGet();
+    }
+
+    public long getTripCount() {
+        return _tripCount.get();
+    }
+
+    public long getRejectedCount() {
+        return _rejectedCount.get();
+    }
+}
@@ -0,0 +1,457 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.hppc.cursors.ObjectObjectCursor;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.indices.IndexMissingException;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+
+/**
+ * {@link ProductMatchBackend} which matches against the 'pod' index of a
+ * remote Elasticsearch cluster. Requests only fetch the source fields that the
+ * transformer outputs. Matching requests time out, are retried and pass a
+ * circuit breaker according to the {@link RetryPolicy}.
+ */
+class ElasticSearchBackend implements ProductMatchBackend {
+
+    // number of GTIN codes in the terms filter of each bulk lookup
+    private static final int BULK_LOOKUP_CHUNK_SIZE = 4096;
+
+    private final ElasticSearchClientManager _clientManager;
+    private final SourceFieldDecoder _decoder;
+    // also decodes the GTIN code that bulk lookups are joined on
+    private final SourceFieldDecoder _bulkDecoder;
+    private final boolean _gtinLookupById;
+    private final MultiSearchBatcher _searchBatcher;
+    private final MultiGetBatcher _getBatcher;
+    private final RequestThrottle _throttle;
+    private final RetryPolicy _retryPolicy;
+    private final LatencyHistogram _getRoundTripLatency = new LatencyHistogram();
+    private final LatencyHistogram _searchRoundTripLatency = new LatencyHistogram();
+    private final LatencyHistogram _searchTookLatency = new LatencyHistogram();
+
+    /**
+     * Creates the backend.
+     *
+     * @param clientManager
+     * @param fields
+     *            the product fields to fetch
+     * @param gtinLookupById
+     *            whether to look up GTIN codes with a get request on the
+     *            document id, instead of a term query
+     * @param batchSize
+     *            the number of requests to batch together, or 1 to disable
+     *            batching
+     * @param batchMaxWaitMillis
+     * @param maxInFlightRequests
+     *            the maximum number of requests sent to the cluster at the same
+     *            time, or 0 for no limit
+     * @param requestTimeoutMillis
+     *            the maximum time to wait for a response, or 0 for no limit
+     * @param retryPolicy
+     */
+    public ElasticSearchBackend(ElasticSearchClientManager clientManager, Set<ProductSearchField> fields,
+            boolean gtinLookupById, int batchSize, long batchMaxWaitMillis, int maxInFlightRequests,
+            long requestTimeoutMillis, RetryPolicy retryPolicy) {
+        _clientManager = clientManager;
+        _decoder = new SourceFieldDecoder(fields);
+        final Set<ProductSearchField> bulkFields = EnumSet.of(ProductSearchField.GTIN_CD);
+        bulkFields.addAll(fields);
+        _bulkDecoder = new SourceFieldDecoder(bulkFields);
+        _gtinLookupById = gtinLookupById;
+        _retryPolicy = retryPolicy;
+        _throttle = new RequestThrottle(maxInFlightRequests, requestTimeoutMillis);
+        if (batchSize > 1) {
+            _searchBatcher = new MultiSearchBatcher(clientManager, _throttle, batchSize, batchMaxWaitMillis);
+            _getBatcher = new MultiGetBatcher(clientManager, _throttle, _decoder.getFieldNames(), batchSize,
+                    batchMaxWaitMillis);
+        } else {
+            _searchBatcher = null;
+            _getBatcher = null;
+        }
+    }
+
+    /**
+     * Connects to the cluster and checks that the 'pod' index has a mapping of
+     * product documents with GTIN codes.
+     */
+    @Override
+    public void verify() {
+        final Client client = _clientManager.getClient();
+        if (!_clientManager.isHealthy()) {
+            throw new IllegalStateException("Could not connect to Elasticsearch at " + _clientManager.getSeeds()
+                    + ". Check that the cluster is running, and that the system property "
+                    + ProductMatchTransformer.PROPERTY_HOSTS + " points to its nodes");
+        }
+
+        final GetMappingsResponse response;
+        try {
+            response = _throttle.execute(client.admin().indices().prepareGetMappings(ProductMatchTransformer.INDEX_NAME)
+                    .setTypes(ProductMatchTransformer.DOCUMENT_TYPE));
+        } catch (IndexMissingException e) {
+            throw new IllegalStateException(getMissingIndexMessage(), e);
+        } catch (ElasticsearchException e) {
+            throw new IllegalStateException("Failed to read the mapping of the '" + ProductMatchTransformer.INDEX_NAME
+                    + "' index from Elasticsearch at " + _clientManager.getSeeds(), e);
+        }
+        if (response.getMappings().isEmpty()) {
+            throw new IllegalStateException(getMissingIndexMessage());
+        }
+
+        // the index name may be an alias of one or more indexes
+        for (ObjectObjectCursor<String, ImmutableOpenMap<String, MappingMetaData>> index : response.getMappings()) {
+            final MappingMetaData mapping = index.value.get(ProductMatchTransformer.DOCUMENT_TYPE);
+            final Object properties;
+            try {
+                properties = mapping == null ? null : mapping.sourceAsMap().get("properties");
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to parse the mapping of index '" + index.key + "'", e);
+            }
+            if (!(properties instanceof Map)
+                    || !((Map<?, ?>) properties).containsKey(ProductSearchField.GTIN_CD.getFieldName())) {
+                throw new IllegalStateException("Index '" + index.key + "' has no mapping of '"
+                        + ProductMatchTransformer.DOCUMENT_TYPE + "' documents with a "
+                        + ProductSearchField.GTIN_CD.getFieldName()
+                        + " field. Create it with PodIndexProvisioner and load the POD data into it");
+            }
+        }
+    }
+
+    private String getMissingIndexMessage() {
+        return "Elasticsearch at " + _clientManager.getSeeds() + " has no '" + ProductMatchTransformer.INDEX_NAME
+                + "' index. Create it with PodIndexProvisioner and load the POD data into it with PodDumpLoader";
+    }
+
+    @Override
+    public Map<ProductSearchField, Object> lookupGtin(final String gtinCode) {
+        return _retryPolicy.execute(new RetryPolicy.Attempt<Map<ProductSearchField, Object>>() {
+            @Override
+            public Map<ProductSearchField, Object> execute() {
+                final Client client = _clientManager.getClient();
+                try {
+                    return lookupGtin(client, gtinCode);
+                } catch (NoNodeAvailableException e) {
+                    // the connection was lost - retry with a fresh client
+                    _clientManager.reconnect(client);
+                    throw e;
+                }
+            }
+        });
+    }
+
+    private Map<ProductSearchField, Object> lookupGtin(Client client, String gtinCode) {
+        if (_gtinLookupById) {
+            return executeGet(client, gtinCode);
+        }
+        return executeSearch(createGtinSearch(client, gtinCode));
+    }
+
+    @Override
+    public Map<ProductSearchField, Object> search(final Map<ProductSearchField, Object> input) {
+        return _retryPolicy.execute(new RetryPolicy.Attempt<Map<ProductSearchField, Object>>() {
+            @Override
+            public Map<ProductSearchField, Object> execute() {
+                final Client client = _clientManager.getClient();
+                try {
+                    return search(client, input);
+                } catch (NoNodeAvailableException e) {
+                    // the connection was lost - retry with a fresh client
+                    _clientManager.reconnect(client);
+                    throw e;
+                }
+            }
+        });
+    }
+
+    private Map<ProductSearchField, Object> search(Client client, Map<ProductSearchField, Object> input) {
+        final SearchRequestBuilder search = createTextSearch(client, input);
+        if (search == null) {
+            return null;
+        }
+        return executeSearch(search);
+    }
+
+    /**
+     * Sends the GTIN lookup and the text search as one multi-search request.
+     * They are not combined into a single query, since that would change the
+     * text match scores that the match verdict is based on.
+     */
+    @Override
+    public GtinAndTextResult lookupGtinAndSearch(final String gtinCode, final Map<ProductSearchField, Object> input) {
+        return _retryPolicy.execute(new RetryPolicy.Attempt<GtinAndTextResult>() {
+            @Override
+            public GtinAndTextResult execute() {
+                final Client client = _clientManager.getClient();
+                try {
+                    return lookupGtinAndSearch(client, gtinCode, input);
+                } catch (NoNodeAvailableException e) {
+                    // the connection was lost - retry with a fresh client
+                    _clientManager.reconnect(client);
+                    throw e;
+                }
+            }
+        });
+    }
+
+    private GtinAndTextResult lookupGtinAndSearch(Client client, String gtinCode,
+            Map<ProductSearchField, Object> input) {
+        final SearchRequestBuilder search = createTextSearch(client, input);
+        if (search == null) {
+            return new GtinAndTextResult(lookupGtin(client, gtinCode), null);
+        }
+        final SearchRequestBuilder lookup = createGtinSearch(client, gtinCode);
+
+        final MultiSearchRequestBuilder multiSearch = client.prepareMultiSearch().add(prepareSearch(lookup))
+                .add(prepareSearch(search));
+        final long startTime = System.nanoTime();
+        final MultiSearchResponse.Item[] items = _throttle.execute(multiSearch).getResponses();
+        _searchRoundTripLatency.recordSince(startTime);
+        for (MultiSearchResponse.Item item : items) {
+            if (item.isFailure()) {
+                throw RetryPolicy.createItemFailure(item.getFailureMessage());
+            }
+            _searchTookLatency.record(item.getResponse().getTookInMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        // score the lookup like the configured lookup method would
+        final Map<ProductSearchField, Object> lookupResult = getTopHit(items[0].getResponse(), !_gtinLookupById);
+        final Map<ProductSearchField, Object> searchResult = getTopHit(items[1].getResponse(), true);
+        return new GtinAndTextResult(lookupResult, searchResult);
+    }
+
+    private SearchRequestBuilder createGtinSearch(Client client, String gtinCode) {
+        return client.prepareSearch(ProductMatchTransformer.INDEX_NAME)
+                .setTypes(ProductMatchTransformer.DOCUMENT_TYPE).setSearchType(SearchType.QUERY_AND_FETCH)
+                .setQuery(QueryBuilders.termQuery(ProductSearchField.GTIN_CD.getFieldName(), gtinCode));
+    }
+
+    private SearchRequestBuilder createTextSearch(Client client, Map<ProductSearchField, Object> input) {
+        final List<QueryBuilder> queryBuilders = createQueryBuilders(input);
+        if (queryBuilders.isEmpty()) {
+            return null;
+        }
+
+        final QueryBuilder finalQueryBuilder;
+        if (queryBuilders.size() == 1) {
+            finalQueryBuilder = queryBuilders.get(0);
+        } else {
+            BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
+            for (QueryBuilder childQueryBuilder : queryBuilders) {
+                boolQuery = boolQuery.should(childQueryBuilder);
+            }
+            finalQueryBuilder = boolQuery;
+        }
+
+        return client.prepareSearch(ProductMatchTransformer.INDEX_NAME)
+                .setTypes(ProductMatchTransformer.DOCUMENT_TYPE).setSearchType(SearchType.QUERY_AND_FETCH)
+                .setQuery(finalQueryBuilder);
+    }
+
+    static List<QueryBuilder> createQueryBuilders(Map<ProductSearchField, Object> input) {
+        final List<MatchClause> clauses = MatchClause.createClauses(input);
+        final List<QueryBuilder> queryBuilders = new ArrayList<>(clauses.size());
+        for (MatchClause clause : clauses) {
+            queryBuilders.add(QueryBuilders.matchQuery(clause.getIndexFieldName(), clause.getValue()));
+        }
+        return queryBuilders;
+    }
+
+    private SearchRequestBuilder prepareSearch(SearchRequestBuilder search) {
+        return search.setSize(1).setFetchSource(_decoder.getFieldNames(), null)
+                .setPreference(_clientManager.getPreference());
+    }
+
+    private Map<ProductSearchField, Object> executeSearch(SearchRequestBuilder search) {
+        prepareSearch(search);
+        final long startTime = System.nanoTime();
+        final SearchResponse searchResponse;
+        if (_searchBatcher == null) {
+            searchResponse = _throttle.execute(search);
+        } else {
+            searchResponse = _searchBatcher.execute(search.request());
+        }
+        _searchRoundTripLatency.recordSince(startTime);
+        _searchTookLatency.record(searchResponse.getTookInMillis(), TimeUnit.MILLISECONDS);
+        return getTopHit(searchResponse, true);
+    }
+
+    private Map<ProductSearchField, Object> getTopHit(SearchResponse searchResponse, boolean scored) {
+        final SearchHits hits = searchResponse.getHits();
+        if (hits.getTotalHits() == 0) {
+            return null;
+        }
+
+        final SearchHit hit = hits.getAt(0);
+        return createSearchResult(scored ? hit.getScore() : null, hit.sourceRef());
+    }
+
+    private Map<ProductSearchField, Object> executeGet(Client client, String gtinCode) {
+        final long startTime = System.nanoTime();
+        final GetResponse getResponse;
+        if (_getBatcher == null) {
+            getResponse = _throttle.execute(client
+                    .prepareGet(ProductMatchTransformer.INDEX_NAME, ProductMatchTransformer.DOCUMENT_TYPE, gtinCode)
+                    .setFetchSource(_decoder.getFieldNames(), null).setPreference(_clientManager.getPreference()));
+        } else {
+            getResponse = _getBatcher.execute(gtinCode);
+        }
+        _getRoundTripLatency.recordSince(startTime);
+
+        if (!getResponse.isExists()) {
+            return null;
+        }
+
+        // direct lookups are not scored
+        return createSearchResult(null, getResponse.getSourceAsBytesRef());
+    }
+
+    private Map<ProductSearchField, Object> createSearchResult(Float score, BytesReference source) {
+        final Map<ProductSearchField, Object> searchResult = new EnumMap<>(ProductSearchField.class);
+        if (score != null) {
+            searchResult.put(ProductSearchField.SCORE, score);
+        }
+        _decoder.decode(source, searchResult);
+        return searchResult;
+    }
+
+    /**
+     * Fetches the products with a scroll search per chunk of GTIN codes, each
+     * filtering on the codes with a terms filter. Products are keyed by their
+     * GTIN_CD field, since document ids are not necessarily GTIN codes.
+     */
+    @Override
+    public void lookupGtins(long[] gtins, int count, GtinProductTable products) {
+        final Client client = _clientManager.getClient();
+        for (int offset = 0; offset < count; offset += BULK_LOOKUP_CHUNK_SIZE) {
+            final String[] gtinCodes = new String[Math.min(BULK_LOOKUP_CHUNK_SIZE, count - offset)];
+            for (int i = 0; i < gtinCodes.length; i++) {
+                gtinCodes[i] = GtinUtils.formatGtin(gtins[offset + i]);
+            }
+
+            final PodDocumentIterator documents = new PodDocumentIterator(client, QueryBuilders.constantScoreQuery(
+                    FilterBuilders.termsFilter(ProductSearchField.GTIN_CD.getFieldName(), gtinCodes)),
+                    _bulkDecoder.getFieldNames());
+            while (documents.hasNext()) {
+                final Map<ProductSearchField, Object> product = new EnumMap<>(ProductSearchField.class);
+                _bulkDecoder.decode(documents.nextHit().sourceRef(), product);
+                final long gtin = GtinUtils.parseGtin(product.get(ProductSearchField.GTIN_CD));
+                if (gtin != GtinUtils.INVALID) {
+                    products.put(gtin, product);
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getProductCount() {
+        return _throttle.execute(_clientManager.getClient().prepareCount(ProductMatchTransformer.INDEX_NAME)
+                .setTypes(ProductMatchTransformer.DOCUMENT_TYPE)).getCount();
+    }
+
+    /**
+     * Gets the names and UUIDs of the indexes behind the 'pod' index name,
+     * which change when an index is recreated or the alias is switched, and
+     * the number of products, which changes when data is loaded into an
+     * existing index.
+     */
+    @Override
+    public String getIndexVersion() {
+        final GetSettingsResponse response = _throttle.execute(_clientManager.getClient().admin().indices()
+                .prepareGetSettings(ProductMatchTransformer.INDEX_NAME));
+        final List<String> indexes = new ArrayList<>();
+        for (ObjectObjectCursor<String, Settings> index : response.getIndexToSettings()) {
+            indexes.add(index.key + ":" + index.value.get(IndexMetaData.SETTING_UUID));
+        }
+        Collections.sort(indexes);
+        return indexes + "/" + getProductCount();
+    }
+
+    /**
+     * Scrolls through the GTIN_CD field of all products. The document ids are
+     * not used, since they are not necessarily GTIN codes.
+     */
+    @Override
+    public Iterator<String> getGtinCodes() {
+        final PodDocumentIterator documents = new PodDocumentIterator(_clientManager.getClient(),
+                QueryBuilders.matchAllQuery(), new String[] { ProductSearchField.GTIN_CD.getFieldName() });
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return documents.hasNext();
+            }
+
+            @Override
+            public String next() {
+                final Object gtinCode = documents.next().get(ProductSearchField.GTIN_CD.getFieldName());
+                return gtinCode == null ? null : gtinCode.toString();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public void addMetrics(Map<String, Number> metrics) {
+        metrics.put(ProductMatchResult.METRIC_CONNECT_TIME, _clientManager.getConnectTimeMillis());
+        metrics.put(ProductMatchResult.METRIC_RECONNECTS, _clientManager.getReconnectCount());
+        metrics.put(ProductMatchResult.METRIC_CONNECTED_NODES, _clientManager.getConnectedNodeCount());
+        metrics.put(ProductMatchResult.METRIC_PEAK_IN_FLIGHT_REQUESTS, _throttle.getPeakInFlightCount());
+        metrics.put(ProductMatchResult.METRIC_THROTTLED_REQUESTS, _throttle.getThrottledCount());
+        metrics.put(ProductMatchResult.METRIC_REQUEST_TIMEOUTS, _retryPolicy.getTimeoutCount());
+        metrics.put(ProductMatchResult.METRIC_REQUEST_RETRIES, _retryPolicy.getRetryCount());
+        metrics.put(ProductMatchResult.METRIC_CIRCUIT_BREAKER_TRIPS, _retryPolicy.getCircuitBreaker().getTripCount());
+        metrics.put(ProductMatchResult.METRIC_CIRCUIT_BREAKER_REJECTIONS, _retryPolicy.getCircuitBreaker()
+                .getRejectedCount());
+        if (_searchBatcher != null) {
+            metrics.put(ProductMatchResult.METRIC_BATCHES, _searchBatcher.getBatchCount()
+                    + _getBatcher.getBatchCount());
+            metrics.put(ProductMatchResult.METRIC_BATCHED_SEARCHES, _searchBatcher.getRequestCount());
+            metrics.put(ProductMatchResult.METRIC_BATCHED_GETS, _getBatcher.getRequestCount());
+        }
+    }
+
+    @Override
+    public void addLatencies(Map<String, LatencyHistogram> latencies) {
+        latencies.put(ProductMatchResult.LATENCY_GET_ROUND_TRIP, _getRoundTripLatency);
+        latencies.put(ProductMatchResult.LATENCY_SEARCH_ROUND_TRIP, _searchRoundTripLatency);
+        latencies.put(ProductMatchResult.LATENCY_SEARCH_TOOK, _searchTookLatency);
+    }
+
+    @Override
+    public void close() {
+        _clientManager.close();
+    }
+}
@@ -0,0 +1,370 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages a single, long-lived TRANSPORT client to the POD Elasticsearch
+ * cluster. The client is thread-safe and is shared by all worker threads of a
+ * job. If the client loses its connection to the cluster it is replaced by a
+ * new one, at most once every few seconds. In between, requests fail fast and
+ * are left to the retry policy and circuit breaker of the backend.
+ *
+ * The client connects to a list of seed nodes and, if sniffing is enabled, to
+ * the other nodes of the cluster that it discovers through them. Requests are
+ * distributed over the connected nodes according to the {@link LoadBalancing}
+ * mode.
+ */
+public class ElasticSearchClientManager implements Closeable {
+
+    /**
+     * How requests are distributed over the connected nodes.
+     */
+    public static enum LoadBalancing {
+
+        /**
+         * Requests are sent to the nodes in turn, by the transport client.
+         */
+        ROUND_ROBIN,
+
+        /**
+         * Each request is sent to the node with the fewest requests in flight,
+         * so that slow nodes get less traffic.
+         */
+        LEAST_LOADED
+    }
+
+    public static final int DEFAULT_PORT = 9300;
+
+    private static final Logger logger = LoggerFactory.getLogger(ElasticSearchClientManager.class);
+
+    // how often the nodes used for least loaded balancing are updated
+    private static final long NODE_REFRESH_INTERVAL_MILLIS = 5000;
+
+    // creating a client starts thread pools, so an unreachable cluster must
+    // not make every request create one
+    static final long MIN_RECONNECT_INTERVAL_MILLIS = 5000;
+
+    private final String _clusterName;
+    private final List<String> _seeds;
+    private final boolean _sniff;
+    private final LoadBalancing _loadBalancing;
+    private final String _preference;
+    private final AtomicInteger _reconnectCount = new AtomicInteger(0);
+    private final AtomicInteger _nextNode = new AtomicInteger(0);
+
+    private volatile TransportClient _client;
+    private volatile long _connectTimeMillis;
+    private volatile long _connectAttemptTime = 0;
+    private volatile List<LoadTrackingClient> _nodeClients = Collections.emptyList();
+    private volatile long _nodeRefreshTime = 0;
+
+    public ElasticSearchClientManager(String clusterName, String hostname, int port) {
+        this(clusterName, Collections.singletonList(hostname + ":" + port), false, LoadBalancing.ROUND_ROBIN, null);
+    }
+
+    /**
+     * Creates the client manager.
+     *
+     * @param clusterName
+     * @param seeds
+     *            the nodes to connect to, as 'hostname' or 'hostname:port'
+     * @param sniff
+     *            whether to discover and connect to the other nodes of the
+     *            cluster
+     * @param loadBalancing
+     * @param preference
+     *            the Elasticsearch search preference, which selects the shard
+     *            copies that serve requests, or null to spread requests over
+     *            all copies
+     */
+    public ElasticSearchClientManager(String clusterName, List<String> seeds, boolean sniff,
+            LoadBalancing loadBalancing, String preference) {
+        if (seeds.isEmpty()) {
+            throw new IllegalArgumentException("At least one Elasticsearch node is required");
+        }
+        _clusterName = clusterName;
+        _seeds = seeds;
+        _sniff = sniff;
+        _loadBalancing = loadBalancing;
+        _preference = preference;
+    }
+
+    /**
+     * Parses a comma separated list of nodes.
+     *
+     * @param nodes
+     *            the nodes, as 'hostname' or 'hostname:port'
+     * @return
+     */
+    public static List<String> parseSeeds(String nodes) {
+        final List<String> seeds = new ArrayList<>();
+        for (String node : nodes.split(",")) {
+            if (!node.trim().isEmpty()) {
+                seeds.add(node.trim());
+            }
+        }
+        return seeds;
+    }
+
+    static InetSocketTransportAddress toTransportAddress(String seed) {
+        final int colon = seed.lastIndexOf(':');
+        if (colon == -1) {
+            return new InetSocketTransportAddress(seed, DEFAULT_PORT);
+        }
+        final int port;
+        try {
+            port = Integer.parseInt(seed.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port in Elasticsearch node '" + seed + "'", e);
+        }
+        return new InetSocketTransportAddress(seed.substring(0, colon), port);
+    }
+
+    /**
+     * Gets a client, (re)connecting if there is no client or if it has no
+     * connected nodes. With {@link LoadBalancing#LEAST_LOADED}, the client
+     * sends requests to the least loaded node only.
+     *
+     * @return
+     */
+    public Client getClient() {
+        TransportClient client = _client;
+        if (client == null || (!isHealthy(client) && isReconnectAllowed())) {
+            client = reconnectCluster(client);
+        }
+        if (_loadBalancing == LoadBalancing.LEAST_LOADED) {
+            return getLeastLoadedClient(client);
+        }
+        return client;
+    }
+
+    private Client getLeastLoadedClient(TransportClient client) {
+        if (System.currentTimeMillis() - _nodeRefreshTime > NODE_REFRESH_INTERVAL_MILLIS) {
+            refreshNodeClients(client, false);
+        }
+
+        final List<LoadTrackingClient> nodeClients = _nodeClients;
+        final int size = nodeClients.size();
+        if (size == 0) {
+            return client;
+        }
+
+        // start at a rotating node, so that ties are spread over the nodes
+        final int start = (_nextNode.getAndIncrement() & Integer.MAX_VALUE) % size;
+        LoadTrackingClient leastLoaded = null;
+        for (int i = 0; i < size; i++) {
+            final LoadTrackingClient nodeClient = nodeClients.get((start + i) % size);
+            if (nodeClient.isConnected()
+                    && (leastLoaded == null || nodeClient.getInFlightCount() < leastLoaded.getInFlightCount())) {
+                leastLoaded = nodeClient;
+            }
+        }
+        return leastLoaded == null ? client : leastLoaded;
+    }
+
+    /**
+     * Updates the single node clients to match the nodes that the cluster
+     * client is connected to.
+     */
+    private synchronized void refreshNodeClients(TransportClient client, boolean force) {
+        if (!force && System.currentTimeMillis() - _nodeRefreshTime <= NODE_REFRESH_INTERVAL_MILLIS) {
+            // another thread has just refreshed them
+            return;
+        }
+
+        final Map<TransportAddress, LoadTrackingClient> previousClients = new HashMap<>();
+        for (LoadTrackingClient nodeClient : _nodeClients) {
+            previousClients.put(nodeClient.getAddress(), nodeClient);
+        }
+
+        final List<LoadTrackingClient> nodeClients = new ArrayList<>();
+        for (DiscoveryNode node : client.connectedNodes()) {
+            LoadTrackingClient nodeClient = previousClients.remove(node.address());
+            if (nodeClient == null) {
+                nodeClient = new LoadTrackingClient(createTransportClient(false, node.address()), node.address());
+            }
+            nodeClients.add(nodeClient);
+        }
+        _nodeClients = Collections.unmodifiableList(nodeClients);
+        _nodeRefreshTime = System.currentTimeMillis();
+
+        for (LoadTrackingClient nodeClient : previousClients.values()) {
+            logger.info("Elasticsearch node {} is no longer connected", nodeClient.getAddress());
+            closeQuietly(nodeClient);
+        }
+    }
+
+    /**
+     * Replaces a client that has failed with a new one. If another thread has
+     * already replaced the failed client, the new client is returned as-is. If
+     * the client of a single node failed, the nodes are updated and another
+     * node's client is returned.
+     *
+     * @param failedClient
+     *            the client that failed, or null if no client has been
+     *            created yet
+     * @return
+     */
+    public synchronized Client reconnect(Client failedClient) {
+        if (failedClient instanceof LoadTrackingClient) {
+            final TransportClient client = _client;
+            if (client != null && isHealthy(client)) {
+                refreshNodeClients(client, true);
+                return getLeastLoadedClient(client);
+            }
+            return getClient();
+        }
+
+        final TransportClient client = reconnectCluster((TransportClient) failedClient);
+        if (_loadBalancing == LoadBalancing.LEAST_LOADED) {
+            return getLeastLoadedClient(client);
+        }
+        return client;
+    }
+
+    private synchronized TransportClient reconnectCluster(TransportClient failedClient) {
+        final TransportClient currentClient = _client;
+        if (currentClient != null && currentClient != failedClient) {
+            // someone else already reconnected
+            return currentClient;
+        }
+        if (currentClient != null && !isReconnectAllowed()) {
+            // reconnected recently, so reconnecting again is unlikely to help
+            return currentClient;
+        }
+
+        if (currentClient != null) {
+            logger.warn("Elasticsearch client to {} is unhealthy, reconnecting", _seeds);
+            _reconnectCount.incrementAndGet();
+            closeQuietly(currentClient);
+            closeNodeClients();
+        }
+
+        final long startTime = System.currentTimeMillis();
+        _connectAttemptTime = startTime;
+        final TransportAddress[] addresses = new TransportAddress[_seeds.size()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = toTransportAddress(_seeds.get(i));
+        }
+        final TransportClient newClient = createTransportClient(_sniff, addresses);
+        _connectTimeMillis = System.currentTimeMillis() - startTime;
+
+        logger.info("Connected to Elasticsearch at {} in {} ms, {} node(s) connected", _seeds, _connectTimeMillis,
+                newClient.connectedNodes().size());
+
+        _client = newClient;
+        return newClient;
+    }
+
+    private boolean isReconnectAllowed() {
+        return System.currentTimeMillis() - _connectAttemptTime >= MIN_RECONNECT_INTERVAL_MILLIS;
+    }
+
+    private TransportClient createTransportClient(boolean sniff, TransportAddress... addresses) {
+        final Settings settings = ImmutableSettings.settingsBuilder().put("cluster.name", _clusterName)
+                .put("client.transport.sniff", sniff).build();
+        final TransportClient client = new TransportClient(settings);
+        client.addTransportAddresses(addresses);
+        return client;
+    }
+
+    public boolean isHealthy() {
+        final TransportClient client = _client;
+        return client != null && isHealthy(client);
+    }
+
+    private boolean isHealthy(TransportClient client) {
+        return !client.connectedNodes().isEmpty();
+    }
+
+    /**
+     * Gets the addresses of the nodes that the client connects to, as
+     * "host:port".
+     *
+     * @return
+     */
+    public List<String> getSeeds() {
+        return _seeds;
+    }
+
+    /**
+     * Gets the search preference to set on requests, or null if none.
+     *
+     * @return
+     */
+    public String getPreference() {
+        return _preference;
+    }
+
+    /**
+     * Gets the number of nodes that the client is connected to.
+     *
+     * @return
+     */
+    public int getConnectedNodeCount() {
+        final TransportClient client = _client;
+        return client == null ? 0 : client.connectedNodes().size();
+    }
+
+    /**
+     * Gets the time in milliseconds it took to establish the most recent
+     * connection.
+     *
+     * @return
+     */
+    public long getConnectTimeMillis() {
+        return _connectTimeMillis;
+    }
+
+    /**
+     * Gets the number of times the client has been replaced because of
+     * failures.
+     *
+     * @return
+     */
+    public int getReconnectCount() {
+        return _reconnectCount.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        final TransportClient client = _client;
+        _client = null;
+        closeNodeClients();
+        if (client != null) {
+            closeQuietly(client);
+        }
+    }
+
+    private void closeNodeClients() {
+        for (LoadTrackingClient nodeClient : _nodeClients) {
+            closeQuietly(nodeClient);
+        }
+        _nodeClients = Collections.emptyList();
+        _nodeRefreshTime = 0;
+    }
+
+    private void closeQuietly(Client client) {
+        try {
+            client.close();
+        } catch (Exception e) {
+            logger.warn("Failed to close Elasticsearch client", e);
+        }
+    }
+}
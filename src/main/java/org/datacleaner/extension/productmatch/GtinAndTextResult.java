@@ -0,0 +1,39 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.Map;
+
+/**
+ * The results of a GTIN lookup and a text search that were executed together,
+ * see {@link ProductMatchBackend#lookupGtinAndSearch(String, Map)}.
+ */
+final class GtinAndTextResult {
+
+    private final Map<ProductSearchField, Object> _lookupResult;
+    private final Map<ProductSearchField, Object> _searchResult;
+
+    public GtinAndTextResult(Map<ProductSearchField, Object> lookupResult,
+            Map<ProductSearchField, Object> searchResult) {
+        _lookupResult = lookupResult;
+        _searchResult = searchResult;
+    }
+
+    /**
+     * Gets the product with the GTIN code, like
+     * {@link ProductMatchBackend#lookupGtin(String)}.
+     *
+     * @return the product, or null if there is no product with the GTIN code
+     */
+    public Map<ProductSearchField, Object> getLookupResult() {
+        return _lookupResult;
+    }
+
+    /**
+     * Gets the best text match, like
+     * {@link ProductMatchBackend#search(Map)}.
+     *
+     * @return the product, or null if nothing matches
+     */
+    public Map<ProductSearchField, Object> getSearchResult() {
+        return _searchResult;
+    }
+}
@@ -0,0 +1,173 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Bloom filter of the GTIN codes in the POD database. It answers whether a GTIN
+ * code may be in the database, so that codes which are certainly not in it,
+ * such as private label codes, can be rejected without a lookup. A code that
+ * is in the database is never rejected, but a code that is not may pass the
+ * filter with the configured false positive rate.
+ *
+ * The filter can be saved to a file, so that it does not have to be rebuilt
+ * from the index every time. A saved filter must be rebuilt when products are
+ * added to the index, otherwise the new products are never found.
+ */
+final class GtinBloomFilter {
+
+    private static final int MAGIC = 0x504f4442; // "PODB"
+    private static final int FORMAT_VERSION = 1;
+
+    private final long[] _bits;
+    private final long _bitCount;
+    private final int _hashCount;
+
+    private GtinBloomFilter(long[] bits, int hashCount) {
+        _bits = bits;
+        _bitCount = (long) bits.length * Long.SIZE;
+        _hashCount = hashCount;
+    }
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param expectedCount
+     *            the number of GTIN codes that will be added
+     * @param falsePositiveRate
+     *            the desired rate of codes that pass the filter without being
+     *            added to it, e.g. 0.01
+     * @return
+     */
+    public static GtinBloomFilter create(long expectedCount, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1, but was "
+                    + falsePositiveRate);
+        }
+        final long count = Math.max(1, expectedCount);
+        final double ln2 = Math.log(2);
+        final long bitCount = Math.max(Long.SIZE, (long) Math.ceil(-count * Math.log(falsePositiveRate)
+                / (ln2 * ln2)));
+        final int hashCount = Math.max(1, (int) Math.round((double) bitCount / count * ln2));
+        final long wordCount = (bitCount + Long.SIZE - 1) / Long.SIZE;
+        if (wordCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large for " + expectedCount + " GTIN codes");
+        }
+        return new GtinBloomFilter(new long[(int) wordCount], hashCount);
+    }
+
+    /**
+     * Creates a filter of all GTIN codes in a backend.
+     *
+     * @param backend
+     * @param falsePositiveRate
+     * @return
+     */
+    public static GtinBloomFilter create(ProductMatchBackend backend, double falsePositiveRate) {
+        final GtinBloomFilter filter = create(backend.getProductCount(), falsePositiveRate);
+        final Iterator<String> gtinCodes = backend.getGtinCodes();
+        while (gtinCodes.hasNext()) {
+            final long gtin = GtinUtils.parseGtin(gtinCodes.next());
+            if (gtin != GtinUtils.INVALID) {
+                filter.add(gtin);
+            }
+        }
+        return filter;
+    }
+
+    public void add(long gtin) {
+        final long hash1 = mix(gtin);
+        final long hash2 = mix(hash1);
+        for (int i = 0; i < _hashCount; i++) {
+            final long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % _bitCount;
+            _bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Determines if a GTIN code may be in the filter.
+     *
+     * @param gtin
+     * @return false if the code is certainly not in the filter
+     */
+    public boolean mightContain(long gtin) {
+        final long hash1 = mix(gtin);
+        final long hash2 = mix(hash1);
+        for (int i = 0; i < _hashCount; i++) {
+            final long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % _bitCount;
+            if ((_bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the MurmurHash3 finalizer, which spreads consecutive codes evenly
+    private static long mix(long value) {
+        long hash = value;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    public int getHashCount() {
+        return _hashCount;
+    }
+
+    public long getBitCount() {
+        return _bitCount;
+    }
+
+    /**
+     * Saves the filter to a file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(_hashCount);
+            out.writeInt(_bits.length);
+            for (long word : _bits) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * Loads a filter that was saved with {@link #save(File)}.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static GtinBloomFilter load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a GTIN Bloom filter file: " + file);
+            }
+            final int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported GTIN Bloom filter format version: " + version);
+            }
+            final int hashCount = in.readInt();
+            final long[] bits = new long[in.readInt()];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = in.readLong();
+            }
+            return new GtinBloomFilter(bits, hashCount);
+        }
+    }
+}
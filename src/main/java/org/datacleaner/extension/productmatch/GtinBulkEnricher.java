@@ -0,0 +1,273 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Enriches large sets of GTIN codes in bulk. Instead of looking up the codes
+ * row by row, the distinct codes of all rows are collected first, their
+ * products are fetched from the backend in large pages, and the rows are then
+ * joined with the products locally through a {@link GtinProductTable}. Rows get
+ * the same output columns and match statuses as they would from a
+ * {@link ProductMatchTransformer} with only a GTIN code input.
+ *
+ * The enricher can be run from the command line, with a file of one GTIN code
+ * per line. It writes a tab-separated file with a header line and one line of
+ * output columns per input line:
+ *
+ * <pre>
+ * java ... GtinBulkEnricher &lt;hostname&gt; &lt;port&gt; &lt;GTIN file&gt; &lt;output file&gt;
+ * </pre>
+ */
+public class GtinBulkEnricher implements Closeable {
+
+    private final ProductMatchBackend _backend;
+    private final ProductMatchTransformer _transformer;
+    private long[] _gtins = new long[1024];
+    private int _gtinCount = 0;
+    private GtinProductTable _products;
+
+    /**
+     * Creates the enricher.
+     *
+     * @param backend
+     *            the backend to fetch products from
+     * @param outputFields
+     *            the output columns to produce
+     * @param validateGtinCheckDigit
+     *            whether to only look up GTIN codes with a valid check digit
+     */
+    GtinBulkEnricher(ProductMatchBackend backend, ProductOutputField[] outputFields,
+            boolean validateGtinCheckDigit) {
+        _backend = backend;
+        _transformer = new ProductMatchTransformer();
+        _transformer.outputFields = outputFields;
+        _transformer.validateGtinCheckDigit = validateGtinCheckDigit;
+        // every code is only looked up once anyway
+        _transformer.cacheSize = 0;
+        _transformer.coalesceIdenticalLookups = false;
+    }
+
+    /**
+     * Adds the GTIN code of a row to the codes to fetch. Must be called for all
+     * rows before {@link #fetch()}.
+     *
+     * @param gtinObj
+     */
+    public void addGtin(Object gtinObj) {
+        if (_products != null) {
+            throw new IllegalStateException("Products have already been fetched");
+        }
+        final long gtin = GtinUtils.parseGtin(gtinObj);
+        if (gtin == GtinUtils.INVALID
+                || (_transformer.validateGtinCheckDigit && !GtinUtils.isValidCheckDigit(gtin))) {
+            // will not be looked up
+            return;
+        }
+        if (_gtinCount == _gtins.length) {
+            _gtins = Arrays.copyOf(_gtins, _gtinCount * 2);
+        }
+        _gtins[_gtinCount++] = gtin;
+    }
+
+    /**
+     * Fetches the products of the distinct GTIN codes that have been added.
+     *
+     * @return the number of products found
+     */
+    public int fetch() {
+        Arrays.sort(_gtins, 0, _gtinCount);
+        int distinctCount = 0;
+        for (int i = 0; i < _gtinCount; i++) {
+            if (distinctCount == 0 || _gtins[i] != _gtins[distinctCount - 1]) {
+                _gtins[distinctCount++] = _gtins[i];
+            }
+        }
+        _gtinCount = distinctCount;
+
+        final GtinProductTable products = new GtinProductTable(_gtinCount);
+        _backend.lookupGtins(_gtins, _gtinCount, products);
+        _products = products;
+        _transformer.init(new JoinBackend());
+        return products.size();
+    }
+
+    /**
+     * Enriches a row with the product of its GTIN code.
+     *
+     * @param gtinObj
+     * @return the values of the output columns
+     */
+    public Object[] enrich(Object gtinObj) {
+        if (_products == null) {
+            throw new IllegalStateException("Products have not been fetched yet");
+        }
+        final Map<ProductSearchField, Object> input = new EnumMap<>(ProductSearchField.class);
+        if (gtinObj != null && !(gtinObj instanceof String && ((String) gtinObj).trim().isEmpty())) {
+            input.put(ProductSearchField.GTIN_CD, gtinObj);
+        }
+        return _transformer.projectOutput(_transformer.transform(input));
+    }
+
+    public String[] getOutputColumnNames() {
+        final String[] names = new String[_transformer.outputFields.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = _transformer.outputFields[i].getName();
+        }
+        return names;
+    }
+
+    /**
+     * Gets the number of distinct GTIN codes that were fetched.
+     *
+     * @return
+     */
+    public int getDistinctGtinCount() {
+        return _gtinCount;
+    }
+
+    @Override
+    public void close() {
+        _transformer.close();
+        _backend.close();
+    }
+
+    /**
+     * Backend that the transformer matches against, which joins with the
+     * fetched products. Codes that were not added before the fetch are looked
+     * up in the real backend.
+     */
+    private class JoinBackend implements ProductMatchBackend {
+
+        @Override
+        public void verify() {
+            // codes that were not fetched, and searches, go to the real backend
+            _backend.verify();
+        }
+
+        @Override
+        public Map<ProductSearchField, Object> lookupGtin(String gtinCode) {
+            final long gtin = GtinUtils.parseGtin(gtinCode);
+            if (Arrays.binarySearch(_gtins, 0, _gtinCount, gtin) < 0) {
+                return _backend.lookupGtin(gtinCode);
+            }
+            return _products.get(gtin);
+        }
+
+        @Override
+        public Map<ProductSearchField, Object> search(Map<ProductSearchField, Object> input) {
+            return _backend.search(input);
+        }
+
+        @Override
+        public GtinAndTextResult lookupGtinAndSearch(String gtinCode, Map<ProductSearchField, Object> input) {
+            return new GtinAndTextResult(lookupGtin(gtinCode), search(input));
+        }
+
+        @Override
+        public void lookupGtins(long[] gtins, int count, GtinProductTable products) {
+            _backend.lookupGtins(gtins, count, products);
+        }
+
+        @Override
+        public long getProductCount() {
+            return _backend.getProductCount();
+        }
+
+        @Override
+        public String getIndexVersion() {
+            return _backend.getIndexVersion();
+        }
+
+        @Override
+        public Iterator<String> getGtinCodes() {
+            return _backend.getGtinCodes();
+        }
+
+        @Override
+        public void addMetrics(Map<String, Number> metrics) {
+            _backend.addMetrics(metrics);
+        }
+
+        @Override
+        public void addLatencies(Map<String, LatencyHistogram> latencies) {
+            _backend.addLatencies(latencies);
+        }
+
+        @Override
+        public void close() {
+            // the real backend is closed by the enricher
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("Usage: GtinBulkEnricher <hostname> <port> <GTIN file> <output file>");
+            System.exit(1);
+        }
+
+        final ElasticSearchClientManager clientManager = new ElasticSearchClientManager(
+                ProductMatchTransformer.INDEX_NAME, args[0], Integer.parseInt(args[1]));
+        final ProductOutputField[] outputFields = ProductOutputField.values();
+        final ElasticSearchBackend backend = new ElasticSearchBackend(clientManager,
+                ProductOutputField.getSearchFields(outputFields), true, 1, 0, 0, 0, new RetryPolicy(2, 100,
+                        new CircuitBreaker(0, 0)));
+        backend.verify();
+        final File inputFile = new File(args[2]);
+
+        try (GtinBulkEnricher enricher = new GtinBulkEnricher(backend, outputFields, true)) {
+            final long startTime = System.nanoTime();
+            try (BufferedReader reader = createReader(inputFile)) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    enricher.addGtin(line);
+                }
+            }
+            final int productCount = enricher.fetch();
+
+            int rowCount = 0;
+            try (BufferedReader reader = createReader(inputFile);
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[3]),
+                            StandardCharsets.UTF_8))) {
+                writeLine(writer, enricher.getOutputColumnNames());
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    writeLine(writer, enricher.enrich(line));
+                    rowCount++;
+                }
+            }
+
+            System.out.println("Enriched " + rowCount + " rows with " + productCount + " products of "
+                    + enricher.getDistinctGtinCount() + " distinct GTIN codes in "
+                    + (System.nanoTime() - startTime) / 1000000 + " ms");
+        }
+    }
+
+    private static BufferedReader createReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+
+    private static void writeLine(Writer writer, Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write('\t');
+            }
+            if (values[i] != null) {
+                // keep the values on one line and in one column
+                writer.write(values[i].toString().replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+            }
+        }
+        writer.write('\n');
+    }
+}
@@ -0,0 +1,162 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A read-only, memory-mapped index of POD products keyed by GTIN code. The
+ * index lives outside of the Java heap and is safe to use from many threads.
+ * Values are decoded through a scratch array per thread, so that a lookup only
+ * allocates the product it returns.
+ *
+ * The file layout is:
+ * <ul>
+ * <li>header: magic number, format version, entry count and the names of the
+ * stored fields</li>
+ * <li>a sorted array of GTIN codes as longs</li>
+ * <li>an array of int offsets into the record area, one per GTIN code</li>
+ * <li>the record area, where each record holds the stored fields in header
+ * order as a short length (-1 for null) followed by UTF-8 bytes</li>
+ * </ul>
+ *
+ * Files are created with {@link GtinIndexFileBuilder}.
+ */
+public class GtinIndexFile implements Closeable {
+
+    static final int MAGIC = 0x504f4447; // "PODG"
+    static final int FORMAT_VERSION = 1;
+
+    private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[256];
+        }
+    };
+
+    // dropped on close, so that the mapping can be released even if this
+    // object is still referenced, e.g. by a transformer that is re-initialized
+    private volatile ByteBuffer _buffer;
+    private final int _entryCount;
+    private final ProductSearchField[] _fields;
+    private final int _keysPosition;
+    private final int _offsetsPosition;
+    private final int _recordsPosition;
+
+    public GtinIndexFile(File file) throws IOException {
+        final MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = randomAccessFile.getChannel();
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("GTIN index file is too large to be mapped: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        final int magic = buffer.getInt();
+        if (magic != MAGIC) {
+            throw new IOException("Not a GTIN index file: " + file);
+        }
+        final int version = buffer.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported GTIN index format version " + version + " (expected "
+                    + FORMAT_VERSION + "), please rebuild the file: " + file);
+        }
+
+        _entryCount = buffer.getInt();
+        final int fieldCount = buffer.getShort();
+        _fields = new ProductSearchField[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            final byte[] nameBytes = new byte[buffer.getShort()];
+            buffer.get(nameBytes);
+            _fields[i] = ProductSearchField.valueOf(new String(nameBytes, StandardCharsets.UTF_8));
+        }
+
+        _buffer = buffer;
+        _keysPosition = buffer.position();
+        _offsetsPosition = _keysPosition + _entryCount * 8;
+        _recordsPosition = _offsetsPosition + _entryCount * 4;
+    }
+
+    /**
+     * Looks up a product by its GTIN code.
+     *
+     * @param gtin
+     * @return the stored fields of the product, or null if the GTIN code is
+     *         not in the index
+     */
+    public Map<ProductSearchField, Object> lookup(long gtin) {
+        final ByteBuffer buffer = getBuffer();
+        final int entry = findEntry(buffer, gtin);
+        if (entry < 0) {
+            return null;
+        }
+
+        byte[] scratch = SCRATCH.get();
+        int position = _recordsPosition + buffer.getInt(_offsetsPosition + entry * 4);
+        final Map<ProductSearchField, Object> result = new EnumMap<>(ProductSearchField.class);
+        for (int i = 0; i < _fields.length; i++) {
+            final int length = buffer.getShort(position);
+            position += 2;
+            if (length >= 0) {
+                if (length > scratch.length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                    SCRATCH.set(scratch);
+                }
+                for (int j = 0; j < length; j++) {
+                    scratch[j] = buffer.get(position + j);
+                }
+                position += length;
+                result.put(_fields[i], new String(scratch, 0, length, StandardCharsets.UTF_8));
+            }
+        }
+        return result;
+    }
+
+    public boolean contains(long gtin) {
+        return findEntry(getBuffer(), gtin) >= 0;
+    }
+
+    private ByteBuffer getBuffer() {
+        final ByteBuffer buffer = _buffer;
+        if (buffer == null) {
+            throw new IllegalStateException("GTIN index file is closed");
+        }
+        return buffer;
+    }
+
+    private int findEntry(ByteBuffer buffer, long gtin) {
+        int low = 0;
+        int high = _entryCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long key = buffer.getLong(_keysPosition + mid * 8);
+            if (key < gtin) {
+                low = mid + 1;
+            } else if (key > gtin) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public int getEntryCount() {
+        return _entryCount;
+    }
+
+    @Override
+    public void close() {
+        // the mapping is released when the buffer is garbage collected
+        _buffer = null;
+    }
+}
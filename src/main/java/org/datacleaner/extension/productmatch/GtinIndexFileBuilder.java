@@ -0,0 +1,265 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.client.Client;
+
+/**
+ * Builds a {@link GtinIndexFile}. Records are spooled to a temporary file while
+ * entries are added, so only the GTIN codes and record offsets are held in
+ * memory.
+ *
+ * The builder can be run from the command line to generate the file from the
+ * 'pod' Elasticsearch index:
+ *
+ * <pre>
+ * java ... GtinIndexFileBuilder &lt;hostname&gt; &lt;port&gt; &lt;output file&gt;
+ * </pre>
+ */
+public class GtinIndexFileBuilder {
+
+    /**
+     * The fields stored for each product - those that back the output columns
+     * of {@link ProductMatchTransformer}.
+     */
+    static final ProductSearchField[] STORED_FIELDS = getStoredFields();
+
+    private final File _file;
+    private final File _recordsFile;
+    private final DataOutputStream _records;
+    private long[] _keys = new long[1024];
+    private int[] _offsets = new int[1024];
+    private int _entryCount = 0;
+
+    public GtinIndexFileBuilder(File file) throws IOException {
+        _file = file;
+        _recordsFile = File.createTempFile("gtin_records", ".tmp");
+        _records = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_recordsFile)));
+    }
+
+    /**
+     * Adds a product to the index. If a GTIN code is added more than once, the
+     * last product added with it is kept.
+     *
+     * @param gtin
+     * @param fields
+     *            the product fields, of which the {@link #STORED_FIELDS} are
+     *            stored
+     * @throws IOException
+     */
+    public void add(long gtin, Map<ProductSearchField, ?> fields) throws IOException {
+        if (_entryCount == _keys.length) {
+            _keys = Arrays.copyOf(_keys, _entryCount * 2);
+            _offsets = Arrays.copyOf(_offsets, _entryCount * 2);
+        }
+        _keys[_entryCount] = gtin;
+        _offsets[_entryCount] = _records.size();
+        _entryCount++;
+
+        for (ProductSearchField field : STORED_FIELDS) {
+            final Object value = fields.get(field);
+            if (value == null) {
+                _records.writeShort(-1);
+            } else {
+                final byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                final int length = getTruncatedLength(bytes, Short.MAX_VALUE);
+                _records.writeShort(length);
+                _records.write(bytes, 0, length);
+            }
+        }
+        if (_records.size() == Integer.MAX_VALUE) {
+            throw new IOException("GTIN index records exceed the maximum size of 2 GB");
+        }
+    }
+
+    /**
+     * Gets the length that UTF-8 bytes can be truncated to, without splitting a
+     * multi-byte character.
+     *
+     * @param bytes
+     * @param maxLength
+     * @return
+     */
+    static int getTruncatedLength(byte[] bytes, int maxLength) {
+        if (bytes.length <= maxLength) {
+            return bytes.length;
+        }
+        int length = maxLength;
+        // back up to the first byte of the character that does not fit, which
+        // is not a continuation byte (10xxxxxx)
+        while (length > 0 && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * Adds all products of the POD index by scrolling through it.
+     *
+     * @param client
+     * @throws IOException
+     */
+    public void addAll(Client client) throws IOException {
+        final PodDocumentIterator documents = new PodDocumentIterator(client);
+        while (documents.hasNext()) {
+            final Map<String, Object> source = documents.next();
+            final long gtin = GtinUtils.parseGtin(source.get(ProductSearchField.GTIN_CD.getFieldName()));
+            if (gtin != GtinUtils.INVALID) {
+                add(gtin, toFieldMap(source));
+            }
+        }
+    }
+
+    private static ProductSearchField[] getStoredFields() {
+        final List<ProductSearchField> fields = new ArrayList<>();
+        for (ProductOutputField outputField : ProductOutputField.values()) {
+            final ProductSearchField searchField = outputField.getSearchField();
+            if (searchField != null && !searchField.isPseudoField()) {
+                fields.add(searchField);
+            }
+        }
+        return fields.toArray(new ProductSearchField[fields.size()]);
+    }
+
+    private static Map<ProductSearchField, Object> toFieldMap(Map<String, Object> source) {
+        final Map<ProductSearchField, Object> fields = new EnumMap<>(ProductSearchField.class);
+        for (ProductSearchField field : STORED_FIELDS) {
+            fields.put(field, source.get(field.getFieldName()));
+        }
+        return fields;
+    }
+
+    /**
+     * Writes the index file and removes the temporary records file.
+     *
+     * @throws IOException
+     */
+    public void build() throws IOException {
+        _records.close();
+        try {
+            sort(0, _entryCount - 1);
+            removeDuplicates();
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_file)))) {
+                out.writeInt(GtinIndexFile.MAGIC);
+                out.writeInt(GtinIndexFile.FORMAT_VERSION);
+                out.writeInt(_entryCount);
+                out.writeShort(STORED_FIELDS.length);
+                for (ProductSearchField field : STORED_FIELDS) {
+                    final byte[] nameBytes = field.name().getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(nameBytes.length);
+                    out.write(nameBytes);
+                }
+
+                for (int i = 0; i < _entryCount; i++) {
+                    out.writeLong(_keys[i]);
+                }
+                for (int i = 0; i < _entryCount; i++) {
+                    out.writeInt(_offsets[i]);
+                }
+
+                try (InputStream in = new BufferedInputStream(new FileInputStream(_recordsFile))) {
+                    final byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+            }
+        } finally {
+            _recordsFile.delete();
+        }
+    }
+
+    /**
+     * Sorts the keys and their offsets together, by key.
+     */
+    private void sort(int low, int high) {
+        while (low < high) {
+            final long pivot = _keys[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (_keys[i] < pivot) {
+                    i++;
+                }
+                while (_keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller part to bound the stack depth
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+    }
+
+    /**
+     * Removes the entries of GTIN codes that were added more than once, after
+     * sorting, so that lookups find a single product. Records are spooled in
+     * the order they are added, so the entry with the highest offset is the
+     * last one added.
+     */
+    private void removeDuplicates() {
+        int count = 0;
+        for (int i = 0; i < _entryCount; i++) {
+            if (count > 0 && _keys[count - 1] == _keys[i]) {
+                _offsets[count - 1] = Math.max(_offsets[count - 1], _offsets[i]);
+            } else {
+                _keys[count] = _keys[i];
+                _offsets[count] = _offsets[i];
+                count++;
+            }
+        }
+        _entryCount = count;
+    }
+
+    private void swap(int i, int j) {
+        final long key = _keys[i];
+        _keys[i] = _keys[j];
+        _keys[j] = key;
+        final int offset = _offsets[i];
+        _offsets[i] = _offsets[j];
+        _offsets[j] = offset;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: GtinIndexFileBuilder <hostname> <port> <output file>");
+            System.exit(1);
+        }
+
+        final ElasticSearchClientManager clientManager = new ElasticSearchClientManager(
+                ProductMatchTransformer.INDEX_NAME, args[0], Integer.parseInt(args[1]));
+        try {
+            final GtinIndexFileBuilder builder = new GtinIndexFileBuilder(new File(args[2]));
+            builder.addAll(clientManager.getClient());
+            builder.build();
+            System.out.println("Wrote " + builder._entryCount + " products to " + args[2]);
+        } finally {
+            clientManager.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Hash table of products keyed by primitive GTIN code, with open addressing
+ * and linear probing, so that joining rows with products does not box the
+ * codes. A table is filled by one thread and may then be read by many.
+ */
+final class GtinProductTable {
+
+    // GTIN codes are never negative
+    private static final long EMPTY = GtinUtils.INVALID;
+
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private long[] _keys;
+    private Object[] _values;
+    private int _shift;
+    private int _size = 0;
+
+    /**
+     * Creates the table.
+     *
+     * @param expectedSize
+     *            the expected number of products, used to size the table so
+     *            that it does not need to grow
+     */
+    public GtinProductTable(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2L) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        _keys = new long[capacity];
+        Arrays.fill(_keys, EMPTY);
+        _values = new Object[capacity];
+        _shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private int getSlot(long gtin) {
+        // Fibonacci hashing, to spread the sequential codes of a GS1 prefix
+        return (int) ((gtin * HASH_MULTIPLIER) >>> _shift);
+    }
+
+    /**
+     * Adds a product, replacing any product with the same GTIN code.
+     *
+     * @param gtin
+     * @param product
+     */
+    public void put(long gtin, Map<ProductSearchField, Object> product) {
+        if (gtin < 0) {
+            throw new IllegalArgumentException("Invalid GTIN code: " + gtin);
+        }
+        final int mask = _keys.length - 1;
+        int slot = getSlot(gtin);
+        while (_keys[slot] != EMPTY) {
+            if (_keys[slot] == gtin) {
+                _values[slot] = product;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        _keys[slot] = gtin;
+        _values[slot] = product;
+        _size++;
+
+        // keep the load factor at or below 50%, so that probes stay short
+        if (_size * 2 > _keys.length) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        final long[] keys = _keys;
+        final Object[] values = _values;
+        allocate(keys.length * 2);
+        final int mask = _keys.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                int slot = getSlot(keys[i]);
+                while (_keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                _keys[slot] = keys[i];
+                _values[slot] = values[i];
+            }
+        }
+    }
+
+    /**
+     * Gets the product with a GTIN code.
+     *
+     * @param gtin
+     * @return the product, or null if the table has no product with the code
+     */
+    @SuppressWarnings("unchecked")
+    public Map<ProductSearchField, Object> get(long gtin) {
+        if (gtin < 0) {
+            return null;
+        }
+        final int mask = _keys.length - 1;
+        int slot = getSlot(gtin);
+        while (_keys[slot] != EMPTY) {
+            if (_keys[slot] == gtin) {
+                return (Map<ProductSearchField, Object>) _values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public int size() {
+        return _size;
+    }
+}
@@ -0,0 +1,114 @@
+package org.datacleaner.extension.productmatch;
+
+/**
+ * Utility methods for parsing, formatting and validating GTIN codes. GTIN codes
+ * are handled as primitive longs, so that parsing a code does not allocate any
+ * objects.
+ */
+final class GtinUtils {
+
+    /**
+     * Return value of {@link #parseGtin(Object)} for input that is not a GTIN
+     * code.
+     */
+    public static final long INVALID = -1;
+
+    /**
+     * Number of digits that GTIN codes are zero-padded to.
+     */
+    public static final int LENGTH = 13;
+
+    // more digits may overflow a long
+    private static final int MAX_DIGITS = 18;
+
+    private GtinUtils() {
+        // prevent instantiation
+    }
+
+    /**
+     * Parses a GTIN code in a single pass. Whitespace, dashes and underscores
+     * are ignored.
+     *
+     * @param gtinObj
+     * @return the GTIN code as a number, or {@link #INVALID} if the input is
+     *         empty or contains other characters than digits and separators
+     */
+    public static long parseGtin(Object gtinObj) {
+        if (gtinObj == null) {
+            return INVALID;
+        }
+        if (gtinObj instanceof Number && !(gtinObj instanceof Float || gtinObj instanceof Double)) {
+            final long value = ((Number) gtinObj).longValue();
+            return value < 0 ? INVALID : value;
+        }
+
+        final CharSequence chars = gtinObj instanceof CharSequence ? (CharSequence) gtinObj : gtinObj.toString();
+        final int length = chars.length();
+        long value = 0;
+        int digits = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = chars.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_DIGITS) {
+                    return INVALID;
+                }
+                value = value * 10 + (c - '0');
+            } else if (c != '-' && c != '_' && !Character.isWhitespace(c)) {
+                return INVALID;
+            }
+        }
+        if (digits == 0) {
+            return INVALID;
+        }
+        return value;
+    }
+
+    /**
+     * Formats a GTIN code as a string, zero-padded to 13 digits.
+     *
+     * @param gtin
+     * @return
+     */
+    public static String formatGtin(long gtin) {
+        final char[] chars = new char[Math.max(LENGTH, numberOfDigits(gtin))];
+        long remainder = gtin;
+        for (int i = chars.length - 1; i >= 0; i--) {
+            chars[i] = (char) ('0' + (remainder % 10));
+            remainder /= 10;
+        }
+        return new String(chars);
+    }
+
+    private static int numberOfDigits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Determines if the last digit of a GTIN code is the correct GS1 mod-10
+     * check digit of the preceding digits.
+     *
+     * @param gtin
+     * @return
+     */
+    public static boolean isValidCheckDigit(long gtin) {
+        if (gtin < 0) {
+            return false;
+        }
+        final int checkDigit = (int) (gtin % 10);
+        long payload = gtin / 10;
+        int sum = 0;
+        boolean triple = true;
+        while (payload > 0) {
+            final int digit = (int) (payload % 10);
+            sum += triple ? digit * 3 : digit;
+            triple = !triple;
+            payload /= 10;
+        }
+        return (10 - sum % 10) % 10 == checkDigit;
+    }
+}
@@ -0,0 +1,186 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Finds the most frequent values of a stream in bounded memory. Frequencies are
+ * estimated by a Count-Min sketch, and only a bounded set of candidate values
+ * - those whose estimate has been among the highest - is remembered, so memory
+ * does not grow with the number of distinct values.
+ *
+ * Values are added lock-free: the sketch counters are atomic, and when the
+ * candidate set has grown too large, one thread prunes it while the others
+ * carry on. Estimates never undercount, and overcount by at most about
+ * e / width of the total count.
+ */
+final class HeavyHitterSketch {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH_PER_VALUE = 64;
+    private static final int MIN_WIDTH = 1024;
+
+    private final int _capacity;
+    private final int _mask;
+    private final AtomicLongArray _counters;
+    private final ConcurrentHashMap<String, Boolean> _candidates = new ConcurrentHashMap<>();
+    private final AtomicBoolean _pruning = new AtomicBoolean(false);
+    // the estimate a value needs to become a candidate, once the candidate
+    // set is full
+    private final AtomicLong _threshold = new AtomicLong(0);
+    private final AtomicLong _totalCount = new AtomicLong(0);
+
+    /**
+     * Creates the sketch.
+     *
+     * @param capacity
+     *            the number of most frequent values to report
+     */
+    public HeavyHitterSketch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        _capacity = capacity;
+        int width = MIN_WIDTH;
+        while (width < (long) capacity * WIDTH_PER_VALUE && width < (1 << 24)) {
+            width <<= 1;
+        }
+        _mask = width - 1;
+        _counters = new AtomicLongArray(DEPTH * width);
+    }
+
+    /**
+     * Counts an occurrence of a value.
+     *
+     * @param value
+     */
+    public void add(String value) {
+        if (value == null) {
+            return;
+        }
+        _totalCount.incrementAndGet();
+
+        final long hash = hash(value);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, _counters.incrementAndGet(getIndex(hash, row)));
+        }
+
+        if (estimate > _threshold.get() || _candidates.size() < _capacity) {
+            if (_candidates.putIfAbsent(value, Boolean.TRUE) == null && _candidates.size() > 2 * _capacity) {
+                prune();
+            }
+        }
+    }
+
+    /**
+     * Reduces the candidates to the values with the highest estimates. Only one
+     * thread prunes at a time; others skip pruning instead of waiting.
+     */
+    private void prune() {
+        if (!_pruning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final List<Map.Entry<String, Long>> entries = getSortedEstimates();
+            if (entries.size() <= _capacity) {
+                return;
+            }
+            for (int i = _capacity; i < entries.size(); i++) {
+                _candidates.remove(entries.get(i).getKey());
+            }
+            _threshold.set(entries.get(_capacity - 1).getValue());
+        } finally {
+            _pruning.set(false);
+        }
+    }
+
+    /**
+     * Gets the estimated count of a value.
+     *
+     * @param value
+     * @return
+     */
+    public long getEstimate(String value) {
+        final long hash = hash(value);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, _counters.get(getIndex(hash, row)));
+        }
+        return estimate;
+    }
+
+    private List<Map.Entry<String, Long>> getSortedEstimates() {
+        final List<Map.Entry<String, Long>> entries = new ArrayList<>(_candidates.size());
+        for (String candidate : _candidates.keySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(candidate, getEstimate(candidate)));
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> entry1, Map.Entry<String, Long> entry2) {
+                final int result = Long.compare(entry2.getValue(), entry1.getValue());
+                return result != 0 ? result : entry1.getKey().compareTo(entry2.getKey());
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Gets the most frequent values, with their estimated counts.
+     *
+     * @return the values, most frequent first
+     */
+    public Map<String, Long> getTopValues() {
+        final List<Map.Entry<String, Long>> entries = getSortedEstimates();
+        final Map<String, Long> topValues = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size() && i < _capacity; i++) {
+            topValues.put(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+        return topValues;
+    }
+
+    /**
+     * Gets the number of values added.
+     *
+     * @return
+     */
+    public long getTotalCount() {
+        return _totalCount.get();
+    }
+
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * Gets the index of the counter of a value in a row of the sketch. Each row
+     * remixes the full hash with its own seed, so that values which collide in
+     * one row are unlikely to collide in the others.
+     */
+    private int getIndex(long hash, int row) {
+        long h = hash + (row + 1) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return row * (_mask + 1) + ((int) h & _mask);
+    }
+
+    private static long hash(String value) {
+        // 64-bit FNV-1a, as 32-bit string hash codes collide too often
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,241 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.datacleaner.api.InputColumn;
+import org.datacleaner.api.InputRow;
+
+/**
+ * Reusable buffer for the mapped input of a row. Each worker thread of the
+ * {@link ProductMatchTransformer} has its own buffer, and reads each of its
+ * rows into it, so that rows whose match is cached are processed without
+ * allocating. The values are kept per input column, and only concatenated or
+ * copied into a map when they are needed for a search.
+ */
+final class InputBuffer {
+
+    private static final ProductSearchField[] FIELDS = ProductSearchField.values();
+
+    private final InputColumn<?>[] _columns;
+    private final int[][] _fieldColumns;
+    private final Object[] _values;
+    private final Object[] _result;
+    private final MatchKey _key = new MatchKey();
+    private int _valueCount;
+    private boolean _keyValid;
+
+    /**
+     * Creates a buffer.
+     *
+     * @param columns
+     *            the input columns
+     * @param fieldColumns
+     *            the indexes of the input columns mapped to each field, by the
+     *            ordinal of the field, or null for fields without columns, as
+     *            returned by {@link #getFieldColumns(ProductSearchField[])}
+     * @param resultLength
+     *            the length of the result buffer
+     */
+    public InputBuffer(InputColumn<?>[] columns, int[][] fieldColumns, int resultLength) {
+        _columns = columns;
+        _fieldColumns = fieldColumns;
+        _values = new Object[columns.length];
+        _result = new Object[resultLength];
+    }
+
+    /**
+     * Gets the indexes of the input columns mapped to each field.
+     *
+     * @param columnFields
+     *            the field that each input column is mapped to
+     * @return the column indexes, by the ordinal of the field
+     */
+    public static int[][] getFieldColumns(ProductSearchField[] columnFields) {
+        final int[] counts = new int[FIELDS.length];
+        for (ProductSearchField field : columnFields) {
+            counts[field.ordinal()]++;
+        }
+        final int[][] fieldColumns = new int[FIELDS.length][];
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (counts[i] > 0) {
+                fieldColumns[i] = new int[counts[i]];
+                counts[i] = 0;
+            }
+        }
+        for (int column = 0; column < columnFields.length; column++) {
+            final int field = columnFields[column].ordinal();
+            fieldColumns[field][counts[field]++] = column;
+        }
+        return fieldColumns;
+    }
+
+    /**
+     * Reads the values of a row into the buffer. Blank values are skipped.
+     *
+     * @param row
+     */
+    public void read(InputRow row) {
+        _valueCount = 0;
+        _keyValid = false;
+        for (int i = 0; i < _columns.length; i++) {
+            Object value = row.getValue(_columns[i]);
+            if (value instanceof String && isBlank((String) value)) {
+                value = null;
+            }
+            if (value != null) {
+                _valueCount++;
+            }
+            _values[i] = value;
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return _valueCount == 0;
+    }
+
+    /**
+     * Gets the value of a field. The values of several columns mapped to the
+     * same field are concatenated.
+     *
+     * @param field
+     * @return the value, or null if the field has no value
+     */
+    public Object get(ProductSearchField field) {
+        final int[] columns = _fieldColumns[field.ordinal()];
+        if (columns == null) {
+            return null;
+        }
+        if (columns.length == 1) {
+            return _values[columns[0]];
+        }
+        StringBuilder sb = null;
+        Object value = null;
+        for (int column : columns) {
+            final Object columnValue = _values[column];
+            if (columnValue == null) {
+                continue;
+            }
+            if (value == null) {
+                value = columnValue;
+            } else {
+                if (sb == null) {
+                    sb = new StringBuilder().append(value);
+                }
+                sb.append(' ').append(columnValue);
+            }
+        }
+        return sb == null ? value : sb.toString();
+    }
+
+    /**
+     * Copies the values into a map, for searching them.
+     *
+     * @return
+     */
+    public Map<ProductSearchField, Object> toMap() {
+        final Map<ProductSearchField, Object> map = new EnumMap<>(ProductSearchField.class);
+        for (ProductSearchField field : FIELDS) {
+            final Object value = get(field);
+            if (value != null) {
+                map.put(field, value);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Gets the cache key of the values. The key is reused for the next row, so
+     * it must be copied to store it.
+     *
+     * @return
+     */
+    public MatchKey getKey() {
+        if (_keyValid) {
+            return _key;
+        }
+        _key.clear();
+        for (ProductSearchField field : FIELDS) {
+            final int[] columns = _fieldColumns[field.ordinal()];
+            if (columns == null) {
+                continue;
+            }
+            if (columns.length == 1 || field == ProductSearchField.GTIN_CD) {
+                final Object value = get(field);
+                if (value != null) {
+                    _key.putField(field, value);
+                }
+                continue;
+            }
+            // append the values of the columns like get(...) concatenates them
+            boolean hasValue = false;
+            for (int column : columns) {
+                final Object value = _values[column];
+                if (value == null) {
+                    continue;
+                }
+                if (hasValue) {
+                    _key.append(' ');
+                } else {
+                    _key.startField(field);
+                    hasValue = true;
+                }
+                _key.appendText(value instanceof CharSequence ? (CharSequence) value : value.toString());
+            }
+            if (hasValue) {
+                _key.trimField();
+            }
+        }
+        _key.finish();
+        _keyValid = true;
+        return _key;
+    }
+
+    /**
+     * Gets a readable form of the values, e.g. "Coca-Cola | 1 liter", with the
+     * values in the order of their fields.
+     *
+     * @return
+     */
+    public String toInputString() {
+        StringBuilder sb = null;
+        Object firstValue = null;
+        for (ProductSearchField field : FIELDS) {
+            final Object value = get(field);
+            if (value == null) {
+                continue;
+            }
+            if (firstValue == null) {
+                firstValue = value;
+            } else {
+                if (sb == null) {
+                    sb = new StringBuilder().append(firstValue);
+                }
+                sb.append(" | ").append(value);
+            }
+        }
+        if (sb != null) {
+            return sb.toString();
+        }
+        return firstValue == null ? null : firstValue.toString();
+    }
+
+    /**
+     * Gets a reusable array for the result of the row, before it is projected
+     * onto the selected output fields.
+     *
+     * @return
+     */
+    public Object[] getResultBuffer() {
+        return _result;
+    }
+}
@@ -0,0 +1,85 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.transport.TransportAddress;
+
+/**
+ * Client to a single node of the cluster, which counts the requests that are
+ * in flight to the node. Used to send requests to the least loaded node.
+ */
+class LoadTrackingClient extends FilterClient {
+
+    private final TransportClient _client;
+    private final TransportAddress _address;
+    private final AtomicInteger _inFlightCount = new AtomicInteger(0);
+
+    /**
+     * Creates the client.
+     *
+     * @param client
+     *            a transport client that is only connected to the node
+     * @param address
+     *            the address of the node
+     */
+    public LoadTrackingClient(TransportClient client, TransportAddress address) {
+        super(client);
+        _client = client;
+        _address = address;
+    }
+
+    @Override
+    public <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder, Client>> void execute(
+            Action<Request, Response, RequestBuilder, Client> action, Request request,
+            final ActionListener<Response> listener) {
+        _inFlightCount.incrementAndGet();
+        try {
+            super.execute(action, request, new ActionListener<Response>() {
+                @Override
+                public void onResponse(Response response) {
+                    _inFlightCount.decrementAndGet();
+                    listener.onResponse(response);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    _inFlightCount.decrementAndGet();
+                    listener.onFailure(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            _inFlightCount.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder, Client>> ActionFuture<Response> execute(
+            Action<Request, Response, RequestBuilder, Client> action, Request request) {
+        final PlainActionFuture<Response> future = PlainActionFuture.newFuture();
+        execute(action, request, future);
+        return future;
+    }
+
+    public TransportAddress getAddress() {
+        return _address;
+    }
+
+    public boolean isConnected() {
+        return !_client.connectedNodes().isEmpty();
+    }
+
+    public int getInFlightCount() {
+        return _inFlightCount.get();
+    }
+}
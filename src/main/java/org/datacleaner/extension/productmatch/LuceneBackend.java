@@ -0,0 +1,263 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.QueryBuilder;
+
+/**
+ * {@link ProductMatchBackend} which matches against an embedded, in-process
+ * Lucene index of the POD data, created with {@link LuceneIndexBuilder}.
+ *
+ * GTIN codes are looked up with a term query on the un-analyzed GTIN_CD field,
+ * and text is matched with the same clauses as the Elasticsearch match queries,
+ * analyzed like the Elasticsearch 'standard' analyzer.
+ */
+class LuceneBackend implements ProductMatchBackend {
+
+    private final DirectoryReader _reader;
+    private final IndexSearcher _searcher;
+    private final QueryBuilder _queryBuilder;
+    private final ProductSearchField[] _fields;
+    private final Set<String> _fieldNames;
+    private final LatencyHistogram _searchLatency = new LatencyHistogram();
+
+    public LuceneBackend(File directory) throws IOException {
+        this(directory, EnumSet.allOf(ProductSearchField.class));
+    }
+
+    /**
+     * Creates the backend.
+     *
+     * @param directory
+     * @param fields
+     *            the product fields to load from matching documents
+     * @throws IOException
+     */
+    public LuceneBackend(File directory, Set<ProductSearchField> fields) throws IOException {
+        _reader = DirectoryReader.open(FSDirectory.open(directory));
+        _searcher = new IndexSearcher(_reader);
+        _queryBuilder = new QueryBuilder(createAnalyzer());
+
+        final List<ProductSearchField> storedFields = new ArrayList<>(fields.size());
+        _fieldNames = new HashSet<>();
+        for (ProductSearchField field : fields) {
+            if (!field.isPseudoField()) {
+                storedFields.add(field);
+                _fieldNames.add(field.getFieldName());
+            }
+        }
+        _fields = storedFields.toArray(new ProductSearchField[storedFields.size()]);
+    }
+
+    /**
+     * Creates the analyzer for text fields. Like the Elasticsearch 'standard'
+     * analyzer it does not remove stop words.
+     *
+     * @return
+     */
+    static Analyzer createAnalyzer() {
+        return new StandardAnalyzer(CharArraySet.EMPTY_SET);
+    }
+
+    @Override
+    public void verify() {
+        final Terms gtinCodes;
+        try {
+            gtinCodes = MultiFields.getTerms(_reader, ProductSearchField.GTIN_CD.getFieldName());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read Lucene index", e);
+        }
+        if (gtinCodes == null) {
+            throw new IllegalStateException("The Lucene index has no products with a "
+                    + ProductSearchField.GTIN_CD.getFieldName() + " field. Build it with LuceneIndexBuilder");
+        }
+    }
+
+    @Override
+    public Map<ProductSearchField, Object> lookupGtin(String gtinCode) {
+        final TermQuery query = new TermQuery(new Term(ProductSearchField.GTIN_CD.getFieldName(), gtinCode));
+        final Map<ProductSearchField, Object> result = executeSearch(query);
+        if (result != null) {
+            // exact key lookups are not scored
+            result.remove(ProductSearchField.SCORE);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<ProductSearchField, Object> search(Map<ProductSearchField, Object> input) {
+        final List<MatchClause> clauses = MatchClause.createClauses(input);
+        final BooleanQuery query = new BooleanQuery();
+        for (MatchClause clause : clauses) {
+            final Query clauseQuery = _queryBuilder.createBooleanQuery(clause.getIndexFieldName(), clause.getValue()
+                    .toString());
+            if (clauseQuery != null) {
+                query.add(clauseQuery, Occur.SHOULD);
+            }
+        }
+
+        if (query.clauses().isEmpty()) {
+            return null;
+        }
+        return executeSearch(query);
+    }
+
+    @Override
+    public GtinAndTextResult lookupGtinAndSearch(String gtinCode, Map<ProductSearchField, Object> input) {
+        // no round trips to save
+        return new GtinAndTextResult(lookupGtin(gtinCode), search(input));
+    }
+
+    private Map<ProductSearchField, Object> executeSearch(Query query) {
+        final long startTime = System.nanoTime();
+        final TopDocs topDocs;
+        final Document document;
+        try {
+            topDocs = _searcher.search(query, 1);
+            if (topDocs.totalHits == 0) {
+                return null;
+            }
+            document = _searcher.doc(topDocs.scoreDocs[0].doc, _fieldNames);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to search Lucene index", e);
+        } finally {
+            _searchLatency.recordSince(startTime);
+        }
+
+        final ScoreDoc scoreDoc = topDocs.scoreDocs[0];
+        final Map<ProductSearchField, Object> searchResult = new EnumMap<>(ProductSearchField.class);
+        searchResult.put(ProductSearchField.SCORE, scoreDoc.score);
+
+        for (int i = 0; i < _fields.length; i++) {
+            final ProductSearchField searchField = _fields[i];
+            searchResult.put(searchField, document.get(searchField.getFieldName()));
+        }
+        return searchResult;
+    }
+
+    @Override
+    public void lookupGtins(long[] gtins, int count, GtinProductTable products) {
+        // lookups in the embedded index are cheap, so there is nothing to gain
+        // from a bulk query
+        for (int i = 0; i < count; i++) {
+            final Map<ProductSearchField, Object> product = lookupGtin(GtinUtils.formatGtin(gtins[i]));
+            if (product != null) {
+                products.put(gtins[i], product);
+            }
+        }
+    }
+
+    @Override
+    public long getProductCount() {
+        return _reader.numDocs();
+    }
+
+    /**
+     * Gets the commit of the index that is open. A rebuilt index may have the
+     * same segments file name and version as the old one, so the time that the
+     * segments file was written is included.
+     */
+    @Override
+    public String getIndexVersion() {
+        final String segmentsFileName;
+        try {
+            segmentsFileName = _reader.getIndexCommit().getSegmentsFileName();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read Lucene index", e);
+        }
+        long lastModified = 0;
+        if (_reader.directory() instanceof FSDirectory) {
+            final File directory = ((FSDirectory) _reader.directory()).getDirectory();
+            lastModified = new File(directory, segmentsFileName).lastModified();
+        }
+        return segmentsFileName + ":" + _reader.getVersion() + "@" + lastModified + "/" + _reader.numDocs();
+    }
+
+    @Override
+    public Iterator<String> getGtinCodes() {
+        final Bits liveDocs = MultiFields.getLiveDocs(_reader);
+        final Set<String> gtinField = Collections.singleton(ProductSearchField.GTIN_CD.getFieldName());
+        return new Iterator<String>() {
+            private int _nextDoc = findLiveDoc(0);
+
+            private int findLiveDoc(int doc) {
+                while (doc < _reader.maxDoc() && liveDocs != null && !liveDocs.get(doc)) {
+                    doc++;
+                }
+                return doc;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return _nextDoc < _reader.maxDoc();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Document document;
+                try {
+                    document = _reader.document(_nextDoc, gtinField);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to read Lucene index", e);
+                }
+                _nextDoc = findLiveDoc(_nextDoc + 1);
+                return document.get(ProductSearchField.GTIN_CD.getFieldName());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public void addMetrics(Map<String, Number> metrics) {
+        metrics.put(ProductMatchResult.METRIC_INDEX_DOCUMENTS, _reader.numDocs());
+    }
+
+    @Override
+    public void addLatencies(Map<String, LatencyHistogram> latencies) {
+        latencies.put(ProductMatchResult.LATENCY_LUCENE_SEARCH, _searchLatency);
+    }
+
+    @Override
+    public void close() {
+        try {
+            _reader.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to close Lucene index", e);
+        }
+    }
+}
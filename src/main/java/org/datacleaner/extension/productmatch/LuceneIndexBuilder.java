@@ -0,0 +1,120 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.client.Client;
+
+/**
+ * Builds the Lucene index used by {@link LuceneBackend}. Documents are indexed
+ * the way Elasticsearch indexes the 'pod' index with its default mapping: text
+ * fields are analyzed, all values are copied into an '_all' field, and the GTIN
+ * code is kept as an exact term.
+ *
+ * The builder can be run from the command line to copy the 'pod' Elasticsearch
+ * index:
+ *
+ * <pre>
+ * java ... LuceneIndexBuilder &lt;hostname&gt; &lt;port&gt; &lt;index directory&gt;
+ * </pre>
+ */
+public class LuceneIndexBuilder implements Closeable {
+
+    private final IndexWriter _writer;
+    private int _documentCount = 0;
+
+    public LuceneIndexBuilder(File directory) throws IOException {
+        final IndexWriterConfig config = new IndexWriterConfig(Version.LATEST, LuceneBackend.createAnalyzer());
+        config.setOpenMode(OpenMode.CREATE);
+        _writer = new IndexWriter(FSDirectory.open(directory), config);
+    }
+
+    /**
+     * Adds a product to the index.
+     *
+     * @param source
+     *            the product fields, keyed by field name
+     * @throws IOException
+     */
+    public void add(Map<String, ?> source) throws IOException {
+        final Document document = new Document();
+        final StringBuilder all = new StringBuilder();
+
+        for (Map.Entry<String, ?> entry : source.entrySet()) {
+            final Object value = entry.getValue();
+            if (value == null) {
+                continue;
+            }
+            final String fieldName = entry.getKey();
+            final String stringValue = value.toString();
+            all.append(stringValue).append(' ');
+
+            if (ProductSearchField.GTIN_CD.getFieldName().equals(fieldName)) {
+                final String gtinCode = ProductMatchTransformer.normalizeGtinCode(value);
+                document.add(new StringField(fieldName, gtinCode == null ? stringValue : gtinCode, Store.YES));
+            } else if (ProductSearchField.GTIN_NM.getFieldName().equals(fieldName)
+                    || ProductSearchField.BRAND_NM.getFieldName().equals(fieldName)) {
+                document.add(new TextField(fieldName, stringValue, Store.YES));
+            } else {
+                document.add(new StoredField(fieldName, stringValue));
+            }
+        }
+
+        document.add(new TextField(ProductSearchField.ALL.getFieldName(), all.toString(), Store.NO));
+        _writer.addDocument(document);
+        _documentCount++;
+    }
+
+    /**
+     * Adds all products of the POD Elasticsearch index.
+     *
+     * @param client
+     * @throws IOException
+     */
+    public void addAll(Client client) throws IOException {
+        final PodDocumentIterator documents = new PodDocumentIterator(client);
+        while (documents.hasNext()) {
+            add(documents.next());
+        }
+    }
+
+    public int getDocumentCount() {
+        return _documentCount;
+    }
+
+    /**
+     * Commits and closes the index.
+     */
+    @Override
+    public void close() throws IOException {
+        _writer.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: LuceneIndexBuilder <hostname> <port> <index directory>");
+            System.exit(1);
+        }
+
+        final ElasticSearchClientManager clientManager = new ElasticSearchClientManager(
+                ProductMatchTransformer.INDEX_NAME, args[0], Integer.parseInt(args[1]));
+        try (LuceneIndexBuilder builder = new LuceneIndexBuilder(new File(args[2]))) {
+            builder.addAll(clientManager.getClient());
+            System.out.println("Indexed " + builder.getDocumentCount() + " products in " + args[2]);
+        } finally {
+            clientManager.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrent, size-bounded LRU cache of {@link ProductMatch}es keyed by
+ * normalized input. The cache is split into segments that are locked
+ * independently, so worker threads rarely contend with each other.
+ */
+class MatchCache {
+
+    private static final int SEGMENT_COUNT = 16;
+    private static final ProductSearchField[] FIELDS = ProductSearchField.values();
+
+    private static final class CacheEntry {
+        private final ProductMatch _match;
+        private final long _createdNanos;
+
+        private CacheEntry(ProductMatch match, long createdNanos) {
+            _match = match;
+            _createdNanos = createdNanos;
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<MatchKey, CacheEntry> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int _maximumSize;
+
+        private Segment(int maximumSize) {
+            super(16, 0.75f, true);
+            _maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<MatchKey, CacheEntry> eldest) {
+            if (size() > _maximumSize) {
+                _evictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final Segment[] _segments;
+    private final long _ttlNanos;
+    private final AtomicLong _hitCount = new AtomicLong(0);
+    private final AtomicLong _missCount = new AtomicLong(0);
+    private final AtomicLong _evictionCount = new AtomicLong(0);
+
+    /**
+     * Creates a cache.
+     *
+     * @param maximumSize
+     *            the maximum number of entries in the cache
+     * @param ttlMillis
+     *            the time to live of an entry, or 0 for entries to never
+     *            expire
+     */
+    public MatchCache(int maximumSize, long ttlMillis) {
+        final int segmentSize = Math.max(1, (maximumSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        _segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < _segments.length; i++) {
+            _segments[i] = new Segment(segmentSize);
+        }
+        _ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * Creates the cache key for an input map. Text values are trimmed and
+     * lower-cased, since matching is case insensitive, and GTIN codes are
+     * normalized.
+     *
+     * @param input
+     * @return
+     */
+    public static MatchKey createKey(Map<ProductSearchField, Object> input) {
+        final MatchKey key = new MatchKey();
+        for (ProductSearchField field : FIELDS) {
+            final Object value = input.get(field);
+            if (value != null) {
+                key.putField(field, value);
+            }
+        }
+        key.finish();
+        return key;
+    }
+
+    /**
+     * Gets the cached match of an input. Does not allocate, so that cache hits
+     * are cheap.
+     *
+     * @param key
+     * @return the match, or null if the input is not cached
+     */
+    public ProductMatch get(MatchKey key) {
+        final ProductMatch match = lookup(key);
+        if (match == null) {
+            _missCount.incrementAndGet();
+            return null;
+        }
+        _hitCount.incrementAndGet();
+        return match;
+    }
+
+    /**
+     * Gets the cached match of an input, without counting a hit or miss. Used
+     * to check again for an input that has just missed the cache.
+     *
+     * @param key
+     * @return the match, or null if the input is not cached
+     */
+    public ProductMatch peek(MatchKey key) {
+        return lookup(key);
+    }
+
+    private ProductMatch lookup(MatchKey key) {
+        final Segment segment = getSegment(key);
+        final CacheEntry entry;
+        synchronized (segment) {
+            final CacheEntry existingEntry = segment.get(key);
+            if (existingEntry != null && isExpired(existingEntry)) {
+                segment.remove(key);
+                _evictionCount.incrementAndGet();
+                entry = null;
+            } else {
+                entry = existingEntry;
+            }
+        }
+
+        return entry == null ? null : entry._match;
+    }
+
+    /**
+     * Caches the match of an input.
+     *
+     * @param key
+     *            the key, which must not be modified afterwards
+     * @param match
+     */
+    public void put(MatchKey key, ProductMatch match) {
+        final Segment segment = getSegment(key);
+        final CacheEntry entry = new CacheEntry(match, System.nanoTime());
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    private boolean isExpired(CacheEntry entry) {
+        return _ttlNanos > 0 && System.nanoTime() - entry._createdNanos > _ttlNanos;
+    }
+
+    private Segment getSegment(Object key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return _segments[(hash & 0x7fffffff) % SEGMENT_COUNT];
+    }
+
+    public long getHitCount() {
+        return _hitCount.get();
+    }
+
+    public long getMissCount() {
+        return _missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return _evictionCount.get();
+    }
+}
@@ -0,0 +1,75 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single full text clause of a product search: the input text of one field
+ * matched against one field of the index. All backends build their text
+ * queries from the same clauses, so that they match in the same way.
+ */
+final class MatchClause {
+
+    private final String _indexFieldName;
+    private final Object _value;
+
+    private MatchClause(String indexFieldName, Object value) {
+        _indexFieldName = indexFieldName;
+        _value = value;
+    }
+
+    /**
+     * Creates the clauses to search for based on the text fields of an input.
+     *
+     * @param input
+     * @return the clauses, or an empty list if the input has no text to search
+     *         for
+     */
+    public static List<MatchClause> createClauses(Map<ProductSearchField, Object> input) {
+        final List<MatchClause> clauses = new ArrayList<>();
+
+        final boolean productName = addClause(clauses, input, ProductSearchField.GTIN_NM);
+        final boolean brandName = addClause(clauses, input, ProductSearchField.BRAND_NM);
+        final boolean description = addClause(clauses, input, ProductSearchField.ALL, "_all");
+
+        if (description) {
+            // description is there
+
+            if (!productName) {
+                // also apply description to "product name"
+                addClause(clauses, input, ProductSearchField.ALL, ProductSearchField.GTIN_NM.getFieldName());
+            }
+
+            if (!brandName) {
+                // also apply description to "brand name"
+                addClause(clauses, input, ProductSearchField.ALL, ProductSearchField.BRAND_NM.getFieldName());
+            }
+        }
+
+        return clauses;
+    }
+
+    private static boolean addClause(List<MatchClause> clauses, Map<ProductSearchField, Object> input,
+            ProductSearchField type) {
+        return addClause(clauses, input, type, type.getFieldName());
+    }
+
+    private static boolean addClause(List<MatchClause> clauses, Map<ProductSearchField, Object> input,
+            ProductSearchField type, String fieldName) {
+        final Object value = input.get(type);
+        if (value != null) {
+            clauses.add(new MatchClause(fieldName, value));
+            return true;
+        }
+        return false;
+    }
+
+    public String getIndexFieldName() {
+        return _indexFieldName;
+    }
+
+    public Object getValue() {
+        return _value;
+    }
+}
@@ -0,0 +1,235 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.Arrays;
+
+/**
+ * Cache key of a normalized input, encoded as a flat array of characters. Each
+ * field is written as its ordinal, the length of its value and the value, so
+ * that the encoding is unambiguous. Text values are trimmed and lower-cased,
+ * since matching is case insensitive, and GTIN codes are normalized.
+ *
+ * Keys are mutable while they are written, so that a worker thread can reuse
+ * one key to look up each of its rows without allocating. Keys that are stored,
+ * e.g. in a {@link MatchCache}, must be {@link #copy()}s.
+ */
+final class MatchKey {
+
+    private static final int HEADER_LENGTH = 3;
+
+    private char[] _chars;
+    private int _length;
+    private int _fieldStart = -1;
+    private int _hash;
+
+    public MatchKey() {
+        this(new char[64], 0, 0);
+    }
+
+    private MatchKey(char[] chars, int length, int hash) {
+        _chars = chars;
+        _length = length;
+        _hash = hash;
+    }
+
+    /**
+     * Clears the key, to write the fields of another input.
+     */
+    public void clear() {
+        _length = 0;
+        _fieldStart = -1;
+        _hash = 0;
+    }
+
+    /**
+     * Starts writing the value of a field. Fields must be written in the order
+     * of their ordinals, for equal inputs to have equal keys.
+     *
+     * @param field
+     */
+    public void startField(ProductSearchField field) {
+        endField();
+        ensureCapacity(HEADER_LENGTH);
+        _chars[_length] = (char) field.ordinal();
+        _fieldStart = _length + HEADER_LENGTH;
+        _length = _fieldStart;
+    }
+
+    /**
+     * Writes a field with a single value.
+     *
+     * @param field
+     * @param value
+     */
+    public void putField(ProductSearchField field, Object value) {
+        startField(field);
+        if (field == ProductSearchField.GTIN_CD) {
+            final long gtin = GtinUtils.parseGtin(value);
+            if (gtin != GtinUtils.INVALID) {
+                appendGtin(gtin);
+                return;
+            }
+        }
+        appendText(value instanceof CharSequence ? (CharSequence) value : value.toString());
+        trimField();
+    }
+
+    /**
+     * Appends text to the value of the current field, lower-cased.
+     *
+     * @param text
+     */
+    public void appendText(CharSequence text) {
+        final int length = text.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                final int codePoint = Character.toLowerCase(Character.toCodePoint(c, text.charAt(++i)));
+                ensureCapacity(2);
+                _length += Character.toChars(codePoint, _chars, _length);
+            } else {
+                _chars[_length++] = Character.toLowerCase(c);
+            }
+        }
+    }
+
+    /**
+     * Appends a single character to the value of the current field.
+     *
+     * @param c
+     */
+    public void append(char c) {
+        ensureCapacity(1);
+        _chars[_length++] = c;
+    }
+
+    /**
+     * Appends a GTIN code to the value of the current field, zero-padded to 13
+     * digits.
+     *
+     * @param gtin
+     */
+    public void appendGtin(long gtin) {
+        int digits = GtinUtils.LENGTH;
+        for (long value = gtin / 10; value >= 1000000000000L; value /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        long remainder = gtin;
+        for (int i = _length + digits - 1; i >= _length; i--) {
+            _chars[i] = (char) ('0' + (remainder % 10));
+            remainder /= 10;
+        }
+        _length += digits;
+    }
+
+    /**
+     * Removes leading and trailing whitespace from the value of the current
+     * field, like {@link String#trim()}.
+     */
+    public void trimField() {
+        int end = _length;
+        while (end > _fieldStart && _chars[end - 1] <= ' ') {
+            end--;
+        }
+        int start = _fieldStart;
+        while (start < end && _chars[start] <= ' ') {
+            start++;
+        }
+        if (start > _fieldStart) {
+            System.arraycopy(_chars, start, _chars, _fieldStart, end - start);
+        }
+        _length = _fieldStart + end - start;
+    }
+
+    /**
+     * Ends writing the key, after its last field.
+     */
+    public void finish() {
+        endField();
+        int hash = 0;
+        for (int i = 0; i < _length; i++) {
+            hash = 31 * hash + _chars[i];
+        }
+        _hash = hash;
+    }
+
+    private void endField() {
+        if (_fieldStart < 0) {
+            return;
+        }
+        final int valueLength = _length - _fieldStart;
+        _chars[_fieldStart - 2] = (char) (valueLength >>> 16);
+        _chars[_fieldStart - 1] = (char) valueLength;
+        _fieldStart = -1;
+    }
+
+    private void ensureCapacity(int additionalLength) {
+        if (_length + additionalLength > _chars.length) {
+            _chars = Arrays.copyOf(_chars, Math.max(_chars.length * 2, _length + additionalLength));
+        }
+    }
+
+    /**
+     * Creates an immutable copy of this key, for storing it.
+     *
+     * @return
+     */
+    public MatchKey copy() {
+        return new MatchKey(Arrays.copyOf(_chars, _length), _length, _hash);
+    }
+
+    public int length() {
+        return _length;
+    }
+
+    public char charAt(int index) {
+        return _chars[index];
+    }
+
+    /**
+     * Gets a 64-bit hash of the key, for tables that are too large for 32-bit
+     * hash codes, e.g. a {@link PersistentMatchCache}.
+     *
+     * @return
+     */
+    public long getLongHash() {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < _length; i++) {
+            hash ^= _chars[i];
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return _hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MatchKey)) {
+            return false;
+        }
+        final MatchKey other = (MatchKey) obj;
+        if (_hash != other._hash || _length != other._length) {
+            return false;
+        }
+        for (int i = 0; i < _length; i++) {
+            if (_chars[i] != other._chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "MatchKey[" + new String(_chars, 0, _length) + "]";
+    }
+}
@@ -0,0 +1,49 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.List;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
+
+/**
+ * {@link RequestBatcher} which sends batches of GTIN document lookups as a
+ * single multi-get request.
+ */
+class MultiGetBatcher extends RequestBatcher<String, GetResponse> {
+
+    private final ElasticSearchClientManager _clientManager;
+    private final RequestThrottle _throttle;
+    private final FetchSourceContext _fetchSource;
+
+    public MultiGetBatcher(ElasticSearchClientManager clientManager, RequestThrottle throttle,
+            String[] sourceIncludes, int batchSize, long maxWaitMillis) {
+        super(batchSize, maxWaitMillis, throttle.getTimeoutMillis());
+        _clientManager = clientManager;
+        _throttle = throttle;
+        _fetchSource = new FetchSourceContext(sourceIncludes);
+    }
+
+    @Override
+    protected void executeBatch(List<Pending<String, GetResponse>> batch) {
+        final MultiGetRequestBuilder multiGet = _clientManager.getClient().prepareMultiGet()
+                .setPreference(_clientManager.getPreference());
+        for (Pending<String, GetResponse> pending : batch) {
+            multiGet.add(new MultiGetRequest.Item(ProductMatchTransformer.INDEX_NAME,
+                    ProductMatchTransformer.DOCUMENT_TYPE, pending.getRequest()).fetchSourceContext(_fetchSource));
+        }
+
+        final MultiGetItemResponse[] items = _throttle.execute(multiGet).getResponses();
+        for (int i = 0; i < items.length; i++) {
+            final MultiGetItemResponse item = items[i];
+            final Pending<String, GetResponse> pending = batch.get(i);
+            if (item.isFailed()) {
+                pending.fail(RetryPolicy.createItemFailure(item.getFailure().getMessage()));
+            } else {
+                pending.complete(item.getResponse());
+            }
+        }
+    }
+}
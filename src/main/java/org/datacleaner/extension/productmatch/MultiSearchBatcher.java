@@ -0,0 +1,44 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.List;
+
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+
+/**
+ * {@link RequestBatcher} which sends batches of searches as a single
+ * multi-search request.
+ */
+class MultiSearchBatcher extends RequestBatcher<SearchRequest, SearchResponse> {
+
+    private final ElasticSearchClientManager _clientManager;
+    private final RequestThrottle _throttle;
+
+    public MultiSearchBatcher(ElasticSearchClientManager clientManager, RequestThrottle throttle,
+            int batchSize, long maxWaitMillis) {
+        super(batchSize, maxWaitMillis, throttle.getTimeoutMillis());
+        _clientManager = clientManager;
+        _throttle = throttle;
+    }
+
+    @Override
+    protected void executeBatch(List<Pending<SearchRequest, SearchResponse>> batch) {
+        final MultiSearchRequestBuilder multiSearch = _clientManager.getClient().prepareMultiSearch();
+        for (Pending<SearchRequest, SearchResponse> pending : batch) {
+            multiSearch.add(pending.getRequest());
+        }
+
+        final MultiSearchResponse.Item[] items = _throttle.execute(multiSearch).getResponses();
+        for (int i = 0; i < items.length; i++) {
+            final MultiSearchResponse.Item item = items[i];
+            final Pending<SearchRequest, SearchResponse> pending = batch.get(i);
+            if (item.isFailure()) {
+                pending.fail(RetryPolicy.createItemFailure(item.getFailureMessage()));
+            } else {
+                pending.complete(item.getResponse());
+            }
+        }
+    }
+}
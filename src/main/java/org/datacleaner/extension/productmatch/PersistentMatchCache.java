@@ -0,0 +1,552 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A memory-mapped store of matches that outlives a job, so that inputs matched
+ * by one run of a job are not matched against the POD database again by the
+ * next. Matches are keyed by the 64-bit hash of the {@link MatchKey} of their
+ * input, and the key itself is stored to rule out hash collisions.
+ *
+ * The file is tagged with the version of the POD index and the matching
+ * settings that its matches were made with. When it is opened with another
+ * tag, e.g. because the index has been rebuilt, it is cleared. Only one job at
+ * a time can use the file; matches are stored until the file is full, and are
+ * never evicted. The file is marked as open while it is in use, and a file that
+ * was not closed, e.g. because the job crashed, is cleared as well, since its
+ * pages may have been written to disk in any order.
+ *
+ * The file layout is:
+ * <ul>
+ * <li>header: magic number, format version, slot count, entry count, end of
+ * the record area, capacity, whether the file is open, and the tag as a short
+ * length followed by UTF-8 bytes</li>
+ * <li>a hash table of slots with open addressing, each holding the hash of a
+ * key (0 for empty slots) and the position of its record as longs</li>
+ * <li>the record area, where each record holds the key as an int length
+ * followed by its chars, the match status as a byte, and the product fields as
+ * a byte count (-1 for no product) followed by, per field, its ordinal, the
+ * type of its value and the value</li>
+ * </ul>
+ */
+final class PersistentMatchCache implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PersistentMatchCache.class);
+
+    static final int MAGIC = 0x504f444d; // "PODM"
+    static final int FORMAT_VERSION = 2;
+
+    static final int MAX_CAPACITY = 1 << 25;
+
+    private static final int HEADER_SIZE = 4096;
+    private static final int POSITION_SLOT_COUNT = 8;
+    private static final int POSITION_ENTRY_COUNT = 12;
+    private static final int POSITION_RECORDS_END = 16;
+    private static final int POSITION_CAPACITY = 24;
+    private static final int POSITION_OPEN = 28;
+    private static final int POSITION_TAG = 32;
+    private static final int MAX_TAG_LENGTH = HEADER_SIZE - POSITION_TAG - 2;
+
+    private static final int SLOT_SIZE = 16;
+    private static final int MIN_SLOT_COUNT = 1024;
+    private static final int INITIAL_RECORD_AREA_SIZE = 1 << 20;
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_FLOAT = 1;
+    private static final byte TYPE_DOUBLE = 2;
+    private static final byte TYPE_INTEGER = 3;
+    private static final byte TYPE_LONG = 4;
+
+    /**
+     * The match statuses that are stored, by their byte in the records.
+     * Timeouts and errors are not results of the POD data, so they are not
+     * stored.
+     */
+    private static final String[] MATCH_STATUSES = { ProductMatchTransformer.MATCH_STATUS_GOOD,
+            ProductMatchTransformer.MATCH_STATUS_POTENTIAL, ProductMatchTransformer.MATCH_STATUS_NO_MATCH,
+            ProductMatchTransformer.MATCH_STATUS_SKIPPED };
+
+    private static final ProductSearchField[] FIELDS = ProductSearchField.values();
+
+    private final File _file;
+    private final RandomAccessFile _randomAccessFile;
+    private final FileChannel _channel;
+    private final FileLock _fileLock;
+    // reads share the mapping, while stores and growing the file are exclusive
+    private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+    private final AtomicLong _hitCount = new AtomicLong(0);
+    private MappedByteBuffer _buffer;
+    private int _mask;
+    private int _capacity;
+    private int _entryCount;
+    private int _recordsEnd;
+    private boolean _full;
+
+    /**
+     * Opens a cache file, or creates it if it does not exist.
+     *
+     * @param file
+     * @param tag
+     *            the version of the POD index and matching settings, which the
+     *            stored matches must have been made with
+     * @param capacity
+     *            the maximum number of matches to store, when the file is
+     *            created or cleared. An existing file keeps its capacity.
+     * @throws IOException
+     *             if the file is not a cache file, or is in use by another job
+     */
+    public PersistentMatchCache(File file, String tag, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_CAPACITY + ": " + capacity);
+        }
+        final byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+        if (tagBytes.length > MAX_TAG_LENGTH) {
+            throw new IllegalArgumentException("Tag is too long: " + tag);
+        }
+
+        _file = file;
+        _randomAccessFile = new RandomAccessFile(file, "rw");
+        _channel = _randomAccessFile.getChannel();
+        try {
+            FileLock fileLock;
+            try {
+                fileLock = _channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                fileLock = null;
+            }
+            if (fileLock == null) {
+                throw new IOException("Persistent match cache file is in use by another job: " + file);
+            }
+            _fileLock = fileLock;
+
+            final long size = _channel.size();
+            if (size == 0) {
+                clear(tagBytes, capacity);
+            } else if (size > Integer.MAX_VALUE || size < HEADER_SIZE) {
+                throw new IOException("Not a persistent match cache file: " + file);
+            } else {
+                open(tagBytes, capacity, (int) size);
+            }
+            _buffer.putInt(POSITION_OPEN, 1);
+            _buffer.force();
+        } catch (IOException | RuntimeException e) {
+            _randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private void open(byte[] tagBytes, int capacity, int size) throws IOException {
+        // the header is checked before mapping the file, since a file that is
+        // mapped cannot be truncated on all platforms
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            _channel.read(header, header.position());
+        }
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a persistent match cache file: " + _file);
+        }
+
+        final int version = header.getInt(4);
+        if (version != FORMAT_VERSION) {
+            logger.info("Clearing persistent match cache file {} of format version {}", _file, version);
+            clear(tagBytes, capacity);
+            return;
+        }
+        final byte[] fileTagBytes = new byte[Math.min(header.getShort(POSITION_TAG) & 0xffff, MAX_TAG_LENGTH)];
+        header.position(POSITION_TAG + 2);
+        header.get(fileTagBytes);
+        final String fileTag = new String(fileTagBytes, StandardCharsets.UTF_8);
+        final String tag = new String(tagBytes, StandardCharsets.UTF_8);
+        if (!fileTag.equals(tag)) {
+            logger.info("Clearing persistent match cache file {}, as its matches were made with '{}' instead of '{}'",
+                    _file, fileTag, tag);
+            clear(tagBytes, capacity);
+            return;
+        }
+        if (header.getInt(POSITION_OPEN) != 0) {
+            logger.info("Clearing persistent match cache file {}, as it was not closed", _file);
+            clear(tagBytes, capacity);
+            return;
+        }
+
+        _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        _mask = _buffer.getInt(POSITION_SLOT_COUNT) - 1;
+        _capacity = _buffer.getInt(POSITION_CAPACITY);
+        _entryCount = _buffer.getInt(POSITION_ENTRY_COUNT);
+        _recordsEnd = (int) _buffer.getLong(POSITION_RECORDS_END);
+        _full = _entryCount >= _capacity;
+        logger.info("Opened persistent match cache file {} with {} matches", _file, _entryCount);
+    }
+
+    private void clear(byte[] tagBytes, int capacity) throws IOException {
+        int slotCount = MIN_SLOT_COUNT;
+        // keep the table at most half full, so that probe sequences stay short
+        while (slotCount < 2 * capacity) {
+            slotCount <<= 1;
+        }
+        _mask = slotCount - 1;
+        _capacity = capacity;
+        _entryCount = 0;
+        _recordsEnd = HEADER_SIZE + slotCount * SLOT_SIZE;
+        _full = false;
+
+        // truncating first zeroes the slots of an existing file
+        _randomAccessFile.setLength(0);
+        _randomAccessFile.setLength(_recordsEnd + INITIAL_RECORD_AREA_SIZE);
+        _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, _randomAccessFile.length());
+        _buffer.putInt(0, MAGIC);
+        _buffer.putInt(4, FORMAT_VERSION);
+        _buffer.putInt(POSITION_SLOT_COUNT, slotCount);
+        _buffer.putInt(POSITION_CAPACITY, capacity);
+        _buffer.putShort(POSITION_TAG, (short) tagBytes.length);
+        for (int i = 0; i < tagBytes.length; i++) {
+            _buffer.put(POSITION_TAG + 2 + i, tagBytes[i]);
+        }
+        writeCounts();
+    }
+
+    private void writeCounts() {
+        _buffer.putInt(POSITION_ENTRY_COUNT, _entryCount);
+        _buffer.putLong(POSITION_RECORDS_END, _recordsEnd);
+    }
+
+    /**
+     * Gets the stored match of an input.
+     *
+     * @param key
+     * @return the match, or null if no match of the input is stored
+     */
+    public ProductMatch get(MatchKey key) {
+        final long hash = getHash(key);
+        _lock.readLock().lock();
+        try {
+            if (_buffer == null) {
+                return null;
+            }
+            final int slotPosition = findSlot(key, hash);
+            if (_buffer.getLong(slotPosition) == 0) {
+                return null;
+            }
+            _hitCount.incrementAndGet();
+            final int recordPosition = (int) _buffer.getLong(slotPosition + 8);
+            return readMatch(recordPosition + 4 + key.length() * 2);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the match of an input, unless the file is full, or the match is a
+     * timeout or error.
+     *
+     * @param key
+     * @param match
+     * @return true if the match was stored
+     */
+    public boolean put(MatchKey key, ProductMatch match) {
+        final byte[] record = createRecord(key, match);
+        if (record == null) {
+            return false;
+        }
+        final long hash = getHash(key);
+        _lock.writeLock().lock();
+        try {
+            if (_buffer == null || _full) {
+                return false;
+            }
+            final int slotPosition = findSlot(key, hash);
+            if (_buffer.getLong(slotPosition) != 0) {
+                // stored by another thread already
+                return false;
+            }
+            if (_entryCount >= _capacity || !ensureRecordCapacity(record.length)) {
+                logger.info("Persistent match cache file {} is full with {} matches, further matches are not stored",
+                        _file, _entryCount);
+                _full = true;
+                return false;
+            }
+
+            final ByteBuffer records = _buffer.duplicate();
+            records.position(_recordsEnd);
+            records.put(record);
+            // the slot is written last, so that it never points to a partial
+            // record
+            _buffer.putLong(slotPosition + 8, _recordsEnd);
+            _buffer.putLong(slotPosition, hash);
+            _entryCount++;
+            _recordsEnd += record.length;
+            writeCounts();
+            return true;
+        } catch (IOException e) {
+            logger.warn("Failed to grow persistent match cache file {}, further matches are not stored", _file, e);
+            _full = true;
+            return false;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the hash of a key in the slots. The hash is remixed, since the low
+     * bits pick the slot, and 0 marks empty slots.
+     */
+    private static long getHash(MatchKey key) {
+        long hash = key.getLongHash();
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Finds the slot of a key.
+     *
+     * @param key
+     * @param hash
+     * @return the position of the slot that holds the key, or of the empty
+     *         slot where it should be stored
+     */
+    private int findSlot(MatchKey key, long hash) {
+        for (int slot = (int) hash & _mask;; slot = (slot + 1) & _mask) {
+            final int slotPosition = HEADER_SIZE + slot * SLOT_SIZE;
+            final long slotHash = _buffer.getLong(slotPosition);
+            if (slotHash == 0) {
+                return slotPosition;
+            }
+            if (slotHash == hash && isKeyOf((int) _buffer.getLong(slotPosition + 8), key)) {
+                return slotPosition;
+            }
+        }
+    }
+
+    private boolean isKeyOf(int recordPosition, MatchKey key) {
+        final int length = key.length();
+        if (_buffer.getInt(recordPosition) != length) {
+            return false;
+        }
+        final int charsPosition = recordPosition + 4;
+        for (int i = 0; i < length; i++) {
+            if (_buffer.getChar(charsPosition + i * 2) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean ensureRecordCapacity(int length) throws IOException {
+        final long requiredSize = (long) _recordsEnd + length;
+        if (requiredSize <= _buffer.capacity()) {
+            return true;
+        }
+        if (requiredSize > Integer.MAX_VALUE) {
+            return false;
+        }
+        long size = _buffer.capacity();
+        while (size < requiredSize) {
+            size = Math.min(size * 2, Integer.MAX_VALUE);
+        }
+        _randomAccessFile.setLength(size);
+        // the old mapping is released when its buffer is garbage collected
+        _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return true;
+    }
+
+    /**
+     * Encodes the record of a match.
+     *
+     * @param key
+     * @param match
+     * @return the record, or null if the match should not be stored
+     */
+    private static byte[] createRecord(MatchKey key, ProductMatch match) {
+        final int status = getMatchStatusIndex(match.getMatchStatus());
+        if (status < 0) {
+            return null;
+        }
+        final Map<ProductSearchField, Object> product = match.getProduct();
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + key.length() * 2 + 256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(key.length());
+            for (int i = 0; i < key.length(); i++) {
+                out.writeChar(key.charAt(i));
+            }
+            out.writeByte(status);
+            if (product == null) {
+                out.writeByte(-1);
+                return bytes.toByteArray();
+            }
+
+            int fieldCount = 0;
+            for (Object value : product.values()) {
+                if (value != null) {
+                    fieldCount++;
+                }
+            }
+            out.writeByte(fieldCount);
+            for (Map.Entry<ProductSearchField, Object> entry : product.entrySet()) {
+                final Object value = entry.getValue();
+                if (value == null) {
+                    continue;
+                }
+                out.writeByte(entry.getKey().ordinal());
+                if (value instanceof String) {
+                    final byte[] valueBytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                    if (valueBytes.length > 0xffff) {
+                        return null;
+                    }
+                    out.writeByte(TYPE_STRING);
+                    out.writeShort(valueBytes.length);
+                    out.write(valueBytes);
+                } else if (value instanceof Float) {
+                    out.writeByte(TYPE_FLOAT);
+                    out.writeFloat((Float) value);
+                } else if (value instanceof Double) {
+                    out.writeByte(TYPE_DOUBLE);
+                    out.writeDouble((Double) value);
+                } else if (value instanceof Integer) {
+                    out.writeByte(TYPE_INTEGER);
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    out.writeByte(TYPE_LONG);
+                    out.writeLong((Long) value);
+                } else {
+                    // not a type the backends produce
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            // not thrown by byte array streams
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private ProductMatch readMatch(int position) {
+        final String status = MATCH_STATUSES[_buffer.get(position)];
+        final int fieldCount = _buffer.get(position + 1);
+        if (fieldCount < 0) {
+            if (ProductMatchTransformer.MATCH_STATUS_NO_MATCH.equals(status)) {
+                return ProductMatch.NO_MATCH;
+            } else if (ProductMatchTransformer.MATCH_STATUS_SKIPPED.equals(status)) {
+                return ProductMatch.SKIPPED;
+            }
+            return new ProductMatch(status, null);
+        }
+
+        int fieldPosition = position + 2;
+        final Map<ProductSearchField, Object> product = new EnumMap<>(ProductSearchField.class);
+        for (int i = 0; i < fieldCount; i++) {
+            final ProductSearchField field = FIELDS[_buffer.get(fieldPosition)];
+            final byte type = _buffer.get(fieldPosition + 1);
+            fieldPosition += 2;
+            switch (type) {
+            case TYPE_STRING:
+                final byte[] valueBytes = new byte[_buffer.getShort(fieldPosition) & 0xffff];
+                fieldPosition += 2;
+                for (int j = 0; j < valueBytes.length; j++) {
+                    valueBytes[j] = _buffer.get(fieldPosition + j);
+                }
+                fieldPosition += valueBytes.length;
+                product.put(field, new String(valueBytes, StandardCharsets.UTF_8));
+                break;
+            case TYPE_FLOAT:
+                product.put(field, _buffer.getFloat(fieldPosition));
+                fieldPosition += 4;
+                break;
+            case TYPE_DOUBLE:
+                product.put(field, _buffer.getDouble(fieldPosition));
+                fieldPosition += 8;
+                break;
+            case TYPE_INTEGER:
+                product.put(field, _buffer.getInt(fieldPosition));
+                fieldPosition += 4;
+                break;
+            case TYPE_LONG:
+                product.put(field, _buffer.getLong(fieldPosition));
+                fieldPosition += 8;
+                break;
+            default:
+                throw new IllegalStateException("Unknown value type " + type + " in persistent match cache file: "
+                        + _file);
+            }
+        }
+        return new ProductMatch(status, product);
+    }
+
+    private static int getMatchStatusIndex(String matchStatus) {
+        for (int i = 0; i < MATCH_STATUSES.length; i++) {
+            if (MATCH_STATUSES[i].equals(matchStatus)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the number of matches that were found in the file.
+     *
+     * @return
+     */
+    public long getHitCount() {
+        return _hitCount.get();
+    }
+
+    /**
+     * Gets the number of matches stored in the file, including those of
+     * earlier jobs.
+     *
+     * @return
+     */
+    public int getEntryCount() {
+        _lock.readLock().lock();
+        try {
+            return _entryCount;
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the stored matches to disk and releases the file.
+     */
+    @Override
+    public void close() {
+        _lock.writeLock().lock();
+        try {
+            if (_buffer == null) {
+                return;
+            }
+            // the file is only marked as closed once the matches are on disk
+            _buffer.force();
+            _buffer.putInt(POSITION_OPEN, 0);
+            _buffer.force();
+            _buffer = null;
+            _fileLock.release();
+            _randomAccessFile.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close persistent match cache file {}", _file, e);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+}
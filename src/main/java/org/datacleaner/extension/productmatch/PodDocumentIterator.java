@@ -0,0 +1,112 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * Iterates the source of all products in the 'pod' Elasticsearch index, using
+ * a scan and scroll search. Used to export the index into local index formats,
+ * to copy it into a new index, and to fetch products in bulk.
+ * The ids of the hits are not necessarily GTIN codes, e.g. in indexes built by a
+ * DataCleaner job, so GTIN codes must be read from the GTIN_CD field.
+ */
+class PodDocumentIterator implements Iterator<Map<String, Object>> {
+
+    private static final int PAGE_SIZE = 1000;
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    private final Client _client;
+    private String _scrollId;
+    private SearchHit[] _hits;
+    private int _index;
+
+    public PodDocumentIterator(Client client) {
+        this(client, ProductMatchTransformer.INDEX_NAME);
+    }
+
+    /**
+     * Creates an iterator of all products in an index.
+     *
+     * @param client
+     * @param indexName
+     */
+    public PodDocumentIterator(Client client, String indexName) {
+        this(client, createSearch(client, indexName, QueryBuilders.matchAllQuery()));
+    }
+
+    /**
+     * Creates an iterator of the products that match a query.
+     *
+     * @param client
+     * @param query
+     * @param sourceIncludes
+     *            the source fields to fetch
+     */
+    public PodDocumentIterator(Client client, QueryBuilder query, String[] sourceIncludes) {
+        this(client, createSearch(client, ProductMatchTransformer.INDEX_NAME, query).setFetchSource(sourceIncludes,
+                null));
+    }
+
+    private PodDocumentIterator(Client client, SearchRequestBuilder search) {
+        _client = client;
+        final SearchResponse response = search.execute().actionGet();
+        // the initial scan response holds no hits, only the scroll id
+        _scrollId = response.getScrollId();
+        _hits = new SearchHit[0];
+        _index = 0;
+    }
+
+    private static SearchRequestBuilder createSearch(Client client, String indexName, QueryBuilder query) {
+        return client.prepareSearch(indexName)
+                .setTypes(ProductMatchTransformer.DOCUMENT_TYPE).setSearchType(SearchType.SCAN)
+                .setScroll(SCROLL_KEEP_ALIVE).setQuery(query).setSize(PAGE_SIZE);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (_index < _hits.length) {
+            return true;
+        }
+        if (_scrollId == null) {
+            return false;
+        }
+
+        final SearchResponse response = _client.prepareSearchScroll(_scrollId).setScroll(SCROLL_KEEP_ALIVE)
+                .execute().actionGet();
+        _hits = response.getHits().getHits();
+        _index = 0;
+        if (_hits.length == 0) {
+            _scrollId = null;
+            return false;
+        }
+        _scrollId = response.getScrollId();
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        return nextHit().sourceAsMap();
+    }
+
+    public SearchHit nextHit() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return _hits[_index++];
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,202 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the products of a POD database dump into an Elasticsearch index,
+ * without restoring the dump into a database first. The dump is parsed as a
+ * stream by a {@link PodDumpReader}, while bulk requests of the products are
+ * sent to the cluster concurrently. Refreshing of the index is disabled during
+ * the load.
+ *
+ * The loader can be run from the command line. It creates the index with
+ * {@link PodIndexProvisioner} if it does not exist yet:
+ *
+ * <pre>
+ * java ... PodDumpLoader &lt;hostname&gt; &lt;port&gt; &lt;dump file (.sql or .sql.gz)&gt; [index] [batch size] [concurrent requests]
+ * </pre>
+ */
+public class PodDumpLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(PodDumpLoader.class);
+
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String DEFAULT_REFRESH_INTERVAL = "1s";
+    private static final int PROGRESS_INTERVAL = 100000;
+
+    private final Client _client;
+    private final String _indexName;
+    private final int _batchSize;
+    private final int _concurrentRequests;
+
+    /**
+     * Creates the loader.
+     *
+     * @param client
+     * @param indexName
+     * @param batchSize
+     *            the number of products per bulk request
+     * @param concurrentRequests
+     *            the number of bulk requests that may be in flight while the
+     *            dump is read further
+     */
+    public PodDumpLoader(Client client, String indexName, int batchSize, int concurrentRequests) {
+        _client = client;
+        _indexName = indexName;
+        _batchSize = batchSize;
+        _concurrentRequests = concurrentRequests;
+    }
+
+    /**
+     * Loads all products of a dump. Products are indexed by their GTIN code,
+     * zero-padded to 13 digits like the codes that are looked up by document
+     * id. Products without a valid GTIN code are skipped.
+     *
+     * @param reader
+     * @return the number of products loaded
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public long load(PodDumpReader reader) throws IOException, InterruptedException {
+        final String refreshInterval = _client.admin().indices().prepareGetSettings(_indexName).execute()
+                .actionGet().getSetting(_indexName, REFRESH_INTERVAL);
+        setRefreshInterval("-1");
+        try {
+            final AtomicLong failedCount = new AtomicLong(0);
+            final AtomicReference<String> failureMessage = new AtomicReference<>();
+            final BulkProcessor bulkProcessor = BulkProcessor.builder(_client, new BulkProcessor.Listener() {
+                @Override
+                public void beforeBulk(long executionId, BulkRequest request) {
+                }
+
+                @Override
+                public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                    if (response.hasFailures()) {
+                        for (int i = 0; i < response.getItems().length; i++) {
+                            if (response.getItems()[i].isFailed()) {
+                                failedCount.incrementAndGet();
+                            }
+                        }
+                        failureMessage.compareAndSet(null, response.buildFailureMessage());
+                    }
+                }
+
+                @Override
+                public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                    failedCount.addAndGet(request.numberOfActions());
+                    failureMessage.compareAndSet(null, failure.toString());
+                }
+            }).setBulkActions(_batchSize).setBulkSize(new ByteSizeValue(-1))
+                    .setConcurrentRequests(_concurrentRequests).build();
+
+            long count = 0;
+            long skippedCount = 0;
+            try {
+                for (Map<String, Object> product = reader.nextProduct(); product != null; product = reader
+                        .nextProduct()) {
+                    final String id = getDocumentId(product);
+                    if (id == null) {
+                        skippedCount++;
+                        continue;
+                    }
+                    bulkProcessor.add(_client.prepareIndex(_indexName, ProductMatchTransformer.DOCUMENT_TYPE, id)
+                            .setSource(product).request());
+                    count++;
+                    if (count % PROGRESS_INTERVAL == 0) {
+                        logger.info("Read {} products", count);
+                    }
+                    if (failureMessage.get() != null) {
+                        break;
+                    }
+                }
+            } finally {
+                bulkProcessor.awaitClose(10, TimeUnit.MINUTES);
+            }
+            if (skippedCount > 0) {
+                logger.warn("Skipped {} products without a valid GTIN code", skippedCount);
+            }
+
+            if (failureMessage.get() != null) {
+                throw new IllegalStateException("Failed to load " + failedCount.get() + " products: "
+                        + failureMessage.get());
+            }
+            return count;
+        } finally {
+            setRefreshInterval(refreshInterval == null ? DEFAULT_REFRESH_INTERVAL : refreshInterval);
+            _client.admin().indices().prepareRefresh(_indexName).execute().actionGet();
+        }
+    }
+
+    /**
+     * Gets the document id of a product, which is its normalized GTIN code.
+     *
+     * @param product
+     * @return the id, or null if the product has no valid GTIN code
+     */
+    static String getDocumentId(Map<String, Object> product) {
+        final long gtin = GtinUtils.parseGtin(product.get(ProductSearchField.GTIN_CD.getFieldName()));
+        return gtin == GtinUtils.INVALID ? null : GtinUtils.formatGtin(gtin);
+    }
+
+    private void setRefreshInterval(String refreshInterval) {
+        _client.admin().indices().prepareUpdateSettings(_indexName)
+                .setSettings(ImmutableSettings.settingsBuilder().put(REFRESH_INTERVAL, refreshInterval)).execute()
+                .actionGet();
+    }
+
+    static BufferedReader createReader(File dumpFile) throws IOException {
+        InputStream in = new FileInputStream(dumpFile);
+        if (dumpFile.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 65536);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 20);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3 || args.length > 6) {
+            System.err.println("Usage: PodDumpLoader <hostname> <port> <dump file> [index] [batch size] "
+                    + "[concurrent requests]");
+            System.exit(1);
+        }
+        final String indexName = args.length > 3 ? args[3] : ProductMatchTransformer.INDEX_NAME;
+        final int batchSize = args.length > 4 ? Integer.parseInt(args[4]) : 5000;
+        final int concurrentRequests = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime()
+                .availableProcessors();
+
+        try (ElasticSearchClientManager clientManager = new ElasticSearchClientManager(
+                ProductMatchTransformer.INDEX_NAME, args[0], Integer.parseInt(args[1]));
+                BufferedReader reader = createReader(new File(args[2]))) {
+            final Client client = clientManager.getClient();
+            if (!client.admin().indices().prepareExists(indexName).execute().actionGet().isExists()) {
+                new PodIndexProvisioner(client).createIndex(indexName, 1, 0);
+                System.out.println("Created index '" + indexName + "'");
+            }
+
+            final long startTime = System.nanoTime();
+            final long count = new PodDumpLoader(client, indexName, batchSize, concurrentRequests)
+                    .load(new PodDumpReader(new SqlDumpParser(reader)));
+            System.out.println("Loaded " + count + " products into '" + indexName + "' in "
+                    + (System.nanoTime() - startTime) / 1000000 + " ms");
+        }
+    }
+}
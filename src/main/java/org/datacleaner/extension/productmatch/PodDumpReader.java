@@ -0,0 +1,150 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the products of a POD database dump as index documents. The brand,
+ * company (GCP) and category (GPC) tables are held in memory, and joined into
+ * the products of the 'gtin' table the same way as the table lookups of the
+ * 'pod_move_to_es' DataCleaner job. mysqldump writes the tables in
+ * alphabetical order, so these tables precede the 'gtin' table.
+ */
+class PodDumpReader {
+
+    static final String TABLE_BRAND = "brand";
+    static final String TABLE_GCP = "gs1_gcp";
+    static final String TABLE_GPC = "gs1_gpc";
+    static final String TABLE_GTIN = "gtin";
+
+    /**
+     * The language of the category names.
+     */
+    static final String GPC_LANGUAGE = "EN";
+
+    /**
+     * The columns of the 'gtin' table that are copied into the documents.
+     */
+    static final String[] GTIN_COLUMNS = { "GTIN_CD", "GCP_CD", "BSIN", "GPC_S_CD", "GPC_F_CD", "GPC_C_CD",
+            "GPC_B_CD", "GTIN_NM", "PRODUCT_LINE", "M_G", "M_OZ", "M_ML", "M_FLOZ", "M_ABV", "M_ABW", "PKG_UNIT" };
+
+    static final String[] BRAND_COLUMNS = { "BRAND_NM", "BRAND_LINK" };
+
+    static final String[] GCP_COLUMNS = { "GLN_NM", "GLN_ADDR_02", "GLN_ADDR_03", "GLN_ADDR_04",
+            "GLN_ADDR_POSTALCODE", "GLN_ADDR_CITY", "GLN_COUNTRY_ISO_CD" };
+
+    /**
+     * The category code columns of the 'gtin' table, and the document fields
+     * that get their names.
+     */
+    private static final String[][] GPC_FIELDS = { { "GPC_S_CD", "GPC_SEGMENT" }, { "GPC_F_CD", "GPC_FAMILY" },
+            { "GPC_C_CD", "GPC_CLASS" }, { "GPC_B_CD", "GPC_BRICK" } };
+
+    private final SqlDumpParser _parser;
+    private final Map<String, Object[]> _brands = new HashMap<>();
+    private final Map<String, Object[]> _companies = new HashMap<>();
+    private final Map<String, Object> _categoryNames = new HashMap<>();
+    private long _productCount = 0;
+
+    public PodDumpReader(SqlDumpParser parser) {
+        _parser = parser;
+    }
+
+    /**
+     * Reads the next product.
+     *
+     * @return the document of the product, keyed by field name, or null if
+     *         there are no more products
+     * @throws IOException
+     */
+    public Map<String, Object> nextProduct() throws IOException {
+        for (String table = _parser.nextRow(); table != null; table = _parser.nextRow()) {
+            switch (table) {
+            case TABLE_BRAND:
+                checkNoProductsRead(table);
+                _brands.put(toKey(_parser.getValue("BSIN")), getValues(BRAND_COLUMNS));
+                break;
+            case TABLE_GCP:
+                checkNoProductsRead(table);
+                _companies.put(toKey(_parser.getValue("GCP_CD")), getValues(GCP_COLUMNS));
+                break;
+            case TABLE_GPC:
+                checkNoProductsRead(table);
+                if (GPC_LANGUAGE.equalsIgnoreCase(toKey(_parser.getValue("GPC_LANG")))) {
+                    _categoryNames.put(toKey(_parser.getValue("GPC_CD")), _parser.getValue("GPC_NM"));
+                }
+                break;
+            case TABLE_GTIN:
+                final Map<String, Object> product = createProduct();
+                if (product != null) {
+                    _productCount++;
+                    return product;
+                }
+                break;
+            default:
+                // not part of the index
+                break;
+            }
+        }
+        return null;
+    }
+
+    private Map<String, Object> createProduct() {
+        if (_parser.getValue("GTIN_CD") == null) {
+            return null;
+        }
+
+        final Map<String, Object> product = new LinkedHashMap<>();
+        for (String column : GTIN_COLUMNS) {
+            putIfNotNull(product, column, _parser.getValue(column));
+        }
+
+        final Object[] brand = _brands.get(toKey(_parser.getValue("BSIN")));
+        if (brand != null) {
+            for (int i = 0; i < BRAND_COLUMNS.length; i++) {
+                putIfNotNull(product, BRAND_COLUMNS[i], brand[i]);
+            }
+        }
+        final Object[] company = _companies.get(toKey(_parser.getValue("GCP_CD")));
+        if (company != null) {
+            for (int i = 0; i < GCP_COLUMNS.length; i++) {
+                putIfNotNull(product, GCP_COLUMNS[i], company[i]);
+            }
+        }
+        for (String[] gpcField : GPC_FIELDS) {
+            putIfNotNull(product, gpcField[1], _categoryNames.get(toKey(_parser.getValue(gpcField[0]))));
+        }
+        return product;
+    }
+
+    private Object[] getValues(String[] columns) {
+        final Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = _parser.getValue(columns[i]);
+        }
+        return values;
+    }
+
+    private void checkNoProductsRead(String table) throws IOException {
+        if (_productCount > 0) {
+            throw new IOException("Table '" + table + "' must precede table '" + TABLE_GTIN + "' in the dump");
+        }
+    }
+
+    private static String toKey(Object value) {
+        // codes may be dumped as numbers or as strings
+        return value == null ? null : value.toString();
+    }
+
+    private static void putIfNotNull(Map<String, Object> product, String field, Object value) {
+        if (value != null) {
+            product.put(field, value);
+        }
+    }
+
+    public long getProductCount() {
+        return _productCount;
+    }
+}
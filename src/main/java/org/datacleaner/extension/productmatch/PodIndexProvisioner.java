@@ -0,0 +1,250 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.common.hppc.cursors.ObjectObjectCursor;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the 'pod' Elasticsearch index with an explicit mapping, tuned for
+ * the queries of {@link ElasticSearchBackend}, instead of the dynamic mapping
+ * that the index gets when documents are added to it right away:
+ *
+ * <ul>
+ * <li>The GTIN code and the other codes are not analyzed and have doc values,
+ * so that GTIN lookups are exact term lookups.</li>
+ * <li>The product and brand names, and the other descriptive fields, are
+ * analyzed with the {@link #TEXT_ANALYZER}, which also folds accented
+ * characters.</li>
+ * <li>Only the descriptive fields are included in the '_all' field, which
+ * keeps codes, measures and addresses from matching product descriptions.</li>
+ * <li>Links and addresses are not indexed at all, only kept in the source.</li>
+ * </ul>
+ *
+ * The provisioner can be run from the command line to print the index
+ * definition, to create an index, to copy the products of an existing index
+ * into it and to point the 'pod' alias at it:
+ *
+ * <pre>
+ * java ... PodIndexProvisioner print [shards] [replicas]
+ * java ... PodIndexProvisioner create &lt;hostname&gt; &lt;port&gt; &lt;index&gt; [shards] [replicas]
+ * java ... PodIndexProvisioner copy &lt;hostname&gt; &lt;port&gt; &lt;source index&gt; &lt;target index&gt;
+ * java ... PodIndexProvisioner alias &lt;hostname&gt; &lt;port&gt; &lt;index&gt;
+ * </pre>
+ *
+ * An index can only be aliased as 'pod' once an index named 'pod' no longer
+ * exists.
+ */
+public class PodIndexProvisioner {
+
+    private static final Logger logger = LoggerFactory.getLogger(PodIndexProvisioner.class);
+
+    /**
+     * The analyzer of the descriptive fields and of the '_all' field.
+     */
+    static final String TEXT_ANALYZER = "pod_text";
+
+    /**
+     * Fields that are matched against product descriptions.
+     */
+    static final String[] TEXT_FIELDS = { "GTIN_NM", "PRODUCT_LINE", "BRAND_NM", "GLN_NM", "GPC_SEGMENT",
+            "GPC_FAMILY", "GPC_CLASS", "GPC_BRICK" };
+
+    /**
+     * Fields that are only looked up by their exact value.
+     */
+    static final String[] KEYWORD_FIELDS = { "GTIN_CD", "GCP_CD", "BSIN", "GPC_S_CD", "GPC_F_CD", "GPC_C_CD",
+            "GPC_B_CD" };
+
+    static final String[] DECIMAL_FIELDS = { "M_G", "M_OZ", "M_ML", "M_FLOZ", "M_ABV", "M_ABW" };
+
+    static final String[] INTEGER_FIELDS = { "PKG_UNIT" };
+
+    /**
+     * Fields that are never queried, only returned.
+     */
+    static final String[] SOURCE_ONLY_FIELDS = { "BRAND_LINK", "GLN_ADDR_02", "GLN_ADDR_03", "GLN_ADDR_04",
+            "GLN_ADDR_POSTALCODE", "GLN_ADDR_CITY", "GLN_COUNTRY_ISO_CD" };
+
+    private static final int COPY_BATCH_SIZE = 1000;
+    private static final int COPY_PROGRESS_INTERVAL = 100000;
+
+    private final Client _client;
+
+    public PodIndexProvisioner(Client client) {
+        _client = client;
+    }
+
+    /**
+     * Creates the body of the create index request, with the settings and the
+     * mapping of the index.
+     *
+     * @param shards
+     * @param replicas
+     * @return
+     * @throws IOException
+     */
+    static XContentBuilder createIndexDefinition(int shards, int replicas) throws IOException {
+        final XContentBuilder builder = XContentFactory.jsonBuilder().prettyPrint().startObject();
+
+        builder.startObject("settings");
+        builder.field("number_of_shards", shards).field("number_of_replicas", replicas);
+        builder.startObject("analysis").startObject("analyzer").startObject(TEXT_ANALYZER);
+        builder.field("type", "custom").field("tokenizer", "standard")
+                .array("filter", "lowercase", "asciifolding");
+        builder.endObject().endObject().endObject();
+        builder.endObject();
+
+        builder.startObject("mappings").startObject(ProductMatchTransformer.DOCUMENT_TYPE);
+        builder.startObject("_all").field("enabled", true).field("analyzer", TEXT_ANALYZER).endObject();
+        builder.startObject("properties");
+        for (String field : TEXT_FIELDS) {
+            builder.startObject(field).field("type", "string").field("analyzer", TEXT_ANALYZER).endObject();
+        }
+        for (String field : KEYWORD_FIELDS) {
+            builder.startObject(field).field("type", "string").field("index", "not_analyzed")
+                    .field("doc_values", true).field("include_in_all", false).endObject();
+        }
+        for (String field : DECIMAL_FIELDS) {
+            builder.startObject(field).field("type", "float").field("doc_values", true)
+                    .field("include_in_all", false).endObject();
+        }
+        for (String field : INTEGER_FIELDS) {
+            builder.startObject(field).field("type", "integer").field("doc_values", true)
+                    .field("include_in_all", false).endObject();
+        }
+        for (String field : SOURCE_ONLY_FIELDS) {
+            builder.startObject(field).field("type", "string").field("index", "no")
+                    .field("include_in_all", false).endObject();
+        }
+        builder.endObject();
+        builder.endObject().endObject();
+
+        return builder.endObject();
+    }
+
+    /**
+     * Creates an index with the POD mapping.
+     *
+     * @param indexName
+     * @param shards
+     * @param replicas
+     * @throws IOException
+     */
+    public void createIndex(String indexName, int shards, int replicas) throws IOException {
+        _client.admin().indices().prepareCreate(indexName).setSource(createIndexDefinition(shards, replicas))
+                .execute().actionGet();
+        _client.admin().cluster().prepareHealth(indexName).setWaitForYellowStatus().execute().actionGet();
+    }
+
+    /**
+     * Copies all products of an index into another, in bulk requests.
+     *
+     * @param sourceIndexName
+     * @param targetIndexName
+     * @return the number of products copied
+     */
+    public long copyIndex(String sourceIndexName, String targetIndexName) {
+        final PodDocumentIterator documents = new PodDocumentIterator(_client, sourceIndexName);
+        long count = 0;
+        BulkRequestBuilder bulk = _client.prepareBulk();
+        while (documents.hasNext()) {
+            final SearchHit hit = documents.nextHit();
+            bulk.add(_client.prepareIndex(targetIndexName, ProductMatchTransformer.DOCUMENT_TYPE, hit.getId())
+                    .setSource(hit.sourceRef()));
+            count++;
+            if (bulk.numberOfActions() == COPY_BATCH_SIZE) {
+                executeBulk(bulk);
+                bulk = _client.prepareBulk();
+            }
+            if (count % COPY_PROGRESS_INTERVAL == 0) {
+                logger.info("Copied {} products", count);
+            }
+        }
+        if (bulk.numberOfActions() > 0) {
+            executeBulk(bulk);
+        }
+        _client.admin().indices().prepareRefresh(targetIndexName).execute().actionGet();
+        return count;
+    }
+
+    private void executeBulk(BulkRequestBuilder bulk) {
+        final BulkResponse response = bulk.execute().actionGet();
+        if (response.hasFailures()) {
+            throw new IllegalStateException("Failed to copy products: " + response.buildFailureMessage());
+        }
+    }
+
+    /**
+     * Points the 'pod' alias at an index, moving it from any other index it
+     * pointed at, in one atomic step.
+     *
+     * @param indexName
+     */
+    public void setAlias(String indexName) {
+        final IndicesAliasesRequestBuilder aliases = _client.admin().indices().prepareAliases();
+        final GetAliasesResponse existingAliases = _client.admin().indices()
+                .prepareGetAliases(ProductMatchTransformer.INDEX_NAME).execute().actionGet();
+        for (ObjectObjectCursor<String, List<AliasMetaData>> cursor : existingAliases.getAliases()) {
+            if (!cursor.key.equals(indexName) && !cursor.value.isEmpty()) {
+                aliases.removeAlias(cursor.key, ProductMatchTransformer.INDEX_NAME);
+            }
+        }
+        aliases.addAlias(indexName, ProductMatchTransformer.INDEX_NAME).execute().actionGet();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 1 && "print".equals(args[0]) && args.length <= 3) {
+            final int shards = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+            final int replicas = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+            System.out.println(createIndexDefinition(shards, replicas).string());
+            return;
+        }
+        if (args.length < 4) {
+            printUsage();
+            return;
+        }
+
+        final String command = args[0];
+        try (ElasticSearchClientManager clientManager = new ElasticSearchClientManager(
+                ProductMatchTransformer.INDEX_NAME, args[1], Integer.parseInt(args[2]))) {
+            final PodIndexProvisioner provisioner = new PodIndexProvisioner(clientManager.getClient());
+            if ("create".equals(command) && args.length <= 6) {
+                final int shards = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+                final int replicas = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+                provisioner.createIndex(args[3], shards, replicas);
+                System.out.println("Created index '" + args[3] + "' with " + shards + " shard(s) and " + replicas
+                        + " replica(s)");
+            } else if ("copy".equals(command) && args.length == 5) {
+                final long startTime = System.nanoTime();
+                final long count = provisioner.copyIndex(args[3], args[4]);
+                System.out.println("Copied " + count + " products from '" + args[3] + "' to '" + args[4] + "' in "
+                        + (System.nanoTime() - startTime) / 1000000 + " ms");
+            } else if ("alias".equals(command) && args.length == 4) {
+                provisioner.setAlias(args[3]);
+                System.out.println("Alias '" + ProductMatchTransformer.INDEX_NAME + "' points at '" + args[3] + "'");
+            } else {
+                printUsage();
+            }
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: PodIndexProvisioner print [shards] [replicas]");
+        System.err.println("       PodIndexProvisioner create <hostname> <port> <index> [shards] [replicas]");
+        System.err.println("       PodIndexProvisioner copy <hostname> <port> <source index> <target index>");
+        System.err.println("       PodIndexProvisioner alias <hostname> <port> <index>");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,37 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.Map;
+
+/**
+ * The outcome of matching a single input against the POD database: a match
+ * status and, for good or potential matches, the matched product.
+ */
+final class ProductMatch {
+
+    public static final ProductMatch SKIPPED = new ProductMatch(ProductMatchTransformer.MATCH_STATUS_SKIPPED, null);
+    public static final ProductMatch NO_MATCH = new ProductMatch(ProductMatchTransformer.MATCH_STATUS_NO_MATCH, null);
+    public static final ProductMatch TIMEOUT = new ProductMatch(ProductMatchTransformer.MATCH_STATUS_TIMEOUT, null);
+    public static final ProductMatch ERROR = new ProductMatch(ProductMatchTransformer.MATCH_STATUS_ERROR, null);
+
+    private final String _matchStatus;
+    private final Map<ProductSearchField, Object> _product;
+
+    public ProductMatch(String matchStatus, Map<ProductSearchField, Object> product) {
+        _matchStatus = matchStatus;
+        _product = product;
+    }
+
+    public String getMatchStatus() {
+        return _matchStatus;
+    }
+
+    /**
+     * Gets the matched product, or null if no product should be applied to the
+     * output.
+     *
+     * @return
+     */
+    public Map<ProductSearchField, Object> getProduct() {
+        return _product;
+    }
+}
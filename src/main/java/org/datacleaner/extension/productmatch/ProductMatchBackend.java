@@ -0,0 +1,108 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A matching engine that holds the POD product data. Implementations must be
+ * thread-safe, since they are shared by all worker threads of a job.
+ */
+interface ProductMatchBackend extends Closeable {
+
+    /**
+     * Checks that the backend can be used, e.g. that it is reachable and holds
+     * the POD index, so that a misconfigured job fails at initialization
+     * instead of on every row.
+     *
+     * @throws IllegalStateException
+     *             if the backend cannot be used, with a message that explains
+     *             why
+     */
+    public void verify();
+
+    /**
+     * Looks up a product by its exact, normalized GTIN code.
+     *
+     * @param gtinCode
+     *            the 13-digit GTIN code
+     * @return the product, or null if there is no product with the GTIN code
+     */
+    public Map<ProductSearchField, Object> lookupGtin(String gtinCode);
+
+    /**
+     * Searches for the product that best matches the text fields
+     * ({@link ProductSearchField#GTIN_NM}, {@link ProductSearchField#BRAND_NM}
+     * and {@link ProductSearchField#ALL}) of the input.
+     *
+     * @param input
+     * @return the best matching product including its
+     *         {@link ProductSearchField#SCORE}, or null if nothing matches
+     */
+    public Map<ProductSearchField, Object> search(Map<ProductSearchField, Object> input);
+
+    /**
+     * Looks up a product by its GTIN code and searches for the best match of
+     * the text fields of the input, in one round trip if the backend is
+     * remote. Used when a GTIN lookup may fall back to a text search.
+     *
+     * @param gtinCode
+     *            the 13-digit GTIN code
+     * @param input
+     * @return
+     */
+    public GtinAndTextResult lookupGtinAndSearch(String gtinCode, Map<ProductSearchField, Object> input);
+
+    /**
+     * Fetches the products with the given GTIN codes in bulk, for joining them
+     * with input rows locally. Codes without a product are left out.
+     *
+     * @param gtins
+     *            the GTIN codes, sorted and without duplicates
+     * @param count
+     *            the number of GTIN codes in the array
+     * @param products
+     *            the table to add the products to
+     */
+    public void lookupGtins(long[] gtins, int count, GtinProductTable products);
+
+    /**
+     * Gets the number of products in the backend.
+     *
+     * @return
+     */
+    public long getProductCount();
+
+    /**
+     * Gets a version of the product data, which changes whenever the index is
+     * rebuilt or reloaded, so that matches stored outside of the backend can be
+     * discarded.
+     *
+     * @return
+     */
+    public String getIndexVersion();
+
+    /**
+     * Iterates the GTIN codes of all products in the backend.
+     *
+     * @return
+     */
+    public Iterator<String> getGtinCodes();
+
+    /**
+     * Adds backend specific metrics to the result metrics.
+     *
+     * @param metrics
+     */
+    public void addMetrics(Map<String, Number> metrics);
+
+    /**
+     * Adds backend specific latency histograms to the result latencies.
+     *
+     * @param latencies
+     */
+    public void addLatencies(Map<String, LatencyHistogram> latencies);
+
+    @Override
+    public void close();
+}
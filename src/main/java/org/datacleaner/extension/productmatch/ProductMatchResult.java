@@ -1,26 +1,181 @@
 package org.datacleaner.extension.productmatch;
 
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.datacleaner.api.AnalyzerResult;
 
+/**
+ * Result of a {@link ProductMatchTransformer}. The result is a compact snapshot:
+ * the match status and segment names are kept once, in dictionaries, next to
+ * arrays of their counts. Results of the nodes of a distributed job are
+ * combined by {@link ProductMatchResultReducer}.
+ */
 public class ProductMatchResult implements AnalyzerResult {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 3L;
 
-    private final Map<String, ? extends Number> _matchStatuses;
-    private final Map<String, ? extends Number> _segments;
+    public static final String METRIC_STARTUP_TIME = "Startup time (ms)";
+    public static final String METRIC_WARM_UP_QUERIES = "Warm-up queries";
+    public static final String METRIC_CONNECT_TIME = "Connect time (ms)";
+    public static final String METRIC_RECONNECTS = "Reconnects";
+    public static final String METRIC_CONNECTED_NODES = "Connected nodes";
+    public static final String METRIC_INDEX_DOCUMENTS = "Indexed products";
+    public static final String METRIC_CACHE_HITS = "Cache hits";
+    public static final String METRIC_CACHE_MISSES = "Cache misses";
+    public static final String METRIC_CACHE_EVICTIONS = "Cache evictions";
+    public static final String METRIC_PERSISTENT_CACHE_HITS = "Rows served from persistent cache";
+    public static final String METRIC_PERSISTENT_CACHE_ENTRIES = "Persistent cache entries";
+    public static final String METRIC_COALESCED_MATCHES = "Coalesced matches";
+    public static final String METRIC_INVALID_GTIN_CODES = "Invalid GTIN codes";
+    public static final String METRIC_LOCAL_GTIN_LOOKUPS = "Local GTIN index lookups";
+    public static final String METRIC_SKIPPED_GTIN_LOOKUPS = "GTIN lookups skipped by filter";
+    public static final String METRIC_BATCHES = "Batches";
+    public static final String METRIC_BATCHED_SEARCHES = "Batched searches";
+    public static final String METRIC_BATCHED_GETS = "Batched GTIN lookups";
+    public static final String METRIC_PEAK_IN_FLIGHT_REQUESTS = "Peak in-flight requests";
+    public static final String METRIC_THROTTLED_REQUESTS = "Throttled requests";
+    public static final String METRIC_REQUEST_TIMEOUTS = "Request timeouts";
+    public static final String METRIC_REQUEST_RETRIES = "Request retries";
+    public static final String METRIC_CIRCUIT_BREAKER_TRIPS = "Circuit breaker trips";
+    public static final String METRIC_CIRCUIT_BREAKER_REJECTIONS = "Requests rejected by circuit breaker";
+    public static final String METRIC_ROWS_PER_SECOND = "Rows per second";
+
+    public static final String TOP_BRANDS = "Top brands";
+    public static final String TOP_GPC_FAMILIES = "Top GPC families";
+    public static final String TOP_GPC_CLASSES = "Top GPC classes";
+    public static final String TOP_GPC_BRICKS = "Top GPC bricks";
+    public static final String TOP_UNMATCHED_INPUTS = "Top unmatched inputs";
+
+    public static final String LATENCY_INPUT_MAPPING = "Input mapping";
+    public static final String LATENCY_GTIN_LOOKUP = "Match: GTIN lookup";
+    public static final String LATENCY_TEXT_SEARCH = "Match: text search";
+    public static final String LATENCY_GTIN_TEXT_FALLBACK = "Match: GTIN lookup, then text search";
+    public static final String LATENCY_GET_ROUND_TRIP = "Elasticsearch GTIN get round trip";
+    public static final String LATENCY_SEARCH_ROUND_TRIP = "Elasticsearch search round trip";
+    public static final String LATENCY_SEARCH_TOOK = "Elasticsearch search took";
+    public static final String LATENCY_LUCENE_SEARCH = "Lucene search";
+
+    /**
+     * Counts of a set of names, kept as a dictionary of the names and an array
+     * of their counts.
+     */
+    private static final class Counts implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String[] _names;
+        private final long[] _counts;
+
+        public Counts(Map<String, ? extends Number> map) {
+            _names = map.keySet().toArray(new String[map.size()]);
+            _counts = new long[_names.length];
+            for (int i = 0; i < _names.length; i++) {
+                final Number count = map.get(_names[i]);
+                _counts[i] = count == null ? 0 : count.longValue();
+            }
+        }
+
+        public Map<String, Long> toMap() {
+            final Map<String, Long> map = new LinkedHashMap<>();
+            for (int i = 0; i < _names.length; i++) {
+                map.put(_names[i], _counts[i]);
+            }
+            return Collections.unmodifiableMap(map);
+        }
+    }
+
+    private final Counts _matchStatuses;
+    private final Counts _segments;
+    private final LinkedHashMap<String, Counts> _topValues;
+    private final LinkedHashMap<String, Number> _metrics;
+    private final LinkedHashMap<String, LatencyHistogram> _latencies;
 
     public ProductMatchResult(Map<String, ? extends Number> matchStatuses, Map<String, ? extends Number> segments) {
-        _matchStatuses = matchStatuses;
-        _segments = segments;
+        this(matchStatuses, segments, Collections.<String, Number> emptyMap());
+    }
+
+    public ProductMatchResult(Map<String, ? extends Number> matchStatuses, Map<String, ? extends Number> segments,
+            Map<String, ? extends Number> metrics) {
+        this(matchStatuses, segments, metrics, Collections.<String, LatencyHistogram> emptyMap());
+    }
+
+    public ProductMatchResult(Map<String, ? extends Number> matchStatuses, Map<String, ? extends Number> segments,
+            Map<String, ? extends Number> metrics, Map<String, LatencyHistogram> latencies) {
+        this(matchStatuses, segments, Collections.<String, Map<String, Long>> emptyMap(), metrics, latencies);
+    }
+
+    /**
+     * Creates the result from a snapshot of the given counts, metrics and
+     * latencies. The maps are copied, so the result does not change when the
+     * maps do.
+     *
+     * @param matchStatuses
+     * @param segments
+     * @param topValues
+     *            the most frequent values and their (estimated) counts, keyed
+     *            by the TOP_* names of this class
+     * @param metrics
+     * @param latencies
+     */
+    public ProductMatchResult(Map<String, ? extends Number> matchStatuses, Map<String, ? extends Number> segments,
+            Map<String, ? extends Map<String, ? extends Number>> topValues, Map<String, ? extends Number> metrics,
+            Map<String, LatencyHistogram> latencies) {
+        _matchStatuses = new Counts(matchStatuses);
+        _segments = new Counts(segments);
+        _topValues = new LinkedHashMap<>();
+        for (Map.Entry<String, ? extends Map<String, ? extends Number>> entry : topValues.entrySet()) {
+            _topValues.put(entry.getKey(), new Counts(entry.getValue()));
+        }
+        _metrics = new LinkedHashMap<>(metrics);
+        _latencies = new LinkedHashMap<>(latencies);
     }
 
     public Map<String, ? extends Number> getMatchStatuses() {
-        return _matchStatuses;
+        return _matchStatuses.toMap();
     }
 
     public Map<String, ? extends Number> getSegments() {
-        return _segments;
+        return _segments.toMap();
+    }
+
+    /**
+     * Gets the most frequent brands, GPC families, classes and bricks of the
+     * matched products, and the most frequent inputs that were not matched,
+     * keyed by the TOP_* names of this class. The values are ordered by their
+     * counts, which are estimates.
+     *
+     * @return
+     */
+    public Map<String, Map<String, Long>> getTopValues() {
+        final Map<String, Map<String, Long>> topValues = new LinkedHashMap<>();
+        for (Map.Entry<String, Counts> entry : _topValues.entrySet()) {
+            topValues.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return Collections.unmodifiableMap(topValues);
+    }
+
+    /**
+     * Gets operational metrics (connection, cache and timing figures) of the
+     * transformer, keyed by the METRIC_* names of this class.
+     *
+     * @return
+     */
+    public Map<String, ? extends Number> getMetrics() {
+        return Collections.unmodifiableMap(_metrics);
+    }
+
+    /**
+     * Gets the latency histograms of the transformer, keyed by the LATENCY_*
+     * names of this class. The match latencies are broken down by the path a
+     * row took: GTIN lookup only, text search only, or a GTIN lookup that fell
+     * back to a text search.
+     *
+     * @return
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableMap(_latencies);
     }
 }
@@ -0,0 +1,129 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.datacleaner.api.AnalyzerResultReducer;
+
+/**
+ * Combines the {@link ProductMatchResult}s of the nodes of a distributed job.
+ * Match status and segment counts are summed, as are counter metrics, while
+ * metrics that describe the cluster or a peak are combined by taking the
+ * maximum. Latency histograms are merged bucket by bucket, so the percentiles
+ * of the combined result are those of all rows. The top values of the nodes are
+ * summed and cut back to the number of values each node reported, which may
+ * miss values that are frequent overall but never made a node's top values.
+ */
+public class ProductMatchResultReducer implements AnalyzerResultReducer<ProductMatchResult> {
+
+    /**
+     * Metrics that are not summed over the nodes, but combined by taking the
+     * maximum.
+     */
+    static final Set<String> MAXIMUM_METRICS = new HashSet<>(Arrays.asList(
+            ProductMatchResult.METRIC_STARTUP_TIME, ProductMatchResult.METRIC_CONNECT_TIME,
+            ProductMatchResult.METRIC_CONNECTED_NODES, ProductMatchResult.METRIC_PERSISTENT_CACHE_ENTRIES,
+            ProductMatchResult.METRIC_INDEX_DOCUMENTS, ProductMatchResult.METRIC_PEAK_IN_FLIGHT_REQUESTS));
+
+    @Override
+    public ProductMatchResult reduce(Collection<? extends ProductMatchResult> results) {
+        final Map<String, Long> matchStatuses = new LinkedHashMap<>();
+        final Map<String, Long> segments = new LinkedHashMap<>();
+        final Map<String, Map<String, Long>> topValues = new LinkedHashMap<>();
+        final Map<String, Integer> topValueCapacities = new HashMap<>();
+        final Map<String, Number> metrics = new LinkedHashMap<>();
+        final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+
+        for (ProductMatchResult result : results) {
+            addCounts(matchStatuses, result.getMatchStatuses());
+            addCounts(segments, result.getSegments());
+            for (Map.Entry<String, Map<String, Long>> entry : result.getTopValues().entrySet()) {
+                Map<String, Long> values = topValues.get(entry.getKey());
+                if (values == null) {
+                    values = new HashMap<>();
+                    topValues.put(entry.getKey(), values);
+                }
+                addCounts(values, entry.getValue());
+                final Integer capacity = topValueCapacities.get(entry.getKey());
+                topValueCapacities.put(entry.getKey(),
+                        Math.max(capacity == null ? 0 : capacity, entry.getValue().size()));
+            }
+            for (Map.Entry<String, ? extends Number> entry : result.getMetrics().entrySet()) {
+                metrics.put(entry.getKey(), combineMetric(entry.getKey(), metrics.get(entry.getKey()),
+                        entry.getValue()));
+            }
+            for (Map.Entry<String, LatencyHistogram> entry : result.getLatencies().entrySet()) {
+                LatencyHistogram histogram = latencies.get(entry.getKey());
+                if (histogram == null) {
+                    histogram = new LatencyHistogram();
+                    latencies.put(entry.getKey(), histogram);
+                }
+                histogram.add(entry.getValue());
+            }
+        }
+
+        for (Map.Entry<String, Map<String, Long>> entry : topValues.entrySet()) {
+            entry.setValue(getTopValues(entry.getValue(), topValueCapacities.get(entry.getKey())));
+        }
+
+        return new ProductMatchResult(matchStatuses, segments, topValues, metrics, latencies);
+    }
+
+    private static Map<String, Long> getTopValues(Map<String, Long> counts, int capacity) {
+        final List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> entry1, Map.Entry<String, Long> entry2) {
+                final int result = Long.compare(entry2.getValue(), entry1.getValue());
+                return result != 0 ? result : entry1.getKey().compareTo(entry2.getKey());
+            }
+        });
+        final Map<String, Long> topValues = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size() && i < capacity; i++) {
+            topValues.put(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+        return topValues;
+    }
+
+    private static void addCounts(Map<String, Long> counts, Map<String, ? extends Number> partialCounts) {
+        for (Map.Entry<String, ? extends Number> entry : partialCounts.entrySet()) {
+            final Long count = counts.get(entry.getKey());
+            counts.put(entry.getKey(), (count == null ? 0 : count) + entry.getValue().longValue());
+        }
+    }
+
+    static Number combineMetric(String metric, Number value1, Number value2) {
+        if (value1 == null) {
+            return value2;
+        }
+        if (value2 == null) {
+            return value1;
+        }
+        final boolean integral = isIntegral(value1) && isIntegral(value2);
+        if (MAXIMUM_METRICS.contains(metric)) {
+            if (integral) {
+                return Math.max(value1.longValue(), value2.longValue());
+            }
+            return Math.max(value1.doubleValue(), value2.doubleValue());
+        }
+        // includes rows per second, as the nodes process their rows in
+        // parallel
+        if (integral) {
+            return value1.longValue() + value2.longValue();
+        }
+        return value1.doubleValue() + value2.doubleValue();
+    }
+
+    private static boolean isIntegral(Number value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+}
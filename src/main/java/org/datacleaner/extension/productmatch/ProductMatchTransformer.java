@@ -20,17 +20,27 @@
 
 package org.datacleaner.extension.productmatch;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
-import org.apache.metamodel.elasticsearch.ElasticSearchDataContext;
 import org.datacleaner.api.Categorized;
+import org.datacleaner.api.Close;
 import org.datacleaner.api.Configured;
 import org.datacleaner.api.Description;
+import org.datacleaner.api.Distributed;
 import org.datacleaner.api.HasAnalyzerResult;
 import org.datacleaner.api.Initialize;
 import org.datacleaner.api.InputColumn;
@@ -40,19 +50,8 @@ import org.datacleaner.api.OutputColumns;
 import org.datacleaner.api.Transformer;
 import org.datacleaner.components.categories.ImproveSuperCategory;
 import org.datacleaner.components.categories.ReferenceDataCategory;
-import org.datacleaner.connection.ElasticSearchDatastore;
-import org.datacleaner.connection.ElasticSearchDatastore.ClientType;
-import org.datacleaner.connection.UpdateableDatastoreConnection;
-import org.elasticsearch.action.search.SearchRequestBuilder;
-import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.search.SearchType;
-import org.elasticsearch.client.Client;
-import org.elasticsearch.index.query.BoolQueryBuilder;
-import org.elasticsearch.index.query.MatchQueryBuilder;
-import org.elasticsearch.index.query.QueryBuilder;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.SearchHit;
-import org.elasticsearch.search.SearchHits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @javax.inject.Named(value = "Product Matching")
 @Description(value = "Match your product descriptions and codes with the Product Open Data (POD) database."
@@ -63,17 +62,58 @@ import org.elasticsearch.search.SearchHits;
         + "<li>'GOOD_MATCH' - indicates a match with a good amount of certainty.</li>"
         + "<li>'POTENTIAL_MATCH' - A doubtful match which is potentially correct, but could also very well be incorrect.</li>"
         + "<li>'NO_MATCH' - No match at all or only very poor matches.</li>"
-        + "<li>'SKIPPED' - The record was skipped - typically because there wasn't enough input.</li>" + "</ul>")
+        + "<li>'SKIPPED' - The record was skipped - typically because there wasn't enough input.</li>"
+        + "<li>'TIMEOUT' - The POD database did not respond in time.</li>"
+        + "<li>'ERROR' - The POD database could not be queried, e.g. because it is unavailable.</li>" + "</ul>")
 @Categorized(superCategory = ImproveSuperCategory.class, value = ReferenceDataCategory.class)
+@Distributed(reducer = ProductMatchResultReducer.class)
 public class ProductMatchTransformer implements Transformer, HasAnalyzerResult<ProductMatchResult> {
     
+    private static final Logger logger = LoggerFactory.getLogger(ProductMatchTransformer.class);
+
+    static final String INDEX_NAME = "pod";
+    static final String DOCUMENT_TYPE = "product";
+
+    static final String PROPERTY_BACKEND = "org.datacleaner.extension.productmatch.backend";
+    static final String PROPERTY_LUCENE_DIRECTORY = "org.datacleaner.extension.productmatch.lucene.directory";
+    static final String PROPERTY_HOSTS = "org.datacleaner.extension.productmatch.hosts";
+    static final String PROPERTY_SNIFF = "org.datacleaner.extension.productmatch.sniff";
+    static final String PROPERTY_LOAD_BALANCING = "org.datacleaner.extension.productmatch.loadbalancing";
+    static final String PROPERTY_PREFERENCE = "org.datacleaner.extension.productmatch.preference";
+    static final String BACKEND_ELASTICSEARCH = "elasticsearch";
+    static final String BACKEND_LUCENE = "lucene";
+
+    private static final ProductOutputField[] OUTPUT_FIELDS = ProductOutputField.values();
+    /**
+     * The product field of each output field, by the ordinal of the output
+     * field.
+     */
+    private static final ProductSearchField[] OUTPUT_SEARCH_FIELDS = new ProductSearchField[OUTPUT_FIELDS.length];
+    static {
+        for (int i = 0; i < OUTPUT_FIELDS.length; i++) {
+            OUTPUT_SEARCH_FIELDS[i] = OUTPUT_FIELDS[i].getSearchField();
+        }
+    }
+
     private static final int INDEX_MATCH_STATUS = ProductOutputField.MATCH_STATUS.ordinal();
     private static final int INDEX_SEGMENT = ProductOutputField.GPC_SEGMENT.ordinal();
+    private static final int INDEX_BRAND = ProductOutputField.BRAND_NAME.ordinal();
+    private static final int INDEX_FAMILY = ProductOutputField.GPC_FAMILY.ordinal();
+    private static final int INDEX_CLASS = ProductOutputField.GPC_CLASS.ordinal();
+    private static final int INDEX_BRICK = ProductOutputField.GPC_BRICK.ordinal();
 
     public static final String MATCH_STATUS_GOOD = "GOOD_MATCH";
     public static final String MATCH_STATUS_POTENTIAL = "POTENTIAL_MATCH";
     public static final String MATCH_STATUS_NO_MATCH = "NO_MATCH";
     public static final String MATCH_STATUS_SKIPPED = "SKIPPED";
+    public static final String MATCH_STATUS_TIMEOUT = "TIMEOUT";
+    public static final String MATCH_STATUS_ERROR = "ERROR";
+
+    /**
+     * All match statuses, in the order they are counted and reported in.
+     */
+    private static final String[] MATCH_STATUSES = { MATCH_STATUS_GOOD, MATCH_STATUS_POTENTIAL,
+            MATCH_STATUS_NO_MATCH, MATCH_STATUS_SKIPPED, MATCH_STATUS_TIMEOUT, MATCH_STATUS_ERROR };
 
     @Configured(value = "Input")
     InputColumn<?>[] inputColumns;
@@ -82,24 +122,462 @@ public class ProductMatchTransformer implements Transformer, HasAnalyzerResult<P
     @MappedProperty("Input")
     ProductInputField[] inputMapping;
 
-    private ElasticSearchDatastore datastore;
-    private final ConcurrentHashMap<String, AtomicInteger> _matchStatuses = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, AtomicInteger> _segments = new ConcurrentHashMap<>();
+    @Configured(value = "Output fields", required = false)
+    @Description("The output columns to produce. Only the product fields backing these columns are fetched from "
+            + "the POD index.")
+    ProductOutputField[] outputFields = ProductOutputField.values();
+
+    @Configured(value = "Batch size", required = false)
+    @Description("Number of searches to send together in one multi-search request. "
+            + "A value of 1 disables batching. Should not exceed the number of concurrent worker threads.")
+    int batchSize = 1;
+
+    @Configured(value = "Max batch wait (ms)", required = false)
+    @Description("Maximum time a search waits for its batch to fill up before the batch is sent anyway.")
+    long batchMaxWaitMillis = 20;
+
+    @Configured(value = "Max in-flight requests", required = false)
+    @Description("Maximum number of requests sent to Elasticsearch at the same time. Further requests wait until "
+            + "a response arrives. A value of 0 disables the limit.")
+    int maxInFlightRequests = 0;
+
+    @Configured(value = "Request timeout (ms)", required = false)
+    @Description("Maximum time to wait for a response from Elasticsearch. Rows whose requests time out after all "
+            + "retries get the status 'TIMEOUT'. A value of 0 disables the timeout.")
+    long requestTimeoutMillis = 10000;
+
+    @Configured(value = "Max retries", required = false)
+    @Description("Number of times a failed or timed out Elasticsearch request is retried.")
+    int maxRetries = 2;
+
+    @Configured(value = "Retry backoff (ms)", required = false)
+    @Description("Maximum random wait before the first retry of a request. The wait doubles with every retry.")
+    long retryBackoffMillis = 100;
+
+    @Configured(value = "Circuit breaker failure threshold", required = false)
+    @Description("Number of consecutive failed requests after which Elasticsearch is considered unhealthy, and rows "
+            + "get the status 'ERROR' without sending requests. A value of 0 disables the circuit breaker.")
+    int circuitBreakerFailureThreshold = 5;
+
+    @Configured(value = "Circuit breaker open time (ms)", required = false)
+    @Description("Time to fail fast after the circuit breaker has opened, before a single request is sent to check "
+            + "if Elasticsearch has recovered.")
+    long circuitBreakerOpenMillis = 10000;
+
+    @Configured(value = "Look up GTIN by document id", required = false)
+    @Description("Look up GTIN codes with a direct get on the document id, instead of searching for them. Only "
+            + "enable this for indexes loaded with PodDumpLoader, whose document ids are the zero-padded 13-digit "
+            + "GTIN codes; other indexes, e.g. built by a DataCleaner job, may be keyed differently. Direct lookups "
+            + "are not scored, so the match score is left empty.")
+    boolean gtinLookupById = false;
+
+    @Configured(value = "Coalesce identical lookups", required = false)
+    @Description("When several worker threads need to match the same input at the same time, only match it once "
+            + "and share the result.")
+    boolean coalesceIdenticalLookups = true;
+
+    @Configured(value = "Combine GTIN and text queries", required = false)
+    @Description("For rows with both a GTIN code and text, send the GTIN lookup and the text search together in one "
+            + "round trip, instead of only searching the text when the GTIN lookup fails. Saves a round trip for "
+            + "rows whose GTIN code is not found, at the cost of a search for rows whose code is found.")
+    boolean combineGtinAndTextQueries = false;
+
+    @Configured(value = "Local GTIN index file", required = false)
+    @Description("Optional GTIN index file, generated with GtinIndexFileBuilder. When set, GTIN codes are looked up "
+            + "in this memory-mapped file instead of in Elasticsearch.")
+    File gtinIndexFile;
+
+    @Configured(value = "GTIN filter", required = false)
+    @Description("Keep a Bloom filter of all GTIN codes in the POD database, so that GTIN codes which are not in it "
+            + "are rejected without a lookup.")
+    boolean gtinFilter = false;
+
+    @Configured(value = "GTIN filter file", required = false)
+    @Description("Optional file that the GTIN filter is loaded from. If the file does not exist, the filter is built "
+            + "from the POD index and saved to it. Delete the file when the POD index is updated.")
+    File gtinFilterFile;
+
+    @Configured(value = "GTIN filter false positive rate", required = false)
+    @Description("Rate of GTIN codes not in the POD database that pass the filter anyway. Lower rates make the "
+            + "filter larger.")
+    double gtinFilterFalsePositiveRate = 0.01;
+
+    @Configured(value = "Validate GTIN check digit", required = false)
+    @Description("Only look up GTIN codes with a valid GS1 check digit. Rows with an invalid code are matched on "
+            + "their other fields, or get the status 'NO_MATCH' if they have none.")
+    boolean validateGtinCheckDigit = true;
+
+    @Configured(value = "Cache size", required = false)
+    @Description("Maximum number of distinct inputs whose match is kept in memory, so that repeated products are "
+            + "only matched once. A value of 0 disables the cache.")
+    int cacheSize = 10000;
+
+    @Configured(value = "Cache TTL (seconds)", required = false)
+    @Description("Time after which a cached match expires. A value of 0 keeps matches for the whole job.")
+    long cacheTtlSeconds = 0;
+
+    @Configured(value = "Persistent cache file", required = false)
+    @Description("Optional file that matches are stored in, so that later runs of the job only match inputs they "
+            + "have not matched before. The file is cleared when the POD index is rebuilt, or the output fields "
+            + "change.")
+    File persistentCacheFile;
+
+    @Configured(value = "Persistent cache size", required = false)
+    @Description("Maximum number of distinct inputs whose match is kept in the persistent cache file.")
+    int persistentCacheSize = 1000000;
+
+    @Configured(value = "Warm-up queries", required = false)
+    @Description("Product descriptions or GTIN codes to match once at initialization, so that the first rows of the "
+            + "job do not pay for cold caches in the POD database.")
+    String[] warmUpQueries;
+
+    @Configured(value = "Top values", required = false)
+    @Description("Number of most frequent brands, GPC families, classes and bricks, and of most frequent unmatched "
+            + "inputs, to report in the result. They are estimated in bounded memory, however many distinct values "
+            + "there are. A value of 0 disables them.")
+    int topValuesCapacity = 20;
+
+    private ProductOutputField[] _outputFields;
+    private int[] _outputIndexes;
+    private boolean _projectOutput;
+    private ThreadLocal<InputBuffer> _inputBuffers;
+    private ProductMatchBackend _backend;
+    private GtinIndexFile _gtinIndex;
+    private GtinBloomFilter _gtinFilter;
+    private MatchCache _cache;
+    private PersistentMatchCache _persistentCache;
+    private SingleFlight<MatchKey, ProductMatch> _inFlightMatches;
+    private long _startupTimeMillis;
+    private int _warmUpQueryCount;
+    private final AtomicLong _localGtinLookups = new AtomicLong(0);
+    private final AtomicLong _invalidGtinCodes = new AtomicLong(0);
+    private final AtomicLong _skippedGtinLookups = new AtomicLong(0);
+    private final AtomicLong _rowCount = new AtomicLong(0);
+    private final AtomicLong _firstRowTime = new AtomicLong(0);
+    private final AtomicLong _lastRowTime = new AtomicLong(0);
+    private LatencyHistogram _inputMappingLatency;
+    private LatencyHistogram _gtinLookupLatency;
+    private LatencyHistogram _textSearchLatency;
+    private LatencyHistogram _gtinTextFallbackLatency;
+    private final AtomicLongArray _matchStatusCounts = new AtomicLongArray(MATCH_STATUSES.length);
+    private final ConcurrentHashMap<String, AtomicLong> _segments = new ConcurrentHashMap<>();
+    private HeavyHitterSketch _topBrands;
+    private HeavyHitterSketch _topFamilies;
+    private HeavyHitterSketch _topClasses;
+    private HeavyHitterSketch _topBricks;
+    private HeavyHitterSketch _topUnmatchedInputs;
 
     @Initialize
     public void init() {
-        _matchStatuses.clear();
+        init(null);
+    }
+
+    /**
+     * Initializes the transformer with a given backend, instead of the one
+     * selected by system properties. Used by benchmarks.
+     *
+     * @param backend
+     */
+    void init(ProductMatchBackend backend) {
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < MATCH_STATUSES.length; i++) {
+            _matchStatusCounts.set(i, 0);
+        }
         _segments.clear();
-        
-        final String hostname = System.getProperty("org.datacleaner.extension.productmatch.hostname", "productvm");
-        final String portString = System.getProperty("org.datacleaner.extension.productmatch.port", "9300");
-        final int port = Integer.parseInt(portString);
-        datastore = new ElasticSearchDatastore("pod", ClientType.TRANSPORT, hostname, port, "pod", "pod");
+        if (topValuesCapacity > 0) {
+            _topBrands = new HeavyHitterSketch(topValuesCapacity);
+            _topFamilies = new HeavyHitterSketch(topValuesCapacity);
+            _topClasses = new HeavyHitterSketch(topValuesCapacity);
+            _topBricks = new HeavyHitterSketch(topValuesCapacity);
+            _topUnmatchedInputs = new HeavyHitterSketch(topValuesCapacity);
+        } else {
+            _topBrands = null;
+            _topFamilies = null;
+            _topClasses = null;
+            _topBricks = null;
+            _topUnmatchedInputs = null;
+        }
+        _localGtinLookups.set(0);
+        _invalidGtinCodes.set(0);
+        _skippedGtinLookups.set(0);
+        _rowCount.set(0);
+        _firstRowTime.set(0);
+        _lastRowTime.set(0);
+        _inputMappingLatency = new LatencyHistogram();
+        _gtinLookupLatency = new LatencyHistogram();
+        _textSearchLatency = new LatencyHistogram();
+        _gtinTextFallbackLatency = new LatencyHistogram();
+
+        _outputFields = getSelectedOutputFields();
+        _projectOutput = !Arrays.equals(_outputFields, OUTPUT_FIELDS);
+        _outputIndexes = new int[_outputFields.length];
+        for (int i = 0; i < _outputFields.length; i++) {
+            _outputIndexes[i] = _outputFields[i].ordinal();
+        }
+
+        // map the input columns to fields once, and give each worker thread
+        // its own buffer to read rows into. There are no input columns when
+        // the transformer only matches input maps, e.g. in GtinBulkEnricher.
+        final InputColumn<?>[] columns = inputColumns == null ? new InputColumn<?>[0] : inputColumns;
+        final ProductSearchField[] columnFields = new ProductSearchField[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columnFields[i] = inputMapping[i].getSearchField();
+        }
+        final int[][] fieldColumns = InputBuffer.getFieldColumns(columnFields);
+        _inputBuffers = new ThreadLocal<InputBuffer>() {
+            @Override
+            protected InputBuffer initialValue() {
+                return new InputBuffer(columns, fieldColumns, OUTPUT_FIELDS.length);
+            }
+        };
+
+        if (cacheSize > 0) {
+            _cache = new MatchCache(cacheSize, TimeUnit.SECONDS.toMillis(cacheTtlSeconds));
+        } else {
+            _cache = null;
+        }
+
+        if (coalesceIdenticalLookups) {
+            _inFlightMatches = new SingleFlight<>();
+        } else {
+            _inFlightMatches = null;
+        }
+
+        if (gtinIndexFile == null) {
+            _gtinIndex = null;
+        } else {
+            try {
+                _gtinIndex = new GtinIndexFile(gtinIndexFile);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open GTIN index file: " + gtinIndexFile, e);
+            }
+        }
+
+        // these are only set once acquired, for a failed initialization to
+        // release what it opened rather than what a previous run closed
+        _backend = null;
+        _persistentCache = null;
+        try {
+            _backend = backend == null ? createBackend() : backend;
+            // fail the job now, rather than each of its rows
+            _backend.verify();
+
+            if (gtinFilter && _gtinIndex == null) {
+                _gtinFilter = createGtinFilter();
+            } else {
+                _gtinFilter = null;
+            }
+
+            // opened after the GTIN filter, whose file is part of its tag
+            _persistentCache = persistentCacheFile == null ? null : openPersistentCache();
+            _warmUpQueryCount = warmUpQueries == null ? 0 : warmUp(warmUpQueries);
+        } catch (RuntimeException e) {
+            // release the files and connections that were already opened
+            close();
+            throw e;
+        }
+
+        _startupTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        logger.info("Initialized product matching in {} ms, with {} warm-up queries", _startupTimeMillis,
+                _warmUpQueryCount);
+    }
+
+    /**
+     * Opens the persistent cache file, tagged with the version of the POD
+     * index and the settings that change the stored matches, so that matches
+     * made with another index or other settings are discarded. The GTIN lookup
+     * settings are part of the tag, since direct lookups are not scored and
+     * combined queries may be matched differently, and so are the local GTIN
+     * index and GTIN filter, which decide which codes are found.
+     *
+     * @return
+     */
+    private PersistentMatchCache openPersistentCache() {
+        final StringBuilder tag = new StringBuilder();
+        tag.append(_backend.getIndexVersion()).append(' ').append(getFetchedFields());
+        if (validateGtinCheckDigit) {
+            tag.append(" validated");
+        }
+        if (gtinLookupById) {
+            tag.append(" by-id");
+        }
+        if (combineGtinAndTextQueries) {
+            tag.append(" combined");
+        }
+        if (_gtinIndex != null) {
+            tag.append(" index ").append(getFileVersion(gtinIndexFile));
+        }
+        if (_gtinFilter != null) {
+            tag.append(" filter ").append(gtinFilterFalsePositiveRate);
+            if (gtinFilterFile != null) {
+                tag.append(' ').append(getFileVersion(gtinFilterFile));
+            }
+        }
+        try {
+            return new PersistentMatchCache(persistentCacheFile, tag.toString(), persistentCacheSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open persistent cache file: " + persistentCacheFile, e);
+        }
+    }
+
+    /**
+     * Identifies the contents of a file by its path, size and modification
+     * time, so that a rebuilt file gets another version.
+     *
+     * @param file
+     * @return
+     */
+    private static String getFileVersion(File file) {
+        return file.getAbsolutePath() + "@" + file.length() + "/" + file.lastModified();
+    }
+
+    /**
+     * Sends queries straight to the backend, bypassing the cache, so that the
+     * caches of the backend are warm when the first rows arrive. Failures are
+     * only logged, since the backend has been verified already.
+     *
+     * @param queries
+     *            product descriptions or GTIN codes
+     * @return the number of queries that succeeded
+     */
+    private int warmUp(String[] queries) {
+        int count = 0;
+        for (String query : queries) {
+            if (query == null || query.trim().isEmpty()) {
+                continue;
+            }
+            final long gtin = GtinUtils.parseGtin(query);
+            try {
+                if (gtin == GtinUtils.INVALID) {
+                    final Map<ProductSearchField, Object> input = new EnumMap<>(ProductSearchField.class);
+                    input.put(ProductSearchField.ALL, query);
+                    _backend.search(input);
+                } else {
+                    _backend.lookupGtin(GtinUtils.formatGtin(gtin));
+                }
+                count++;
+            } catch (BackendException e) {
+                logger.warn("Warm-up query '{}' failed: {}", query, e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    private GtinBloomFilter createGtinFilter() {
+        try {
+            if (gtinFilterFile != null && gtinFilterFile.exists()) {
+                return GtinBloomFilter.load(gtinFilterFile);
+            }
+            final GtinBloomFilter filter = GtinBloomFilter.create(_backend, gtinFilterFalsePositiveRate);
+            if (gtinFilterFile != null) {
+                filter.save(gtinFilterFile);
+            }
+            return filter;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load or save GTIN filter file: " + gtinFilterFile, e);
+        }
+    }
+
+    /**
+     * Creates the Elasticsearch client manager from system properties. A list
+     * of nodes in {@link #PROPERTY_HOSTS} takes precedence over the single
+     * hostname and port properties.
+     *
+     * @return
+     */
+    static ElasticSearchClientManager createClientManager() {
+        final List<String> seeds;
+        final String hosts = System.getProperty(PROPERTY_HOSTS);
+        if (hosts == null || hosts.trim().isEmpty()) {
+            final String hostname = System.getProperty("org.datacleaner.extension.productmatch.hostname", "productvm");
+            final String port = System.getProperty("org.datacleaner.extension.productmatch.port", "9300");
+            seeds = Collections.singletonList(hostname + ":" + port);
+        } else {
+            seeds = ElasticSearchClientManager.parseSeeds(hosts);
+        }
+
+        final boolean sniff = Boolean.parseBoolean(System.getProperty(PROPERTY_SNIFF, "false"));
+        final String loadBalancing = System.getProperty(PROPERTY_LOAD_BALANCING,
+                ElasticSearchClientManager.LoadBalancing.ROUND_ROBIN.name());
+        final ElasticSearchClientManager.LoadBalancing loadBalancingMode;
+        try {
+            loadBalancingMode = ElasticSearchClientManager.LoadBalancing.valueOf(loadBalancing.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Unsupported load balancing '" + loadBalancing + "' in system property "
+                    + PROPERTY_LOAD_BALANCING + ", expected 'round_robin' or 'least_loaded'", e);
+        }
+        return new ElasticSearchClientManager(INDEX_NAME, seeds, sniff, loadBalancingMode,
+                System.getProperty(PROPERTY_PREFERENCE));
+    }
+
+    private ProductMatchBackend createBackend() {
+        final String backend = System.getProperty(PROPERTY_BACKEND, BACKEND_ELASTICSEARCH);
+        switch (backend) {
+        case BACKEND_ELASTICSEARCH:
+            final ElasticSearchClientManager clientManager = createClientManager();
+            final RetryPolicy retryPolicy = new RetryPolicy(maxRetries, retryBackoffMillis, new CircuitBreaker(
+                    circuitBreakerFailureThreshold, circuitBreakerOpenMillis));
+            return new ElasticSearchBackend(clientManager, getFetchedFields(), gtinLookupById, batchSize,
+                    batchMaxWaitMillis, maxInFlightRequests, requestTimeoutMillis, retryPolicy);
+        case BACKEND_LUCENE:
+            final String directory = System.getProperty(PROPERTY_LUCENE_DIRECTORY);
+            if (directory == null) {
+                throw new IllegalStateException("The embedded Lucene backend requires the system property "
+                        + PROPERTY_LUCENE_DIRECTORY + " to point to a POD index directory");
+            }
+            try {
+                return new LuceneBackend(new File(directory), getFetchedFields());
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open Lucene index: " + directory, e);
+            }
+        default:
+            throw new IllegalStateException("Unsupported backend '" + backend + "' in system property "
+                    + PROPERTY_BACKEND + ", expected '" + BACKEND_ELASTICSEARCH + "' or '" + BACKEND_LUCENE + "'");
+        }
+    }
+
+    private ProductOutputField[] getSelectedOutputFields() {
+        if (outputFields == null || outputFields.length == 0) {
+            return OUTPUT_FIELDS;
+        }
+        return outputFields;
+    }
+
+    /**
+     * Gets the product fields to fetch from the backend. The GPC segment is
+     * always fetched, since the result's segment chart is based on it, and so
+     * are the fields of the top values, if enabled.
+     *
+     * @return
+     */
+    private Set<ProductSearchField> getFetchedFields() {
+        final Set<ProductSearchField> fields = ProductOutputField.getSearchFields(_outputFields);
+        fields.add(ProductSearchField.GPC_SEGMENT);
+        if (topValuesCapacity > 0) {
+            fields.add(ProductSearchField.BRAND_NM);
+            fields.add(ProductSearchField.GPC_FAMILY);
+            fields.add(ProductSearchField.GPC_CLASS);
+            fields.add(ProductSearchField.GPC_BRICK);
+        }
+        return fields;
+    }
+
+    @Close
+    public void close() {
+        if (_backend != null) {
+            _backend.close();
+        }
+        if (_gtinIndex != null) {
+            _gtinIndex.close();
+        }
+        if (_persistentCache != null) {
+            _persistentCache.close();
+        }
     }
 
     @Override
     public OutputColumns getOutputColumns() {
-        final ProductOutputField[] outputFields = ProductOutputField.values();
+        final ProductOutputField[] outputFields = getSelectedOutputFields();
         final List<String> columnNames = new ArrayList<>(outputFields.length);
         final List<Class<?>> classes = new ArrayList<>(outputFields.length);
 
@@ -114,167 +592,298 @@ public class ProductMatchTransformer implements Transformer, HasAnalyzerResult<P
 
     @Override
     public Object[] transform(InputRow row) {
-        final Map<ProductSearchField, Object> input = createInputMap(row);
-        final Object[] result;
-        try (UpdateableDatastoreConnection connection = datastore.openConnection()) {
-            final ElasticSearchDataContext dataContext = (ElasticSearchDataContext) connection.getDataContext();
-            final Client client = dataContext.getElasticSearchClient();
-
-            result = transform(input, client);
+        final long startTime = System.nanoTime();
+        _firstRowTime.compareAndSet(0, startTime);
+
+        final InputBuffer input = _inputBuffers.get();
+        input.read(row);
+        _inputMappingLatency.recordSince(startTime);
+
+        // a projected result is copied to a new array, so the full result can
+        // be written to the thread's buffer. All its elements are overwritten.
+        final Object[] result = _projectOutput ? input.getResultBuffer() : new Object[OUTPUT_FIELDS.length];
+        final ProductMatch match = input.isEmpty() ? ProductMatch.SKIPPED : matchOrError(input);
+        final Map<ProductSearchField, Object> product = match.getProduct();
+        if (product == null) {
+            // ensure that input=output, when no match is found
+            for (int i = 0; i < OUTPUT_SEARCH_FIELDS.length; i++) {
+                if (OUTPUT_SEARCH_FIELDS[i] != null) {
+                    result[i] = input.get(OUTPUT_SEARCH_FIELDS[i]);
+                }
+            }
+        } else {
+            applySearchHitToResult(product, result);
         }
+        result[INDEX_MATCH_STATUS] = match.getMatchStatus();
+
+        _rowCount.incrementAndGet();
+        _lastRowTime.set(System.nanoTime());
         
-        // update match status map
-        {
-            final String matchStatus = (String) result[INDEX_MATCH_STATUS];
-            final AtomicInteger newCounter = new AtomicInteger(0);
-            final AtomicInteger existingCounter = _matchStatuses.putIfAbsent(matchStatus, newCounter);
-            final AtomicInteger counter = existingCounter == null? newCounter : existingCounter;
+        // update match status counts
+        _matchStatusCounts.incrementAndGet(getMatchStatusIndex((String) result[INDEX_MATCH_STATUS]));
+
+        // update segment counts (only if segment is found)
+        final String segment = (String) result[INDEX_SEGMENT];
+        if (segment != null) {
+            AtomicLong counter = _segments.get(segment);
+            if (counter == null) {
+                final AtomicLong newCounter = new AtomicLong(0);
+                final AtomicLong existingCounter = _segments.putIfAbsent(segment, newCounter);
+                counter = existingCounter == null ? newCounter : existingCounter;
+            }
             counter.incrementAndGet();
         }
-        
-        // update segment status map (only if segment is found)
-        {
-            final String segment = (String) result[INDEX_SEGMENT];
-            if (segment != null) {
-                final AtomicInteger newCounter = new AtomicInteger(0);
-                final AtomicInteger existingCounter = _segments.putIfAbsent(segment, newCounter);
-                final AtomicInteger counter = existingCounter == null? newCounter : existingCounter;
-                counter.incrementAndGet();
-            }
+
+        if (_topBrands != null) {
+            updateTopValues(input, result);
         }
-        
-        return result;
+
+        return projectOutput(result);
     }
 
-    protected Object[] transform(Map<ProductSearchField, Object> input, Client client) {
-        final Object[] result = new Object[ProductOutputField.values().length];
+    private void updateTopValues(InputBuffer input, Object[] result) {
+        final Object matchStatus = result[INDEX_MATCH_STATUS];
+        if (MATCH_STATUS_GOOD.equals(matchStatus) || MATCH_STATUS_POTENTIAL.equals(matchStatus)) {
+            _topBrands.add((String) result[INDEX_BRAND]);
+            _topFamilies.add((String) result[INDEX_FAMILY]);
+            _topClasses.add((String) result[INDEX_CLASS]);
+            _topBricks.add((String) result[INDEX_BRICK]);
+        } else if (MATCH_STATUS_NO_MATCH.equals(matchStatus)) {
+            _topUnmatchedInputs.add(input.toInputString());
+        }
+    }
 
-        // ensure that input=output, when no match is found
-        applySearchHitToResult(input, result);
+    /**
+     * Projects a result with all output fields onto the selected output fields.
+     *
+     * @param result
+     * @return
+     */
+    Object[] projectOutput(Object[] result) {
+        if (!_projectOutput) {
+            return result;
+        }
+        final Object[] projectedResult = new Object[_outputIndexes.length];
+        for (int i = 0; i < _outputIndexes.length; i++) {
+            projectedResult[i] = result[_outputIndexes[i]];
+        }
+        return projectedResult;
+    }
+
+    protected Object[] transform(final Map<ProductSearchField, Object> input) {
+        final Object[] result = new Object[OUTPUT_FIELDS.length];
 
+        final ProductMatch match;
         if (input.isEmpty()) {
-            result[INDEX_MATCH_STATUS] = MATCH_STATUS_SKIPPED;
-            return result;
+            match = ProductMatch.SKIPPED;
+        } else if (_cache == null && _inFlightMatches == null && _persistentCache == null) {
+            match = matchOrError(null, input);
+        } else {
+            final MatchKey key = MatchCache.createKey(input);
+            final ProductMatch cachedMatch = _cache == null ? null : _cache.get(key);
+            match = cachedMatch == null ? matchOrError(key, input) : cachedMatch;
         }
 
-        final String gtinCode = normalizeGtinCode(input.get(ProductSearchField.GTIN_CD));
-        if (gtinCode != null) {
-            // look up product based on GTIN code
-            final SearchRequestBuilder lookup = client.prepareSearch("pod").setTypes("product")
-                    .setSearchType(SearchType.QUERY_AND_FETCH)
-                    .setQuery(QueryBuilders.termQuery(ProductSearchField.GTIN_CD.getFieldName(), gtinCode));
-            final Map<ProductSearchField, Object> lookupResult = executeSearch(lookup);
+        final Map<ProductSearchField, Object> product = match.getProduct();
+        // ensure that input=output, when no match is found
+        applySearchHitToResult(product == null ? input : product, result);
+        result[INDEX_MATCH_STATUS] = match.getMatchStatus();
+        return result;
+    }
 
-            if (lookupResult != null) {
+    /**
+     * Matches the input of a row, using the cache if enabled. Only rows that
+     * are not cached are copied to an input map.
+     *
+     * @param input
+     * @return
+     */
+    private ProductMatch matchOrError(InputBuffer input) {
+        if (_cache == null && _inFlightMatches == null && _persistentCache == null) {
+            return matchOrError(null, input.toMap());
+        }
+        final MatchKey key = input.getKey();
+        final ProductMatch cachedMatch = _cache == null ? null : _cache.get(key);
+        if (cachedMatch != null) {
+            return cachedMatch;
+        }
+        // the key of the buffer is reused for the next row
+        return matchOrError(key.copy(), input.toMap());
+    }
 
-                if (input.size() == 1) {
-                    // this is a lookup-only scenario, everything is good now
-                    // then
-                    applySearchHitToResult(lookupResult, result);
-                    result[INDEX_MATCH_STATUS] = MATCH_STATUS_GOOD;
-                    return result;
-                } else {
-                    // some fields should be compared
-                    final String matchVerdict = getMatchVerdict(input, lookupResult);
-                    switch (matchVerdict) {
-                    case MATCH_STATUS_GOOD:
-                    case MATCH_STATUS_POTENTIAL:
-                        // OK the lookup seems at least potential - we'll return
-                        // this
-                        applySearchHitToResult(lookupResult, result);
-                        result[INDEX_MATCH_STATUS] = matchVerdict;
-                        return result;
+    /**
+     * Matches an input that is not cached, and caches the match if enabled.
+     * Backend failures give a timeout or error match, which is not cached.
+     *
+     * @param key
+     *            the cache key of the input, or null if neither caching,
+     *            persistent caching nor coalescing is enabled
+     * @param input
+     * @return
+     */
+    private ProductMatch matchOrError(final MatchKey key, final Map<ProductSearchField, Object> input) {
+        try {
+            if (key == null) {
+                return match(input);
+            } else if (_inFlightMatches == null) {
+                return matchAndCache(key, input);
+            } else {
+                return _inFlightMatches.execute(key, new Callable<ProductMatch>() {
+                    @Override
+                    public ProductMatch call() {
+                        // an identical call may have finished after this
+                        // input missed the cache
+                        final ProductMatch cachedMatch = _cache == null ? null : _cache.peek(key);
+                        return cachedMatch == null ? matchAndCache(key, input) : cachedMatch;
                     }
-                }
-            }else{
-                if (input.size() == 1){
-                    result[INDEX_MATCH_STATUS] = MATCH_STATUS_NO_MATCH;
-                    return result;
-                }
+                });
             }
+        } catch (BackendException e) {
+            logger.debug("Failed to match input {}", input, e);
+            return e.isTimeout() ? ProductMatch.TIMEOUT : ProductMatch.ERROR;
         }
+    }
 
-        final List<QueryBuilder> queryBuilders = createQueryBuilders(input);
-
-        if (queryBuilders.isEmpty()) {
-            result[INDEX_MATCH_STATUS] = MATCH_STATUS_SKIPPED;
-            return result;
+    private ProductMatch matchAndCache(MatchKey key, Map<ProductSearchField, Object> input) {
+        // matches made by earlier jobs are looked up before any remote call
+        ProductMatch match = _persistentCache == null ? null : _persistentCache.get(key);
+        if (match == null) {
+            match = match(input);
+            if (_persistentCache != null) {
+                _persistentCache.put(key, match);
+            }
+        }
+        if (_cache != null) {
+            _cache.put(key, match);
         }
+        return match;
+    }
 
-        final QueryBuilder finalQueryBuilder;
-        if (queryBuilders.size() == 1) {
-            finalQueryBuilder = queryBuilders.get(0);
-        } else {
-            BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
-            for (QueryBuilder childQueryBuilder : queryBuilders) {
-                boolQuery = boolQuery.should(childQueryBuilder);
+    private ProductMatch match(Map<ProductSearchField, Object> input) {
+        final long startTime = System.nanoTime();
+        final long gtin = GtinUtils.parseGtin(input.get(ProductSearchField.GTIN_CD));
+        if (gtin != GtinUtils.INVALID) {
+            if (combineGtinAndTextQueries && hasTextInput(input) && isRemoteGtinLookup(gtin)) {
+                // look up the GTIN code and search the text in one round trip
+                final GtinAndTextResult result = _backend.lookupGtinAndSearch(GtinUtils.formatGtin(gtin), input);
+                final ProductMatch gtinMatch = getGtinMatch(input, result.getLookupResult());
+                if (gtinMatch != null) {
+                    _gtinLookupLatency.recordSince(startTime);
+                    return gtinMatch;
+                }
+                final ProductMatch textMatch = getTextMatch(input, result.getSearchResult());
+                _gtinTextFallbackLatency.recordSince(startTime);
+                return textMatch;
             }
-            finalQueryBuilder = boolQuery;
-        }
 
-        final SearchRequestBuilder search = client.prepareSearch("pod").setTypes("product")
-                .setSearchType(SearchType.QUERY_AND_FETCH).setQuery(finalQueryBuilder);
+            final ProductMatch gtinMatch = getGtinMatch(input, lookupGtin(gtin));
+            if (gtinMatch != null) {
+                _gtinLookupLatency.recordSince(startTime);
+                return gtinMatch;
+            }
+        }
 
-        final Map<ProductSearchField, Object> matchResult = executeSearch(search);
-        if (matchResult == null) {
-            result[INDEX_MATCH_STATUS] = MATCH_STATUS_NO_MATCH;
-            return result;
+        if (!hasTextInput(input)) {
+            return ProductMatch.SKIPPED;
         }
 
-        final String matchVerdict = getMatchVerdict(input, matchResult);
-        result[INDEX_MATCH_STATUS] = matchVerdict;
-        switch (matchVerdict) {
-        case MATCH_STATUS_GOOD:
-        case MATCH_STATUS_POTENTIAL:
-            // only proper matches causes update to result
-            applySearchHitToResult(matchResult, result);
+        final ProductMatch textMatch = getTextMatch(input, _backend.search(input));
+        if (gtin == GtinUtils.INVALID) {
+            _textSearchLatency.recordSince(startTime);
+        } else {
+            _gtinTextFallbackLatency.recordSince(startTime);
         }
-        return result;
+        return textMatch;
     }
 
-    private List<QueryBuilder> createQueryBuilders(Map<ProductSearchField, Object> input) {
-        final List<QueryBuilder> queryBuilders = new ArrayList<>();
-
-        final MatchQueryBuilder productNameQuery = addMatchQueryBuilder(queryBuilders, input,
-                ProductSearchField.GTIN_NM);
-        final MatchQueryBuilder brandNameQuery = addMatchQueryBuilder(queryBuilders, input,
-                ProductSearchField.BRAND_NM);
-        final MatchQueryBuilder descriptionQuery = addMatchQueryBuilder(queryBuilders, input, ProductSearchField.ALL,
-                "_all");
+    /**
+     * Determines if a GTIN code would be looked up in the backend, rather than
+     * being rejected or looked up locally.
+     *
+     * @param gtin
+     * @return
+     */
+    private boolean isRemoteGtinLookup(long gtin) {
+        if (validateGtinCheckDigit && !GtinUtils.isValidCheckDigit(gtin)) {
+            return false;
+        }
+        return _gtinIndex == null && (_gtinFilter == null || _gtinFilter.mightContain(gtin));
+    }
 
-        if (descriptionQuery != null) {
-            // description is there
+    private Map<ProductSearchField, Object> lookupGtin(long gtin) {
+        if (validateGtinCheckDigit && !GtinUtils.isValidCheckDigit(gtin)) {
+            // no product has this code, so don't look it up
+            _invalidGtinCodes.incrementAndGet();
+            return null;
+        } else if (_gtinIndex != null) {
+            _localGtinLookups.incrementAndGet();
+            return _gtinIndex.lookup(gtin);
+        } else if (_gtinFilter != null && !_gtinFilter.mightContain(gtin)) {
+            // certainly not in the POD database
+            _skippedGtinLookups.incrementAndGet();
+            return null;
+        } else {
+            return _backend.lookupGtin(GtinUtils.formatGtin(gtin));
+        }
+    }
 
-            if (productNameQuery == null) {
-                // also apply description to "product name"
-                addMatchQueryBuilder(queryBuilders, input, ProductSearchField.ALL,
-                        ProductSearchField.GTIN_NM.getFieldName());
+    /**
+     * Gets the match of the input on its GTIN code.
+     *
+     * @param input
+     * @param lookupResult
+     *            the product with the GTIN code of the input, or null if there
+     *            is none
+     * @return the match, or null if the input should be matched on its text
+     *         fields instead
+     */
+    private ProductMatch getGtinMatch(Map<ProductSearchField, Object> input,
+            Map<ProductSearchField, Object> lookupResult) {
+        if (lookupResult != null) {
+
+            if (input.size() == 1) {
+                // this is a lookup-only scenario, everything is good now
+                // then
+                return new ProductMatch(MATCH_STATUS_GOOD, lookupResult);
+            } else {
+                // some fields should be compared
+                final String matchVerdict = getMatchVerdict(input, lookupResult);
+                switch (matchVerdict) {
+                case MATCH_STATUS_GOOD:
+                case MATCH_STATUS_POTENTIAL:
+                    // OK the lookup seems at least potential - we'll return
+                    // this
+                    return new ProductMatch(matchVerdict, lookupResult);
+                }
             }
-
-            if (brandNameQuery == null) {
-                // also apply description to "brand name"
-                addMatchQueryBuilder(queryBuilders, input, ProductSearchField.ALL,
-                        ProductSearchField.BRAND_NM.getFieldName());
+        }else{
+            if (input.size() == 1){
+                return ProductMatch.NO_MATCH;
             }
         }
-
-        return queryBuilders;
+        return null;
     }
 
-    private MatchQueryBuilder addMatchQueryBuilder(List<QueryBuilder> queryBuilders,
-            Map<ProductSearchField, Object> input, ProductSearchField type) {
-        return addMatchQueryBuilder(queryBuilders, input, type, type.getFieldName());
-    }
+    private ProductMatch getTextMatch(Map<ProductSearchField, Object> input,
+            Map<ProductSearchField, Object> matchResult) {
+        if (matchResult == null) {
+            return ProductMatch.NO_MATCH;
+        }
 
-    private MatchQueryBuilder addMatchQueryBuilder(List<QueryBuilder> queryBuilders,
-            Map<ProductSearchField, Object> input, ProductSearchField type, String fieldName) {
-        final Object value = input.get(type);
-        if (value != null) {
-            final MatchQueryBuilder queryBuilder = QueryBuilders.matchQuery(fieldName, value);
-            queryBuilders.add(queryBuilder);
-            return queryBuilder;
+        final String matchVerdict = getMatchVerdict(input, matchResult);
+        switch (matchVerdict) {
+        case MATCH_STATUS_GOOD:
+        case MATCH_STATUS_POTENTIAL:
+            // only proper matches causes update to result
+            return new ProductMatch(matchVerdict, matchResult);
+        default:
+            return new ProductMatch(matchVerdict, null);
         }
-        return null;
+    }
+
+    private static boolean hasTextInput(Map<ProductSearchField, Object> input) {
+        return input.containsKey(ProductSearchField.GTIN_NM) || input.containsKey(ProductSearchField.BRAND_NM)
+                || input.containsKey(ProductSearchField.ALL);
     }
 
     private String getMatchVerdict(final Map<ProductSearchField, Object> input,
@@ -292,26 +901,32 @@ public class ProductMatchTransformer implements Transformer, HasAnalyzerResult<P
         return MATCH_STATUS_GOOD;
     }
 
-    protected static String normalizeGtinCode(Object gtinObj) {
-        if (gtinObj == null) {
-            return null;
+    private static int getMatchStatusIndex(String matchStatus) {
+        for (int i = 0; i < MATCH_STATUSES.length; i++) {
+            // the statuses are set from the constants
+            if (MATCH_STATUSES[i] == matchStatus) {
+                return i;
+            }
         }
-        final String gtinStr = gtinObj.toString().trim().replace(" ", "").replace("-", "").replace("_", "");
-        if (gtinStr.isEmpty()) {
-            return null;
+        for (int i = 0; i < MATCH_STATUSES.length; i++) {
+            if (MATCH_STATUSES[i].equals(matchStatus)) {
+                return i;
+            }
         }
-        try {
-            final long gtinNumber = Long.parseLong(gtinStr);
-            return String.format("%013d", gtinNumber);
-        } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Unknown match status: " + matchStatus);
+    }
+
+    protected static String normalizeGtinCode(Object gtinObj) {
+        final long gtin = GtinUtils.parseGtin(gtinObj);
+        if (gtin == GtinUtils.INVALID) {
             return null;
         }
+        return GtinUtils.formatGtin(gtin);
     }
 
-    private void applySearchHitToResult(Map<ProductSearchField, Object> searchResult, Object[] result) {
-        final ProductOutputField[] outputFields = ProductOutputField.values();
-        for (int i = 0; i < outputFields.length; i++) {
-            final ProductSearchField searchField = outputFields[i].getSearchField();
+    void applySearchHitToResult(Map<ProductSearchField, Object> searchResult, Object[] result) {
+        for (int i = 0; i < OUTPUT_SEARCH_FIELDS.length; i++) {
+            final ProductSearchField searchField = OUTPUT_SEARCH_FIELDS[i];
             if (searchField != null) {
                 final Object value = searchResult.get(searchField);
                 result[i] = value;
@@ -319,60 +934,83 @@ public class ProductMatchTransformer implements Transformer, HasAnalyzerResult<P
         }
     }
 
-    private Map<ProductSearchField, Object> executeSearch(SearchRequestBuilder search) {
-        final SearchResponse searchResponse = search.setSize(1).execute().actionGet();
+    /**
+     * Creates the input map of a row. Values of several columns that are
+     * mapped to the same field are appended to each other.
+     *
+     * @param row
+     * @return
+     */
+    Map<ProductSearchField, Object> createInputMap(InputRow row) {
+        final InputBuffer input = _inputBuffers.get();
+        input.read(row);
+        return input.toMap();
+    }
 
-        final SearchHits hits = searchResponse.getHits();
-        if (hits.getTotalHits() == 0) {
-            return null;
+    @Override
+    public ProductMatchResult getResult() {
+        final Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put(ProductMatchResult.METRIC_STARTUP_TIME, _startupTimeMillis);
+        if (warmUpQueries != null) {
+            metrics.put(ProductMatchResult.METRIC_WARM_UP_QUERIES, _warmUpQueryCount);
         }
-
-        final Map<ProductSearchField, Object> searchResult = new EnumMap<>(ProductSearchField.class);
-
-        final SearchHit hit = hits.getAt(0);
-
-        final float score = hit.getScore();
-        searchResult.put(ProductSearchField.SCORE, score);
-
-        final Map<String, Object> sourceAsMap = hit.sourceAsMap();
-        final ProductSearchField[] searchFields = ProductSearchField.values();
-        for (int i = 0; i < searchFields.length; i++) {
-            final ProductSearchField searchField = searchFields[i];
-            if (!searchField.isPseudoField()) {
-                final Object value = sourceAsMap.get(searchField.getFieldName());
-                searchResult.put(searchField, value);
-            }
+        if (_backend != null) {
+            _backend.addMetrics(metrics);
+        }
+        if (_cache != null) {
+            metrics.put(ProductMatchResult.METRIC_CACHE_HITS, _cache.getHitCount());
+            metrics.put(ProductMatchResult.METRIC_CACHE_MISSES, _cache.getMissCount());
+            metrics.put(ProductMatchResult.METRIC_CACHE_EVICTIONS, _cache.getEvictionCount());
+        }
+        if (_persistentCache != null) {
+            metrics.put(ProductMatchResult.METRIC_PERSISTENT_CACHE_HITS, _persistentCache.getHitCount());
+            metrics.put(ProductMatchResult.METRIC_PERSISTENT_CACHE_ENTRIES, _persistentCache.getEntryCount());
+        }
+        if (_inFlightMatches != null) {
+            metrics.put(ProductMatchResult.METRIC_COALESCED_MATCHES, _inFlightMatches.getCoalescedCount());
+        }
+        if (validateGtinCheckDigit) {
+            metrics.put(ProductMatchResult.METRIC_INVALID_GTIN_CODES, _invalidGtinCodes.get());
+        }
+        if (_gtinFilter != null) {
+            metrics.put(ProductMatchResult.METRIC_SKIPPED_GTIN_LOOKUPS, _skippedGtinLookups.get());
+        }
+        if (_gtinIndex != null) {
+            metrics.put(ProductMatchResult.METRIC_LOCAL_GTIN_LOOKUPS, _localGtinLookups.get());
+        }
+        final long rowCount = _rowCount.get();
+        final long elapsedNanos = _lastRowTime.get() - _firstRowTime.get();
+        if (rowCount > 1 && elapsedNanos > 0) {
+            metrics.put(ProductMatchResult.METRIC_ROWS_PER_SECOND, rowCount * 1e9 / elapsedNanos);
         }
 
-        return searchResult;
-    }
-
-    private Map<ProductSearchField, Object> createInputMap(InputRow row) {
-        final Map<ProductSearchField, Object> map = new EnumMap<>(ProductSearchField.class);
-        for (int i = 0; i < inputColumns.length; i++) {
-            final Object value = row.getValue(inputColumns[i]);
-            if (value instanceof String && ((String) value).trim().isEmpty()) {
-                // skip blanks
-                continue;
-            }
-            if (value != null) {
-                final ProductInputField fieldType = inputMapping[i];
-                final ProductSearchField searchField = fieldType.getSearchField();
-                final Object existingValue = map.get(searchField);
-                if (existingValue == null) {
-                    map.put(searchField, value);
-                } else {
-                    // append the values if there are more that are mapped to
-                    // the same field type
-                    map.put(searchField, existingValue + " " + value);
-                }
+        final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+        latencies.put(ProductMatchResult.LATENCY_INPUT_MAPPING, _inputMappingLatency);
+        latencies.put(ProductMatchResult.LATENCY_GTIN_LOOKUP, _gtinLookupLatency);
+        latencies.put(ProductMatchResult.LATENCY_TEXT_SEARCH, _textSearchLatency);
+        latencies.put(ProductMatchResult.LATENCY_GTIN_TEXT_FALLBACK, _gtinTextFallbackLatency);
+        if (_backend != null) {
+            _backend.addLatencies(latencies);
+        }
+        final Map<String, Long> matchStatuses = new LinkedHashMap<>();
+        for (int i = 0; i < MATCH_STATUSES.length; i++) {
+            final long count = _matchStatusCounts.get(i);
+            if (count > 0) {
+                matchStatuses.put(MATCH_STATUSES[i], count);
             }
         }
-        return map;
-    }
-
-    @Override
-    public ProductMatchResult getResult() {
-        return new ProductMatchResult(_matchStatuses, _segments);
+        final Map<String, Long> segments = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : _segments.entrySet()) {
+            segments.put(entry.getKey(), entry.getValue().get());
+        }
+        final Map<String, Map<String, Long>> topValues = new LinkedHashMap<>();
+        if (_topBrands != null) {
+            topValues.put(ProductMatchResult.TOP_BRANDS, _topBrands.getTopValues());
+            topValues.put(ProductMatchResult.TOP_GPC_FAMILIES, _topFamilies.getTopValues());
+            topValues.put(ProductMatchResult.TOP_GPC_CLASSES, _topClasses.getTopValues());
+            topValues.put(ProductMatchResult.TOP_GPC_BRICKS, _topBricks.getTopValues());
+            topValues.put(ProductMatchResult.TOP_UNMATCHED_INPUTS, _topUnmatchedInputs.getTopValues());
+        }
+        return new ProductMatchResult(matchStatuses, segments, topValues, metrics, latencies);
     }
 }
@@ -1,8 +1,11 @@
 package org.datacleaner.extension.productmatch;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.apache.metamodel.util.HasName;
 
-enum ProductOutputField implements HasName {
+public enum ProductOutputField implements HasName {
     
     MATCH_STATUS("Match status", null),
 
@@ -48,4 +51,20 @@ enum ProductOutputField implements HasName {
     public ProductSearchField getSearchField() {
         return _searchField;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the product fields that back a set of output fields.
+     *
+     * @param outputFields
+     * @return
+     */
+    public static Set<ProductSearchField> getSearchFields(ProductOutputField[] outputFields) {
+        final Set<ProductSearchField> searchFields = EnumSet.noneOf(ProductSearchField.class);
+        for (ProductOutputField outputField : outputFields) {
+            if (outputField.getSearchField() != null) {
+                searchFields.add(outputField.getSearchField());
+            }
+        }
+        return searchFields;
+    }
+}
@@ -0,0 +1,186 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.ElasticsearchTimeoutException;
+
+/**
+ * Collects requests from concurrent worker threads into batches that are sent
+ * to the backend in one round trip. A batch is sent when it reaches the
+ * configured size, or when the oldest request in it has waited for the
+ * configured maximum time. The calling thread blocks until the response for its
+ * own request is available, or until the configured timeout has passed.
+ *
+ * @param <Q>
+ *            the request type
+ * @param <R>
+ *            the response type
+ */
+abstract class RequestBatcher<Q, R> {
+
+    /**
+     * A request that is waiting for its batch to be executed.
+     */
+    protected static final class Pending<Q, R> {
+
+        private final Q _request;
+        private final CountDownLatch _latch = new CountDownLatch(1);
+        private volatile R _response;
+        private volatile RuntimeException _failure;
+
+        private Pending(Q request) {
+            _request = request;
+        }
+
+        public Q getRequest() {
+            return _request;
+        }
+
+        public void complete(R response) {
+            _response = response;
+            _latch.countDown();
+        }
+
+        public void fail(RuntimeException failure) {
+            _failure = failure;
+            _latch.countDown();
+        }
+
+        private boolean await(long millis) {
+            try {
+                return _latch.await(millis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for batch", e);
+            }
+        }
+
+        private R get(long timeoutMillis) {
+            if (timeoutMillis > 0) {
+                if (!await(timeoutMillis)) {
+                    throw new ElasticsearchTimeoutException("Timeout waiting for batch response after "
+                            + timeoutMillis + " ms");
+                }
+            } else {
+                try {
+                    _latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for batch", e);
+                }
+            }
+            if (_failure != null) {
+                throw _failure;
+            }
+            return _response;
+        }
+    }
+
+    private final int _batchSize;
+    private final long _maxWaitMillis;
+    private final long _timeoutMillis;
+    private final Object _lock = new Object();
+    private final AtomicLong _batchCount = new AtomicLong(0);
+    private final AtomicLong _requestCount = new AtomicLong(0);
+
+    private List<Pending<Q, R>> _pending;
+
+    /**
+     * Creates the batcher.
+     *
+     * @param batchSize
+     * @param maxWaitMillis
+     * @param timeoutMillis
+     *            the maximum time to wait for the response once a batch has
+     *            been sent, or 0 for no limit
+     */
+    public RequestBatcher(int batchSize, long maxWaitMillis, long timeoutMillis) {
+        _batchSize = batchSize;
+        _maxWaitMillis = maxWaitMillis;
+        _timeoutMillis = timeoutMillis;
+        _pending = new ArrayList<>(batchSize);
+    }
+
+    public R execute(Q request) {
+        final Pending<Q, R> pending = new Pending<>(request);
+
+        List<Pending<Q, R>> batch = null;
+        synchronized (_lock) {
+            _pending.add(pending);
+            if (_pending.size() >= _batchSize) {
+                batch = takePending();
+            }
+        }
+
+        if (batch == null && !pending.await(_maxWaitMillis)) {
+            // waited long enough - send whatever has been collected, unless
+            // another thread already took our request
+            synchronized (_lock) {
+                if (_pending.contains(pending)) {
+                    batch = takePending();
+                }
+            }
+        }
+
+        if (batch != null) {
+            flush(batch);
+        }
+
+        return pending.get(_timeoutMillis);
+    }
+
+    private List<Pending<Q, R>> takePending() {
+        final List<Pending<Q, R>> batch = _pending;
+        _pending = new ArrayList<>(_batchSize);
+        return batch;
+    }
+
+    private void flush(List<Pending<Q, R>> batch) {
+        _batchCount.incrementAndGet();
+        _requestCount.addAndGet(batch.size());
+        try {
+            executeBatch(batch);
+        } catch (RuntimeException e) {
+            failAll(batch, e);
+        }
+    }
+
+    /**
+     * Executes a batch of requests. Implementations must either complete or
+     * fail every pending request in the batch, or throw an exception to fail
+     * them all.
+     *
+     * @param batch
+     */
+    protected abstract void executeBatch(List<Pending<Q, R>> batch);
+
+    /**
+     * Fails every pending request in a batch.
+     *
+     * @param batch
+     * @param failure
+     */
+    protected static <Q, R> void failAll(List<Pending<Q, R>> batch, Throwable failure) {
+        final RuntimeException exception;
+        if (failure instanceof RuntimeException) {
+            exception = (RuntimeException) failure;
+        } else {
+            exception = new IllegalStateException("Batch request failed", failure);
+        }
+        for (Pending<Q, R> pending : batch) {
+            pending.fail(exception);
+        }
+    }
+
+    public long getBatchCount() {
+        return _batchCount.get();
+    }
+
+    public long getRequestCount() {
+        return _requestCount.get();
+    }
+}
@@ -0,0 +1,124 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+
+/**
+ * Limits the number of Elasticsearch requests that are in flight at the same
+ * time. When the limit is reached, new requests wait until a response has been
+ * received, so that a large number of worker threads cannot overload the
+ * cluster.
+ *
+ * Requests block the calling thread until their response arrives, or until a
+ * configurable timeout has passed, since DataCleaner expects the result of a
+ * row from the thread that transforms it. A request that timed out still
+ * counts towards the limit until its response arrives, since it still loads
+ * the cluster.
+ */
+class RequestThrottle {
+
+    private final Semaphore _permits;
+    private final long _timeoutMillis;
+    private final AtomicInteger _inFlightCount = new AtomicInteger(0);
+    private final AtomicInteger _peakInFlightCount = new AtomicInteger(0);
+    private final AtomicLong _throttledCount = new AtomicLong(0);
+
+    /**
+     * Creates the throttle.
+     *
+     * @param maxInFlight
+     *            the maximum number of requests in flight, or 0 for no limit
+     * @param timeoutMillis
+     *            the maximum time to wait for a response, or 0 for no limit
+     */
+    public RequestThrottle(int maxInFlight, long timeoutMillis) {
+        _permits = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        _timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Executes a request and waits for its response.
+     *
+     * @param requestBuilder
+     * @return
+     * @throws ElasticsearchTimeoutException
+     *             if there is no response within the timeout
+     */
+    public <R extends ActionResponse> R execute(ActionRequestBuilder<?, R, ?, ?> requestBuilder) {
+        final PlainActionFuture<R> future = PlainActionFuture.newFuture();
+        acquire();
+        try {
+            // the permit is released by the response, rather than by the
+            // caller, which may have given up waiting for it
+            requestBuilder.execute(new ActionListener<R>() {
+                @Override
+                public void onResponse(R response) {
+                    release();
+                    future.onResponse(response);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    release();
+                    future.onFailure(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+        if (_timeoutMillis > 0) {
+            return future.actionGet(_timeoutMillis);
+        }
+        return future.actionGet();
+    }
+
+    private void acquire() {
+        if (_permits != null && !_permits.tryAcquire()) {
+            _throttledCount.incrementAndGet();
+            try {
+                _permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to send request", e);
+            }
+        }
+
+        final int inFlight = _inFlightCount.incrementAndGet();
+        int peak = _peakInFlightCount.get();
+        while (inFlight > peak && !_peakInFlightCount.compareAndSet(peak, inFlight)) {
+            peak = _peakInFlightCount.get();
+        }
+    }
+
+    private void release() {
+        _inFlightCount.decrementAndGet();
+        if (_permits != null) {
+            _permits.release();
+        }
+    }
+
+    /**
+     * Gets the maximum time to wait for a response, or 0 for no limit.
+     *
+     * @return
+     */
+    public long getTimeoutMillis() {
+        return _timeoutMillis;
+    }
+
+    public int getPeakInFlightCount() {
+        return _peakInFlightCount.get();
+    }
+
+    public long getThrottledCount() {
+        return _throttledCount.get();
+    }
+}
@@ -0,0 +1,167 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.transport.ConnectTransportException;
+import org.elasticsearch.transport.ReceiveTimeoutTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes Elasticsearch requests with bounded retries and a
+ * {@link CircuitBreaker}. Failed attempts are retried after an exponential
+ * backoff with full jitter, so that worker threads which failed together do
+ * not retry together. Requests that still fail, or that are rejected by the
+ * open circuit breaker, throw a {@link BackendException}.
+ *
+ * Only transport-level failures, e.g. unreachable nodes, timeouts and
+ * rejections by busy nodes, are retried and count towards the circuit
+ * breaker. Other failures, e.g. a query that does not parse, would fail again,
+ * and are thrown as a {@link BackendException} right away.
+ */
+class RetryPolicy {
+
+    /**
+     * A request attempt.
+     *
+     * @param <T>
+     *            the result type
+     */
+    public interface Attempt<T> {
+
+        public T execute();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+    // backoff does not grow beyond this multiple of the initial backoff
+    private static final int MAX_BACKOFF_MULTIPLIER = 32;
+
+    private final int _maxRetries;
+    private final long _backoffMillis;
+    private final CircuitBreaker _circuitBreaker;
+    private final AtomicLong _retryCount = new AtomicLong(0);
+    private final AtomicLong _timeoutCount = new AtomicLong(0);
+
+    /**
+     * Creates the retry policy.
+     *
+     * @param maxRetries
+     *            the number of times a failed request is retried
+     * @param backoffMillis
+     *            the maximum wait before the first retry, doubled for every
+     *            further retry
+     * @param circuitBreaker
+     */
+    public RetryPolicy(int maxRetries, long backoffMillis, CircuitBreaker circuitBreaker) {
+        _maxRetries = maxRetries;
+        _backoffMillis = backoffMillis;
+        _circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Executes a request.
+     *
+     * @param attempt
+     * @return
+     * @throws BackendException
+     *             if the request failed after all retries, or the circuit
+     *             breaker is open
+     */
+    public <T> T execute(Attempt<T> attempt) {
+        for (int retry = 0;; retry++) {
+            if (!_circuitBreaker.allowRequest()) {
+                throw new BackendException("Circuit breaker is open, Elasticsearch is considered unhealthy", false,
+                        null);
+            }
+
+            try {
+                final T result = attempt.execute();
+                _circuitBreaker.recordSuccess();
+                return result;
+            } catch (RuntimeException e) {
+                if (!isTransient(e)) {
+                    throw new BackendException("Elasticsearch request failed: " + e.getMessage(), false, e);
+                }
+                final boolean timeout = isTimeout(e);
+                if (timeout) {
+                    _timeoutCount.incrementAndGet();
+                }
+                if (_circuitBreaker.recordFailure()) {
+                    logger.warn("Circuit breaker opened after repeated Elasticsearch failures: {}", e.getMessage());
+                }
+                if (retry >= _maxRetries || _circuitBreaker.isOpen()) {
+                    throw new BackendException("Elasticsearch request failed after " + (retry + 1) + " attempt(s): "
+                            + e.getMessage(), timeout, e);
+                }
+            }
+
+            _retryCount.incrementAndGet();
+            backoff(retry);
+        }
+    }
+
+    /**
+     * Determines if a failure is caused by the cluster or the connection to
+     * it, rather than by the request, so that retrying it may succeed.
+     *
+     * @param failure
+     * @return
+     */
+    static boolean isTransient(Throwable failure) {
+        final Throwable cause = ExceptionsHelper.unwrapCause(failure);
+        return cause instanceof NoNodeAvailableException || cause instanceof ConnectTransportException
+                || cause instanceof EsRejectedExecutionException || isTimeout(cause);
+    }
+
+    /**
+     * Creates the exception of a failed item of a multi request, which only
+     * carries the message of its cause. Rejections by busy nodes are
+     * recognized by their message, so that they are retried.
+     *
+     * @param message
+     * @return
+     */
+    static ElasticsearchException createItemFailure(String message) {
+        if (message != null && message.contains(EsRejectedExecutionException.class.getSimpleName())) {
+            return new EsRejectedExecutionException(message);
+        }
+        return new ElasticsearchException(message);
+    }
+
+    private static boolean isTimeout(Throwable failure) {
+        final Throwable cause = ExceptionsHelper.unwrapCause(failure);
+        return cause instanceof ElasticsearchTimeoutException || cause instanceof ReceiveTimeoutTransportException;
+    }
+
+    private void backoff(int retry) {
+        if (_backoffMillis <= 0) {
+            return;
+        }
+        final long maxBackoff = _backoffMillis * Math.min(1 << Math.min(retry, 30), MAX_BACKOFF_MULTIPLIER);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxBackoff + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry request", e);
+        }
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return _circuitBreaker;
+    }
+
+    public long getRetryCount() {
+        return _retryCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return _timeoutCount.get();
+    }
+}
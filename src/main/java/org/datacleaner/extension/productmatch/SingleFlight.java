@@ -0,0 +1,75 @@
+package org.datacleaner.extension.productmatch;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls with the same key: the first thread executes the
+ * call, and threads that ask for the same key while it is in flight wait for
+ * and share its result, instead of executing the call again.
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the result type
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, FutureTask<V>> _inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong _coalescedCount = new AtomicLong(0);
+
+    /**
+     * Executes a call, or waits for the result of an identical call that is
+     * already in flight.
+     *
+     * @param key
+     * @param callable
+     * @return
+     */
+    public V execute(K key, Callable<V> callable) {
+        final FutureTask<V> task = new FutureTask<>(callable);
+        final FutureTask<V> existingTask = _inFlight.putIfAbsent(key, task);
+        if (existingTask != null) {
+            _coalescedCount.incrementAndGet();
+            return getResult(existingTask);
+        }
+
+        try {
+            task.run();
+            return getResult(task);
+        } finally {
+            _inFlight.remove(key, task);
+        }
+    }
+
+    private V getResult(FutureTask<V> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for identical call", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Gets the number of calls that shared the result of an identical call
+     * instead of being executed.
+     *
+     * @return
+     */
+    public long getCoalescedCount() {
+        return _coalescedCount.get();
+    }
+}
@@ -0,0 +1,72 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+
+/**
+ * Decodes a selected set of fields from the raw '_source' of a POD document.
+ * Unlike {@link org.elasticsearch.search.SearchHit#sourceAsMap()}, the source
+ * is streamed directly into the search result, so no intermediate map is built
+ * and fields that are not needed are skipped without being parsed into values.
+ */
+final class SourceFieldDecoder {
+
+    private final Map<String, ProductSearchField> _fieldsByName;
+    private final String[] _fieldNames;
+
+    public SourceFieldDecoder(Set<ProductSearchField> fields) {
+        _fieldsByName = new HashMap<>();
+        for (ProductSearchField field : fields) {
+            if (!field.isPseudoField()) {
+                _fieldsByName.put(field.getFieldName(), field);
+            }
+        }
+        _fieldNames = _fieldsByName.keySet().toArray(new String[_fieldsByName.size()]);
+    }
+
+    /**
+     * Gets the names of the decoded fields, to use as source includes of
+     * requests.
+     *
+     * @return
+     */
+    public String[] getFieldNames() {
+        return _fieldNames;
+    }
+
+    /**
+     * Decodes the fields of a document source into a search result.
+     *
+     * @param source
+     * @param searchResult
+     */
+    public void decode(BytesReference source, Map<ProductSearchField, Object> searchResult) {
+        try (XContentParser parser = XContentHelper.createParser(source)) {
+            Token token = parser.nextToken();
+            if (token != Token.START_OBJECT) {
+                throw new ElasticsearchParseException("Expected document source to be an object, but got " + token);
+            }
+            while ((token = parser.nextToken()) == Token.FIELD_NAME) {
+                final ProductSearchField field = _fieldsByName.get(parser.currentName());
+                token = parser.nextToken();
+                if (field == null || token == Token.START_OBJECT || token == Token.START_ARRAY) {
+                    parser.skipChildren();
+                } else if (token == Token.VALUE_NULL) {
+                    searchResult.put(field, null);
+                } else {
+                    searchResult.put(field, parser.objectText());
+                }
+            }
+        } catch (IOException e) {
+            throw new ElasticsearchParseException("Failed to decode document source", e);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming parser of the rows of a MySQL dump, as written by mysqldump. The
+ * column names of each table are taken from its CREATE TABLE statement, or
+ * from the column list of an INSERT statement. Each INSERT statement may hold
+ * many rows, but must be on a single line, which mysqldump ensures by escaping
+ * line breaks in values.
+ *
+ * String values are returned as strings, numbers as longs or doubles and NULL
+ * as null.
+ */
+class SqlDumpParser {
+
+    private static final String CREATE_TABLE = "CREATE TABLE ";
+    private static final String IF_NOT_EXISTS = "IF NOT EXISTS ";
+    private static final String INSERT_INTO = "INSERT INTO ";
+    private static final String VALUES = "VALUES ";
+
+    private final BufferedReader _reader;
+    private final Map<String, String[]> _tableColumns = new HashMap<>();
+    private final StringBuilder _value = new StringBuilder();
+
+    private String _line;
+    private int _position;
+    private String _table;
+    private String[] _columnNames;
+    private Map<String, Integer> _columnIndexes;
+    private Object[] _values;
+
+    public SqlDumpParser(BufferedReader reader) {
+        _reader = reader;
+    }
+
+    /**
+     * Advances to the next row of the dump.
+     *
+     * @return the name of the table of the row, or null if there are no more
+     *         rows
+     * @throws IOException
+     */
+    public String nextRow() throws IOException {
+        while (_line == null || !hasNextTuple()) {
+            if (!nextInsertStatement()) {
+                _table = null;
+                _values = null;
+                return null;
+            }
+        }
+        _values = parseTuple();
+        return _table;
+    }
+
+    /**
+     * Reads up to the next INSERT statement, recording the columns of the
+     * tables that are created on the way.
+     *
+     * @return whether there was another INSERT statement
+     * @throws IOException
+     */
+    private boolean nextInsertStatement() throws IOException {
+        for (String line = _reader.readLine(); line != null; line = _reader.readLine()) {
+            if (line.startsWith(CREATE_TABLE)) {
+                readCreateTable(line);
+            } else if (line.startsWith(INSERT_INTO)) {
+                _line = line;
+                _position = INSERT_INTO.length();
+                final String table = readIdentifier();
+                skipWhitespace();
+                String[] columnNames;
+                if (_line.charAt(_position) == '(') {
+                    columnNames = readColumnList();
+                    skipWhitespace();
+                } else {
+                    columnNames = _tableColumns.get(table);
+                }
+                if (!_line.startsWith(VALUES, _position)) {
+                    throw new IOException("Unsupported INSERT statement of table '" + table + "'");
+                }
+                if (columnNames == null) {
+                    throw new IOException("Columns of table '" + table + "' are unknown");
+                }
+                _position += VALUES.length();
+                setTable(table, columnNames);
+                return true;
+            }
+        }
+        _line = null;
+        return false;
+    }
+
+    private void readCreateTable(String line) throws IOException {
+        _line = line;
+        _position = CREATE_TABLE.length();
+        if (_line.startsWith(IF_NOT_EXISTS, _position)) {
+            _position += IF_NOT_EXISTS.length();
+        }
+        final String table = readIdentifier();
+        final List<String> columnNames = new ArrayList<>();
+        // column definitions are on lines of their own, starting with the
+        // quoted column name, and keys and the closing line are not quoted
+        String definition = _reader.readLine();
+        while (definition != null && !definition.startsWith(")")) {
+            final String trimmed = definition.trim();
+            if (trimmed.startsWith("`")) {
+                columnNames.add(trimmed.substring(1, trimmed.indexOf('`', 1)));
+            }
+            definition = _reader.readLine();
+        }
+        _tableColumns.put(table, columnNames.toArray(new String[columnNames.size()]));
+        _line = null;
+    }
+
+    private void setTable(String table, String[] columnNames) {
+        if (columnNames != _columnNames) {
+            _columnIndexes = new HashMap<>();
+            for (int i = 0; i < columnNames.length; i++) {
+                _columnIndexes.put(columnNames[i], i);
+            }
+        }
+        _table = table;
+        _columnNames = columnNames;
+    }
+
+    private String readIdentifier() throws IOException {
+        skipWhitespace();
+        if (_line.charAt(_position) == '`') {
+            final int end = _line.indexOf('`', _position + 1);
+            if (end == -1) {
+                throw new IOException("Unterminated identifier: " + _line);
+            }
+            final String identifier = _line.substring(_position + 1, end);
+            _position = end + 1;
+            return identifier;
+        }
+        final int start = _position;
+        while (_position < _line.length() && !Character.isWhitespace(_line.charAt(_position))
+                && _line.charAt(_position) != '(') {
+            _position++;
+        }
+        return _line.substring(start, _position);
+    }
+
+    private String[] readColumnList() throws IOException {
+        final List<String> columnNames = new ArrayList<>();
+        _position++;
+        while (true) {
+            columnNames.add(readIdentifier());
+            skipWhitespace();
+            final char c = _line.charAt(_position++);
+            if (c == ')') {
+                return columnNames.toArray(new String[columnNames.size()]);
+            }
+            if (c != ',') {
+                throw new IOException("Invalid column list at position " + _position);
+            }
+        }
+    }
+
+    private boolean hasNextTuple() throws IOException {
+        skipWhitespace();
+        if (_position >= _line.length()) {
+            return false;
+        }
+        final char c = _line.charAt(_position);
+        if (c == ',') {
+            _position++;
+            skipWhitespace();
+            return true;
+        }
+        if (c == '(') {
+            return true;
+        }
+        if (c == ';') {
+            _line = null;
+            return false;
+        }
+        throw new IOException("Unexpected '" + c + "' at position " + _position + " of INSERT statement of table '"
+                + _table + "'");
+    }
+
+    private Object[] parseTuple() throws IOException {
+        if (_line.charAt(_position) != '(') {
+            throw new IOException("Expected row at position " + _position + " of INSERT statement of table '"
+                    + _table + "'");
+        }
+        _position++;
+        final Object[] values = new Object[_columnNames.length];
+        int index = 0;
+        while (true) {
+            skipWhitespace();
+            final Object value = parseValue();
+            if (index < values.length) {
+                values[index] = value;
+            }
+            index++;
+            skipWhitespace();
+            final char c = _line.charAt(_position++);
+            if (c == ')') {
+                break;
+            }
+            if (c != ',') {
+                throw new IOException("Unexpected '" + c + "' at position " + _position
+                        + " of INSERT statement of table '" + _table + "'");
+            }
+        }
+        if (index != values.length) {
+            throw new IOException("Row of table '" + _table + "' has " + index + " values, expected "
+                    + values.length);
+        }
+        return values;
+    }
+
+    private Object parseValue() throws IOException {
+        if (_line.charAt(_position) == '\'') {
+            return parseString();
+        }
+
+        final int start = _position;
+        while (_line.charAt(_position) != ',' && _line.charAt(_position) != ')') {
+            _position++;
+        }
+        final String token = _line.substring(start, _position).trim();
+        if ("NULL".equals(token)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(token);
+        } catch (NumberFormatException e) {
+            try {
+                return Double.parseDouble(token);
+            } catch (NumberFormatException e2) {
+                return token;
+            }
+        }
+    }
+
+    private String parseString() throws IOException {
+        _value.setLength(0);
+        _position++;
+        while (true) {
+            if (_position >= _line.length()) {
+                throw new IOException("Unterminated string in INSERT statement of table '" + _table + "'");
+            }
+            final char c = _line.charAt(_position++);
+            if (c == '\'') {
+                if (_position < _line.length() && _line.charAt(_position) == '\'') {
+                    // quote escaped by doubling
+                    _value.append('\'');
+                    _position++;
+                } else {
+                    return _value.toString();
+                }
+            } else if (c == '\\') {
+                final char escaped = _line.charAt(_position++);
+                switch (escaped) {
+                case 'n':
+                    _value.append('\n');
+                    break;
+                case 'r':
+                    _value.append('\r');
+                    break;
+                case 't':
+                    _value.append('\t');
+                    break;
+                case '0':
+                    _value.append('\0');
+                    break;
+                case 'Z':
+                    _value.append('\u001A');
+                    break;
+                default:
+                    _value.append(escaped);
+                    break;
+                }
+            } else {
+                _value.append(c);
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        while (_position < _line.length() && Character.isWhitespace(_line.charAt(_position))) {
+            _position++;
+        }
+    }
+
+    /**
+     * Gets the column names of the table of the current row.
+     *
+     * @return
+     */
+    public String[] getColumnNames() {
+        return _columnNames;
+    }
+
+    /**
+     * Gets the values of the current row, in the order of the column names.
+     *
+     * @return
+     */
+    public Object[] getValues() {
+        return _values;
+    }
+
+    /**
+     * Gets a value of the current row.
+     *
+     * @param columnName
+     * @return the value, or null if the value is NULL or the table has no
+     *         such column
+     */
+    public Object getValue(String columnName) {
+        final Integer index = _columnIndexes.get(columnName);
+        return index == null ? null : _values[index];
+    }
+}
@@ -2,15 +2,20 @@ package org.datacleaner.extension.productmatch.ui;
 
 import java.awt.BorderLayout;
 import java.awt.Component;
+import java.awt.GridLayout;
 import java.awt.Image;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JFrame;
 import javax.swing.JSplitPane;
 import javax.swing.border.EmptyBorder;
+import javax.swing.table.DefaultTableModel;
 
+import org.datacleaner.extension.productmatch.LatencyHistogram;
 import org.datacleaner.extension.productmatch.ProductMatchResult;
 import org.datacleaner.extension.productmatch.ProductMatchTransformer;
 import org.datacleaner.panels.DCPanel;
@@ -18,6 +23,7 @@ import org.datacleaner.util.ChartUtils;
 import org.datacleaner.util.ImageManager;
 import org.datacleaner.util.LookAndFeelManager;
 import org.datacleaner.util.WidgetUtils;
+import org.datacleaner.widgets.table.DCTable;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
@@ -32,6 +38,8 @@ public class ProductMatchResultPanel extends DCPanel {
     private static final Image WATERMARK_IMAGE = ImageManager.get().getImage("images/pod_watermark.png",
             ProductMatchResultPanel.class.getClassLoader());
 
+    private static final int MAX_CATEGORY_LENGTH = 30;
+
     public ProductMatchResultPanel(ProductMatchResult result) {
         super(WATERMARK_IMAGE, 100, 100);
 
@@ -47,7 +55,97 @@ public class ProductMatchResultPanel extends DCPanel {
 
         setBorder(new EmptyBorder(0, 0, 266, 0));
         setLayout(new BorderLayout());
-        add(split, BorderLayout.CENTER);
+
+        final DCPanel topValuesPanel = createTopValuesPanel(result.getTopValues());
+        if (topValuesPanel.getComponentCount() > 0) {
+            final JSplitPane chartsSplit = new JSplitPane(JSplitPane.VERTICAL_SPLIT, split, topValuesPanel);
+            chartsSplit.setDividerLocation(400);
+            add(chartsSplit, BorderLayout.CENTER);
+        } else {
+            add(split, BorderLayout.CENTER);
+        }
+
+        final DCPanel tablesPanel = new DCPanel();
+        tablesPanel.setLayout(new GridLayout(1, 0));
+        final Map<String, ? extends Number> metrics = result.getMetrics();
+        if (metrics != null && !metrics.isEmpty()) {
+            tablesPanel.add(createMetricsTable(metrics).toPanel());
+        }
+        final Map<String, LatencyHistogram> latencies = result.getLatencies();
+        if (latencies != null && !latencies.isEmpty()) {
+            tablesPanel.add(createLatencyTable(latencies).toPanel());
+        }
+        if (tablesPanel.getComponentCount() > 0) {
+            add(tablesPanel, BorderLayout.SOUTH);
+        }
+    }
+
+    private DCPanel createTopValuesPanel(Map<String, Map<String, Long>> topValues) {
+        final DCPanel panel = new DCPanel();
+        panel.setLayout(new GridLayout(1, 0));
+        for (Map.Entry<String, Map<String, Long>> entry : topValues.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                panel.add(WidgetUtils.decorateWithShadow(new ChartPanel(createTopValuesChart(entry.getKey(),
+                        entry.getValue()))));
+            }
+        }
+        return panel;
+    }
+
+    /**
+     * Creates a horizontal bar chart of the most frequent values, in a single
+     * series, so that the values are the categories rather than legend items.
+     *
+     * @param name
+     * @param topValues
+     *            the values, most frequent first
+     * @return
+     */
+    private JFreeChart createTopValuesChart(String name, Map<String, Long> topValues) {
+        final DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+        for (Map.Entry<String, Long> entry : topValues.entrySet()) {
+            dataset.addValue(entry.getValue(), name, abbreviate(entry.getKey()));
+        }
+
+        final JFreeChart chart = ChartFactory.createBarChart(name, null, null, dataset, PlotOrientation.HORIZONTAL,
+                false, true, false);
+        ChartUtils.applyStyles(chart);
+        return chart;
+    }
+
+    private String abbreviate(String value) {
+        if (value.length() <= MAX_CATEGORY_LENGTH) {
+            return value;
+        }
+        return value.substring(0, MAX_CATEGORY_LENGTH - 3) + "...";
+    }
+
+    private DCTable createMetricsTable(Map<String, ? extends Number> metrics) {
+        final DefaultTableModel tableModel = new DefaultTableModel(new String[] { "Metric", "Value" }, 0);
+        for (Map.Entry<String, ? extends Number> entry : metrics.entrySet()) {
+            tableModel.addRow(new Object[] { entry.getKey(), entry.getValue() });
+        }
+        return new DCTable(tableModel);
+    }
+
+    private DCTable createLatencyTable(Map<String, LatencyHistogram> latencies) {
+        final DefaultTableModel tableModel = new DefaultTableModel(new String[] { "Timing", "Count", "Mean (ms)",
+                "p50 (ms)", "p95 (ms)", "p99 (ms)", "Max (ms)" }, 0);
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            final LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            tableModel.addRow(new Object[] { entry.getKey(), histogram.getCount(),
+                    formatMillis(histogram.getMeanMillis()), formatMillis(histogram.getPercentileMillis(0.5)),
+                    formatMillis(histogram.getPercentileMillis(0.95)),
+                    formatMillis(histogram.getPercentileMillis(0.99)), formatMillis(histogram.getMaxMillis()) });
+        }
+        return new DCTable(tableModel);
+    }
+
+    private String formatMillis(double millis) {
+        return String.format("%.2f", millis);
     }
 
     private JFreeChart createBarChart(String name, Map<String, ? extends Number> map) {
@@ -102,7 +200,34 @@ public class ProductMatchResultPanel extends DCPanel {
         segments.put("Food", 23);
         segments.put("Cars", 5);
 
-        final ProductMatchResult result = new ProductMatchResult(matchStatuses, segments);
+        final Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put(ProductMatchResult.METRIC_CONNECT_TIME, 120);
+        metrics.put(ProductMatchResult.METRIC_RECONNECTS, 0);
+        metrics.put(ProductMatchResult.METRIC_ROWS_PER_SECOND, 850.5);
+
+        final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+        final LatencyHistogram gtinLookupLatency = new LatencyHistogram();
+        final LatencyHistogram textSearchLatency = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            gtinLookupLatency.record(i * 20, TimeUnit.MICROSECONDS);
+            textSearchLatency.record(i * 150, TimeUnit.MICROSECONDS);
+        }
+        latencies.put(ProductMatchResult.LATENCY_GTIN_LOOKUP, gtinLookupLatency);
+        latencies.put(ProductMatchResult.LATENCY_TEXT_SEARCH, textSearchLatency);
+
+        final Map<String, Map<String, Long>> topValues = new LinkedHashMap<>();
+        final Map<String, Long> topBrands = new LinkedHashMap<>();
+        topBrands.put("Coca-Cola", 12L);
+        topBrands.put("Nestle", 7L);
+        topBrands.put("Mars", 4L);
+        topValues.put(ProductMatchResult.TOP_BRANDS, topBrands);
+        final Map<String, Long> topUnmatchedInputs = new LinkedHashMap<>();
+        topUnmatchedInputs.put("Cola 6 pack", 3L);
+        topUnmatchedInputs.put("Chocolate bar, large", 2L);
+        topValues.put(ProductMatchResult.TOP_UNMATCHED_INPUTS, topUnmatchedInputs);
+
+        final ProductMatchResult result = new ProductMatchResult(matchStatuses, segments, topValues, metrics,
+                latencies);
 
         final ProductMatchResultPanel panel = new ProductMatchResultPanel(result);
         JFrame frame = new JFrame("test frame");
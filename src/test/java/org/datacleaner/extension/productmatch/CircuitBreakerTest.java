@@ -0,0 +1,65 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(3, 60000);
+
+        assertFalse(circuitBreaker.recordFailure());
+        assertFalse(circuitBreaker.recordFailure());
+        circuitBreaker.recordSuccess();
+        assertFalse(circuitBreaker.recordFailure());
+        assertFalse(circuitBreaker.recordFailure());
+        assertTrue(circuitBreaker.allowRequest());
+
+        assertTrue(circuitBreaker.recordFailure());
+        assertTrue(circuitBreaker.isOpen());
+        assertFalse(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+
+        assertEquals(1, circuitBreaker.getTripCount());
+        assertEquals(2, circuitBreaker.getRejectedCount());
+    }
+
+    @Test
+    public void testSingleTrialRequestAfterOpenTime() throws Exception {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 10);
+        assertTrue(circuitBreaker.recordFailure());
+        Thread.sleep(20);
+
+        // only one trial request is let through
+        assertTrue(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+
+        // the trial fails, so the breaker stays open
+        assertTrue(circuitBreaker.recordFailure());
+        assertFalse(circuitBreaker.allowRequest());
+        Thread.sleep(20);
+
+        // the trial succeeds, so the breaker closes
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordSuccess();
+        assertFalse(circuitBreaker.isOpen());
+        assertTrue(circuitBreaker.allowRequest());
+        assertTrue(circuitBreaker.allowRequest());
+
+        assertEquals(2, circuitBreaker.getTripCount());
+    }
+
+    @Test
+    public void testDisabled() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(0, 60000);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(circuitBreaker.recordFailure());
+        }
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(0, circuitBreaker.getTripCount());
+    }
+}
@@ -0,0 +1,32 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.junit.Test;
+
+public class ElasticSearchClientManagerTest {
+
+    @Test
+    public void testParseSeeds() {
+        assertEquals(Arrays.asList("node1:9301", "node2", "node3:9300"),
+                ElasticSearchClientManager.parseSeeds(" node1:9301, node2,,node3:9300 "));
+    }
+
+    @Test
+    public void testToTransportAddress() {
+        InetSocketTransportAddress address = ElasticSearchClientManager.toTransportAddress("localhost:9301");
+        assertEquals("localhost", address.address().getHostString());
+        assertEquals(9301, address.address().getPort());
+
+        address = ElasticSearchClientManager.toTransportAddress("localhost");
+        assertEquals(ElasticSearchClientManager.DEFAULT_PORT, address.address().getPort());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPort() {
+        ElasticSearchClientManager.toTransportAddress("localhost:abc");
+    }
+}
@@ -0,0 +1,215 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.datacleaner.extension.productmatch.ElasticSearchClientManager.LoadBalancing;
+import org.elasticsearch.action.admin.cluster.node.stats.NodeStats;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the Elasticsearch backend against a multi-node
+ * {@link EmbeddedPodCluster}, to validate node discovery, load balancing and
+ * failover.
+ */
+public class ElasticSearchMultiNodeTest {
+
+    private static final String GTIN_CODE = "0076539068309";
+
+    private EmbeddedPodCluster cluster;
+    private ElasticSearchBackend backend;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new EmbeddedPodCluster(3);
+    }
+
+    @After
+    public void tearDown() {
+        if (backend != null) {
+            backend.close();
+        }
+        if (cluster != null) {
+            cluster.close();
+        }
+    }
+
+    @Test
+    public void testSniffNodesFromSingleSeed() throws Exception {
+        final List<String> addresses = cluster.getAddresses();
+        backend = createBackend(Collections.singletonList(addresses.get(0)), true, LoadBalancing.ROUND_ROBIN);
+
+        assertEquals("Bbq Sauce", backend.lookupGtin(GTIN_CODE).get(ProductSearchField.GTIN_NM));
+        assertEquals(3, getConnectedNodeCount());
+    }
+
+    @Test
+    public void testLeastLoadedRequestsAreServedByAllNodes() throws Exception {
+        backend = createBackend(cluster.getAddresses(), false, LoadBalancing.LEAST_LOADED);
+        final Map<String, Long> getCountsBefore = getGetCounts();
+
+        for (int i = 0; i < 300; i++) {
+            assertEquals("Bbq Sauce", backend.lookupGtin(GTIN_CODE).get(ProductSearchField.GTIN_NM));
+        }
+
+        // with the '_local' preference, each node serves the gets it receives
+        // from its own shard copy
+        final Map<String, Long> getCountsAfter = getGetCounts();
+        assertEquals(3, getCountsAfter.size());
+        for (String nodeName : getCountsAfter.keySet()) {
+            assertTrue("Node " + nodeName + " served no requests",
+                    getCountsAfter.get(nodeName) > getCountsBefore.get(nodeName));
+        }
+    }
+
+    @Test
+    public void testFailoverWhenNodeStops() throws Exception {
+        backend = createBackend(cluster.getAddresses(), true, LoadBalancing.LEAST_LOADED);
+        assertEquals("Bbq Sauce", backend.lookupGtin(GTIN_CODE).get(ProductSearchField.GTIN_NM));
+
+        cluster.stopNode(1);
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals("Bbq Sauce", backend.lookupGtin(GTIN_CODE).get(ProductSearchField.GTIN_NM));
+            final Map<ProductSearchField, Object> searchResult = backend.search(Collections
+                    .<ProductSearchField, Object> singletonMap(ProductSearchField.GTIN_NM, "Bbq Sauce"));
+            assertEquals(GTIN_CODE, searchResult.get(ProductSearchField.GTIN_CD));
+        }
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        backend = createBackend(cluster.getAddresses(), false, LoadBalancing.ROUND_ROBIN);
+        backend.verify();
+
+        cluster.getClient().admin().indices().prepareDelete(ProductMatchTransformer.INDEX_NAME).get();
+        try {
+            backend.verify();
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith(" has no 'pod' index. Create it with "
+                    + "PodIndexProvisioner and load the POD data into it with PodDumpLoader"));
+        }
+    }
+
+    @Test
+    public void testIndexVersion() throws Exception {
+        backend = createBackend(cluster.getAddresses(), false, LoadBalancing.ROUND_ROBIN);
+        final String version = backend.getIndexVersion();
+        assertTrue(version, version.startsWith("[" + ProductMatchTransformer.INDEX_NAME + ":"));
+        assertEquals(version, backend.getIndexVersion());
+
+        // loading more products into the index changes its version
+        cluster.getClient().prepareIndex(ProductMatchTransformer.INDEX_NAME, ProductMatchTransformer.DOCUMENT_TYPE,
+                "0000000000017").setSource(ProductSearchField.GTIN_CD.getFieldName(), "0000000000017")
+                .setRefresh(true).get();
+        assertFalse(version.equals(backend.getIndexVersion()));
+    }
+
+    @Test
+    public void testGtinCodesOfIndexWithGeneratedIds() throws Exception {
+        reindexWithGeneratedIds();
+        backend = createBackend(cluster.getAddresses(), false, LoadBalancing.ROUND_ROBIN);
+
+        final Set<String> gtinCodes = new HashSet<>();
+        final Iterator<String> iterator = backend.getGtinCodes();
+        while (iterator.hasNext()) {
+            gtinCodes.add(iterator.next());
+        }
+        assertEquals(PodFixture.readProducts().size(), gtinCodes.size());
+        assertTrue(gtinCodes.contains(GTIN_CODE));
+    }
+
+    @Test
+    public void testBulkLookupOfIndexWithGeneratedIds() throws Exception {
+        reindexWithGeneratedIds();
+        backend = createBackend(cluster.getAddresses(), false, LoadBalancing.ROUND_ROBIN);
+
+        final GtinProductTable products = new GtinProductTable(2);
+        backend.lookupGtins(new long[] { GtinUtils.parseGtin(GTIN_CODE), 17 }, 2, products);
+        assertEquals(1, products.size());
+        assertEquals("Bbq Sauce", products.get(GtinUtils.parseGtin(GTIN_CODE)).get(ProductSearchField.GTIN_NM));
+    }
+
+    @Test
+    public void testUnreachableClusterIsNotReconnectedOnEveryRequest() throws Exception {
+        // nothing listens on the port
+        try (ElasticSearchClientManager clientManager = new ElasticSearchClientManager(
+                ProductMatchTransformer.INDEX_NAME, Collections.singletonList("localhost:1"), false,
+                LoadBalancing.ROUND_ROBIN, null)) {
+            final Client client = clientManager.getClient();
+            for (int i = 0; i < 100; i++) {
+                assertSame(client, clientManager.getClient());
+                assertSame(client, clientManager.reconnect(client));
+            }
+            assertEquals(0, clientManager.getReconnectCount());
+        }
+    }
+
+    @Test
+    public void testVerifyUnreachableCluster() throws Exception {
+        // nothing listens on the port
+        backend = createBackend(Collections.singletonList("localhost:1"), false, LoadBalancing.ROUND_ROBIN);
+        try {
+            backend.verify();
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("Could not connect to Elasticsearch at [localhost:1]. Check that the cluster is running, and "
+                    + "that the system property " + ProductMatchTransformer.PROPERTY_HOSTS + " points to its nodes",
+                    e.getMessage());
+        }
+    }
+
+    private ElasticSearchBackend createBackend(List<String> seeds, boolean sniff, LoadBalancing loadBalancing) {
+        final ElasticSearchClientManager clientManager = new ElasticSearchClientManager(
+                ProductMatchTransformer.INDEX_NAME, seeds, sniff, loadBalancing, "_local");
+        return new ElasticSearchBackend(clientManager, ProductOutputField.getSearchFields(ProductOutputField.values()), true, 1, 0, 0,
+                5000, new RetryPolicy(3, 10, new CircuitBreaker(0, 0)));
+    }
+
+    /**
+     * Replaces the 'pod' index with one whose document ids are generated by
+     * Elasticsearch, like an index built by a DataCleaner job.
+     */
+    private void reindexWithGeneratedIds() throws Exception {
+        final Client client = cluster.getClient();
+        client.admin().indices().prepareDelete(ProductMatchTransformer.INDEX_NAME).get();
+        final BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (Map<String, Object> product : PodFixture.readProducts()) {
+            bulk.add(client.prepareIndex(ProductMatchTransformer.INDEX_NAME, ProductMatchTransformer.DOCUMENT_TYPE)
+                    .setSource(product));
+        }
+        bulk.get();
+    }
+
+    private long getConnectedNodeCount() {
+        final Map<String, Number> metrics = new LinkedHashMap<>();
+        backend.addMetrics(metrics);
+        return metrics.get(ProductMatchResult.METRIC_CONNECTED_NODES).longValue();
+    }
+
+    private Map<String, Long> getGetCounts() {
+        final Map<String, Long> getCounts = new HashMap<>();
+        for (NodeStats nodeStats : cluster.getClient().admin().cluster().prepareNodesStats().setIndices(true).get()
+                .getNodes()) {
+            getCounts.put(nodeStats.getNode().getName(), nodeStats.getIndices().getGet().getCount());
+        }
+        return getCounts;
+    }
+}
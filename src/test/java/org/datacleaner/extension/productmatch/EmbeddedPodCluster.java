@@ -0,0 +1,105 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.action.admin.cluster.node.info.NodeInfo;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+
+/**
+ * Local stand-in for a replicated POD Elasticsearch cluster: a number of
+ * embedded nodes in the same JVM, which discover each other through unicast on
+ * the loopback interface. The 'pod' index holds the {@link PodFixture}
+ * products, with a copy of every shard on every node.
+ */
+final class EmbeddedPodCluster implements Closeable {
+
+    // away from the default port 9300, so that a local 'productvm' does not
+    // join the cluster
+    private static final String PORT_RANGE = "9500-9520";
+
+    private final File _dataDirectory;
+    private final List<Node> _nodes = new ArrayList<>();
+
+    public EmbeddedPodCluster(int nodeCount) throws IOException {
+        _dataDirectory = Files.createTempDirectory("pod_cluster").toFile();
+        _dataDirectory.deleteOnExit();
+
+        for (int i = 0; i < nodeCount; i++) {
+            _nodes.add(NodeBuilder.nodeBuilder().clusterName(ProductMatchTransformer.INDEX_NAME)
+                    .settings(ImmutableSettings.settingsBuilder().put("node.name", "pod" + i)
+                            .put("path.home", _dataDirectory.getPath()).put("network.host", "127.0.0.1")
+                            .put("transport.tcp.port", PORT_RANGE).put("http.enabled", false)
+                            .put("discovery.zen.ping.multicast.enabled", false)
+                            .put("discovery.zen.ping.unicast.hosts", "127.0.0.1:" + PORT_RANGE)
+                            .put("node.max_local_storage_nodes", nodeCount)).node());
+        }
+
+        final Client client = getClient();
+        client.admin().cluster().prepareHealth().setWaitForNodes(Integer.toString(nodeCount)).get();
+        client.admin().indices().prepareCreate(ProductMatchTransformer.INDEX_NAME)
+                .setSettings(ImmutableSettings.settingsBuilder().put("number_of_shards", 2)
+                        .put("number_of_replicas", nodeCount - 1)).get();
+
+        final BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (Map<String, Object> product : PodFixture.readProducts()) {
+            bulk.add(client.prepareIndex(ProductMatchTransformer.INDEX_NAME, ProductMatchTransformer.DOCUMENT_TYPE,
+                    (String) product.get(ProductSearchField.GTIN_CD.getFieldName())).setSource(product));
+        }
+        bulk.get();
+        client.admin().cluster().prepareHealth(ProductMatchTransformer.INDEX_NAME).setWaitForGreenStatus().get();
+    }
+
+    /**
+     * Gets a client of the first running node.
+     *
+     * @return
+     */
+    public Client getClient() {
+        return _nodes.get(0).client();
+    }
+
+    /**
+     * Gets the transport addresses of the running nodes, as 'hostname:port'.
+     *
+     * @return
+     */
+    public List<String> getAddresses() {
+        final List<String> addresses = new ArrayList<>();
+        for (NodeInfo nodeInfo : getClient().admin().cluster().prepareNodesInfo().setTransport(true).get()
+                .getNodes()) {
+            final InetSocketTransportAddress address = (InetSocketTransportAddress) nodeInfo.getTransport()
+                    .address().publishAddress();
+            addresses.add(address.address().getHostString() + ":" + address.address().getPort());
+        }
+        return addresses;
+    }
+
+    /**
+     * Stops one of the nodes. The remaining nodes still hold a copy of every
+     * shard.
+     *
+     * @param index
+     */
+    public void stopNode(int index) {
+        _nodes.remove(index).close();
+    }
+
+    @Override
+    public void close() {
+        for (Node node : _nodes) {
+            node.close();
+        }
+        _nodes.clear();
+    }
+}
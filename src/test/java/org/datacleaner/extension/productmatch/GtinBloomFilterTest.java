@@ -0,0 +1,62 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class GtinBloomFilterTest {
+
+    private static final long FIRST_GTIN = 7894900000000L;
+
+    @Test
+    public void testNoFalseNegativesAndFalsePositiveRate() throws Exception {
+        final int count = 10000;
+        final GtinBloomFilter filter = GtinBloomFilter.create(count, 0.01);
+        for (int i = 0; i < count; i++) {
+            filter.add(FIRST_GTIN + i);
+        }
+
+        for (int i = 0; i < count; i++) {
+            assertTrue(filter.mightContain(FIRST_GTIN + i));
+        }
+
+        int falsePositives = 0;
+        final int probes = 100000;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain(FIRST_GTIN + count + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < probes * 0.02);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        final GtinBloomFilter filter = GtinBloomFilter.create(1000, 0.01);
+        filter.add(300743288131L);
+
+        final File file = File.createTempFile("gtin_filter", ".bin");
+        file.deleteOnExit();
+        filter.save(file);
+
+        final GtinBloomFilter loadedFilter = GtinBloomFilter.load(file);
+        assertEquals(filter.getHashCount(), loadedFilter.getHashCount());
+        assertEquals(filter.getBitCount(), loadedFilter.getBitCount());
+        assertTrue(loadedFilter.mightContain(300743288131L));
+    }
+
+    @Test
+    public void testCreateFromBackend() throws Exception {
+        try (ProductMatchBackend backend = PodFixture.createBackend()) {
+            final GtinBloomFilter filter = GtinBloomFilter.create(backend, 0.01);
+            for (Map<String, Object> product : PodFixture.readProducts()) {
+                final Object gtinCode = product.get(ProductSearchField.GTIN_CD.getFieldName());
+                assertTrue(gtinCode.toString(), filter.mightContain(GtinUtils.parseGtin(gtinCode)));
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.datacleaner.api.InputColumn;
+import org.datacleaner.data.MockInputColumn;
+import org.datacleaner.data.MockInputRow;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import cern.colt.Arrays;
+
+public class GtinBulkEnricherTest {
+
+    private static final String[] GTIN_CODES = { "300743288131", "765390-68309", "0076539068309", "4006381333931",
+            "9999999999999", "not a code", "", null };
+
+    private static File indexDirectory;
+
+    @BeforeClass
+    public static void createIndex() throws Exception {
+        indexDirectory = PodFixture.createIndex();
+    }
+
+    @Test
+    public void testSameOutputAsTransformer() throws Exception {
+        final MockInputColumn<String> gtin = new MockInputColumn<>("gtin");
+        final ProductMatchTransformer transformer = new ProductMatchTransformer();
+        transformer.inputColumns = new InputColumn[] { gtin };
+        transformer.inputMapping = new ProductInputField[] { ProductInputField.GTIN_CODE };
+        transformer.init(new LuceneBackend(indexDirectory));
+
+        try (GtinBulkEnricher enricher = new GtinBulkEnricher(new LuceneBackend(indexDirectory),
+                ProductOutputField.values(), true)) {
+            for (String gtinCode : GTIN_CODES) {
+                enricher.addGtin(gtinCode);
+            }
+            assertEquals(2, enricher.fetch());
+            // the invalid check digit and the unparseable codes are not fetched
+            assertEquals(3, enricher.getDistinctGtinCount());
+
+            for (String gtinCode : GTIN_CODES) {
+                assertEquals(gtinCode, Arrays.toString(transformer.transform(new MockInputRow().put(gtin, gtinCode))),
+                        Arrays.toString(enricher.enrich(gtinCode)));
+            }
+        } finally {
+            transformer.close();
+        }
+    }
+
+    @Test
+    public void testSelectedOutputFields() throws Exception {
+        final ProductOutputField[] outputFields = { ProductOutputField.MATCH_STATUS, ProductOutputField.GTIN_CODE,
+                ProductOutputField.BRAND_NAME };
+        try (GtinBulkEnricher enricher = new GtinBulkEnricher(new LuceneBackend(indexDirectory), outputFields, true)) {
+            enricher.addGtin("765390-68309");
+            enricher.fetch();
+
+            assertEquals("[Match status, GTIN code, Brand name]", Arrays.toString(enricher.getOutputColumnNames()));
+            assertEquals("[GOOD_MATCH, 0076539068309, Naturally Fresh]",
+                    Arrays.toString(enricher.enrich("765390-68309")));
+            // codes that were not fetched are looked up one by one
+            assertEquals("[GOOD_MATCH, 0300743288131, Abbott Laboratories]",
+                    Arrays.toString(enricher.enrich("300743288131")));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class GtinIndexFileTest {
+
+    @Test
+    public void testBuildAndLookup() throws Exception {
+        final File file = File.createTempFile("gtin_index", ".podidx");
+        file.deleteOnExit();
+
+        final GtinIndexFileBuilder builder = new GtinIndexFileBuilder(file);
+        // added out of order on purpose
+        builder.add(76539068309L, createProduct("0076539068309", "Bbq Sauce", "Naturally Fresh", null));
+        builder.add(300743288131L, createProduct("0300743288131", "1 Er Tablets", "Abbott Laboratories", "Healthcare"));
+        builder.add(7894900011517L, createProduct("7894900011517", "Coca Cola 2 litros", "Coca-Cola",
+                "Food/Beverage/Tobacco"));
+        builder.build();
+
+        final GtinIndexFile index = new GtinIndexFile(file);
+        assertEquals(3, index.getEntryCount());
+
+        final Map<ProductSearchField, Object> product = index.lookup(300743288131L);
+        assertEquals("0300743288131", product.get(ProductSearchField.GTIN_CD));
+        assertEquals("1 Er Tablets", product.get(ProductSearchField.GTIN_NM));
+        assertEquals("Abbott Laboratories", product.get(ProductSearchField.BRAND_NM));
+        assertEquals("Healthcare", product.get(ProductSearchField.GPC_SEGMENT));
+
+        assertEquals("Bbq Sauce", index.lookup(76539068309L).get(ProductSearchField.GTIN_NM));
+        assertNull(index.lookup(76539068309L).get(ProductSearchField.GPC_SEGMENT));
+        assertEquals("Coca-Cola", index.lookup(7894900011517L).get(ProductSearchField.BRAND_NM));
+
+        assertTrue(index.contains(7894900011517L));
+        assertFalse(index.contains(9999999999999L));
+        assertNull(index.lookup(9999999999999L));
+
+        index.close();
+        try {
+            index.lookup(300743288131L);
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("GTIN index file is closed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testDuplicateCodesKeepLastProduct() throws Exception {
+        final File file = File.createTempFile("gtin_index", ".podidx");
+        file.deleteOnExit();
+
+        final GtinIndexFileBuilder builder = new GtinIndexFileBuilder(file);
+        builder.add(76539068309L, createProduct("0076539068309", "Bbq Sauce", "Naturally Fresh", null));
+        builder.add(7894900011517L, createProduct("7894900011517", "Coca Cola 2 litros", "Coca-Cola", null));
+        builder.add(76539068309L, createProduct("0076539068309", "Bbq Sauce Original", "Naturally Fresh", null));
+        builder.add(76539068309L, createProduct("0076539068309", "Bbq Sauce Smoky", "Naturally Fresh", null));
+        builder.build();
+
+        final GtinIndexFile index = new GtinIndexFile(file);
+        assertEquals(2, index.getEntryCount());
+        assertEquals("Bbq Sauce Smoky", index.lookup(76539068309L).get(ProductSearchField.GTIN_NM));
+        assertEquals("Coca Cola 2 litros", index.lookup(7894900011517L).get(ProductSearchField.GTIN_NM));
+        index.close();
+    }
+
+    @Test
+    public void testTruncateLongValuesOnCharacterBoundary() throws Exception {
+        final File file = File.createTempFile("gtin_index", ".podidx");
+        file.deleteOnExit();
+
+        // 'é' takes two bytes, so the limit of 32767 bytes falls inside one
+        final StringBuilder name = new StringBuilder();
+        while (name.length() < 20000) {
+            name.append('\u00e9');
+        }
+
+        final GtinIndexFileBuilder builder = new GtinIndexFileBuilder(file);
+        builder.add(76539068309L, createProduct("0076539068309", name.toString(), "Naturally Fresh", null));
+        builder.build();
+
+        final GtinIndexFile index = new GtinIndexFile(file);
+        final Map<ProductSearchField, Object> product = index.lookup(76539068309L);
+        assertEquals(name.substring(0, 16383), product.get(ProductSearchField.GTIN_NM));
+        assertEquals("Naturally Fresh", product.get(ProductSearchField.BRAND_NM));
+        index.close();
+    }
+
+    @Test
+    public void testRejectUnknownVersion() throws Exception {
+        final File file = File.createTempFile("gtin_index", ".podidx");
+        file.deleteOnExit();
+
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(GtinIndexFile.MAGIC);
+            out.writeInt(GtinIndexFile.FORMAT_VERSION + 1);
+            out.writeInt(0);
+        }
+
+        try {
+            new GtinIndexFile(file);
+            fail("Exception expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Unsupported GTIN index format version"));
+        }
+    }
+
+    private Map<ProductSearchField, Object> createProduct(String gtin, String name, String brand, String segment) {
+        final Map<ProductSearchField, Object> product = new EnumMap<>(ProductSearchField.class);
+        product.put(ProductSearchField.GTIN_CD, gtin);
+        product.put(ProductSearchField.GTIN_NM, name);
+        product.put(ProductSearchField.BRAND_NM, brand);
+        product.put(ProductSearchField.GPC_SEGMENT, segment);
+        return product;
+    }
+}
@@ -0,0 +1,46 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class GtinProductTableTest {
+
+    @Test
+    public void testPutAndGet() {
+        final Map<ProductSearchField, Object> product = Collections
+                .<ProductSearchField, Object> singletonMap(ProductSearchField.GTIN_NM, "Bbq Sauce");
+        final GtinProductTable table = new GtinProductTable(10);
+        table.put(76539068309L, product);
+        table.put(0, product);
+
+        assertSame(product, table.get(76539068309L));
+        assertSame(product, table.get(0));
+        assertNull(table.get(76539068310L));
+        assertNull(table.get(GtinUtils.INVALID));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void testGrowBeyondExpectedSize() {
+        final GtinProductTable table = new GtinProductTable(0);
+        for (int i = 0; i < 10000; i++) {
+            table.put(2000000000000L + i,
+                    Collections.<ProductSearchField, Object> singletonMap(ProductSearchField.GTIN_NM, "Filler " + i));
+        }
+        // replacing a product does not add an entry
+        table.put(2000000000000L, Collections.<ProductSearchField, Object> emptyMap());
+
+        assertEquals(10000, table.size());
+        assertEquals(Collections.emptyMap(), table.get(2000000000000L));
+        for (int i = 1; i < 10000; i++) {
+            assertEquals("Filler " + i, table.get(2000000000000L + i).get(ProductSearchField.GTIN_NM));
+        }
+        assertNull(table.get(2000000010000L));
+    }
+}
@@ -0,0 +1,44 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GtinUtilsTest {
+
+    @Test
+    public void testParseGtin() throws Exception {
+        assertEquals(300743288131L, GtinUtils.parseGtin("0300743288131"));
+        assertEquals(123423499L, GtinUtils.parseGtin(" 12-34_234 9_9 "));
+        assertEquals(76539068309L, GtinUtils.parseGtin("765390-68309"));
+        assertEquals(2L, GtinUtils.parseGtin(2));
+        assertEquals(GtinUtils.INVALID, GtinUtils.parseGtin(""));
+        assertEquals(GtinUtils.INVALID, GtinUtils.parseGtin(" - "));
+        assertEquals(GtinUtils.INVALID, GtinUtils.parseGtin("12a4"));
+        assertEquals(GtinUtils.INVALID, GtinUtils.parseGtin("1234567890123456789"));
+        assertEquals(GtinUtils.INVALID, GtinUtils.parseGtin(null));
+    }
+
+    @Test
+    public void testFormatGtin() throws Exception {
+        assertEquals("0000000000002", GtinUtils.formatGtin(2));
+        assertEquals("0300743288131", GtinUtils.formatGtin(300743288131L));
+        assertEquals("9999999999999", GtinUtils.formatGtin(9999999999999L));
+        assertEquals("10614141000415", GtinUtils.formatGtin(10614141000415L));
+    }
+
+    @Test
+    public void testIsValidCheckDigit() throws Exception {
+        assertTrue(GtinUtils.isValidCheckDigit(300743288131L));
+        assertTrue(GtinUtils.isValidCheckDigit(7894900011517L));
+        assertTrue(GtinUtils.isValidCheckDigit(76539068309L));
+        // GTIN-14
+        assertTrue(GtinUtils.isValidCheckDigit(10614141000415L));
+
+        assertFalse(GtinUtils.isValidCheckDigit(9999999999999L));
+        assertFalse(GtinUtils.isValidCheckDigit(300743288132L));
+        assertFalse(GtinUtils.isValidCheckDigit(GtinUtils.INVALID));
+    }
+}
@@ -0,0 +1,91 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class HeavyHitterSketchTest {
+
+    @Test
+    public void testTopValuesOfLongTail() throws Exception {
+        final HeavyHitterSketch sketch = new HeavyHitterSketch(3);
+        // a long tail of 100,000 values that occur once, with three values
+        // that occur often spread over it
+        for (int i = 0; i < 100000; i++) {
+            sketch.add("product " + i);
+            if (i % 10 == 0) {
+                sketch.add("Coca-Cola");
+            }
+            if (i % 20 == 0) {
+                sketch.add("Nestle");
+            }
+            if (i % 50 == 0) {
+                sketch.add("Mars");
+            }
+        }
+
+        final Map<String, Long> topValues = sketch.getTopValues();
+        assertEquals("[Coca-Cola, Nestle, Mars]", topValues.keySet().toString());
+        // estimates never undercount, and overcount by a small fraction
+        assertTrue(topValues.get("Coca-Cola") >= 10000);
+        assertTrue(topValues.get("Coca-Cola") < 10000 + 500);
+        assertTrue(topValues.get("Mars") >= 2000);
+        assertEquals(117000, sketch.getTotalCount());
+    }
+
+    @Test
+    public void testFewerValuesThanCapacity() throws Exception {
+        final HeavyHitterSketch sketch = new HeavyHitterSketch(10);
+        sketch.add("b");
+        sketch.add("a");
+        sketch.add("b");
+        sketch.add(null);
+
+        final Map<String, Long> topValues = sketch.getTopValues();
+        assertEquals("{b=2, a=1}", topValues.toString());
+        assertEquals(0, sketch.getEstimate("c"));
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        final HeavyHitterSketch sketch = new HeavyHitterSketch(2);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                final int offset = thread * 10000;
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < 10000; i++) {
+                            sketch.add("unique " + (offset + i));
+                            sketch.add(i % 2 == 0 ? "even" : "odd");
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        final Map<String, Long> topValues = sketch.getTopValues();
+        // both are equally frequent, so their order depends on collisions
+        assertEquals(new HashSet<>(Arrays.asList("even", "odd")), topValues.keySet());
+        assertTrue(topValues.get("even") >= 20000);
+        assertTrue(topValues.get("odd") >= 20000);
+        assertEquals(80000, sketch.getTotalCount());
+    }
+}
@@ -0,0 +1,61 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMillis(), 0);
+        assertEquals(0, histogram.getPercentileMillis(0.99), 0);
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i, TimeUnit.MILLISECONDS);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMeanMillis(), 0.001);
+        assertEquals(1000, histogram.getMaxMillis(), 0);
+        assertEquals(500, histogram.getPercentileMillis(0.5), 500 * 0.125);
+        assertEquals(950, histogram.getPercentileMillis(0.95), 950 * 0.125);
+        assertEquals(990, histogram.getPercentileMillis(0.99), 990 * 0.125);
+        assertEquals(1000, histogram.getPercentileMillis(1), 0);
+    }
+
+    @Test
+    public void testSmallLatenciesAreExact() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3, TimeUnit.MICROSECONDS);
+        histogram.record(7, TimeUnit.MICROSECONDS);
+
+        assertEquals(0.003, histogram.getPercentileMillis(0.5), 0);
+        assertEquals(0.007, histogram.getPercentileMillis(1), 0);
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        final LatencyHistogram histogram1 = new LatencyHistogram();
+        final LatencyHistogram histogram2 = new LatencyHistogram();
+        for (int i = 1; i <= 500; i++) {
+            histogram1.record(i, TimeUnit.MILLISECONDS);
+            histogram2.record(i + 500, TimeUnit.MILLISECONDS);
+        }
+
+        histogram1.add(histogram2);
+        assertEquals(1000, histogram1.getCount());
+        assertEquals(500.5, histogram1.getMeanMillis(), 0.001);
+        assertEquals(1000, histogram1.getMaxMillis(), 0);
+        assertEquals(950, histogram1.getPercentileMillis(0.95), 950 * 0.125);
+        assertEquals(500, histogram2.getCount());
+    }
+}
@@ -0,0 +1,120 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LuceneBackendTest {
+
+    private File directory;
+    private LuceneBackend backend;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("pod_lucene").toFile();
+        directory.deleteOnExit();
+
+        try (LuceneIndexBuilder builder = new LuceneIndexBuilder(directory)) {
+            builder.add(createProduct("7894900011517", "Coca Cola 2 litros", "Coca-Cola", "Food/Beverage/Tobacco"));
+            builder.add(createProduct("0049000006131", "Caffeine Free", "Coca-Cola", "Food/Beverage/Tobacco"));
+            builder.add(createProduct("0082493500007", "Star Wars Imperial Star Destroyer", "Lego", "Toys/Games"));
+            builder.add(createProduct("0300743288131", "1 Er Tablets", "Abbott Laboratories", "Healthcare"));
+        }
+
+        backend = new LuceneBackend(directory);
+    }
+
+    @After
+    public void tearDown() {
+        backend.close();
+    }
+
+    @Test
+    public void testLookupGtin() throws Exception {
+        final Map<ProductSearchField, Object> product = backend.lookupGtin("0300743288131");
+        assertNotNull(product);
+        assertEquals("1 Er Tablets", product.get(ProductSearchField.GTIN_NM));
+        assertEquals("Healthcare", product.get(ProductSearchField.GPC_SEGMENT));
+        assertFalse(product.containsKey(ProductSearchField.SCORE));
+
+        assertNull(backend.lookupGtin("9999999999999"));
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        final Map<ProductSearchField, Object> input = new EnumMap<>(ProductSearchField.class);
+        input.put(ProductSearchField.BRAND_NM, "Lego");
+        input.put(ProductSearchField.GTIN_NM, "Star wars destroyer");
+
+        final Map<ProductSearchField, Object> product = backend.search(input);
+        assertEquals("0082493500007", product.get(ProductSearchField.GTIN_CD));
+        assertNotNull(product.get(ProductSearchField.SCORE));
+    }
+
+    @Test
+    public void testSearchDescription() throws Exception {
+        final Map<ProductSearchField, Object> input = new EnumMap<>(ProductSearchField.class);
+        input.put(ProductSearchField.ALL, "caffeine free coca-cola");
+
+        final Map<ProductSearchField, Object> product = backend.search(input);
+        assertEquals("0049000006131", product.get(ProductSearchField.GTIN_CD));
+    }
+
+    @Test
+    public void testSearchNoMatch() throws Exception {
+        final Map<ProductSearchField, Object> input = new EnumMap<>(ProductSearchField.class);
+        input.put(ProductSearchField.ALL, "helloworldabracadabra");
+
+        assertNull(backend.search(input));
+    }
+
+    @Test
+    public void testLoadSelectedFields() throws Exception {
+        try (LuceneBackend projectingBackend = new LuceneBackend(directory, EnumSet.of(ProductSearchField.GTIN_NM))) {
+            final Map<ProductSearchField, Object> product = projectingBackend.lookupGtin("0300743288131");
+            assertEquals("1 Er Tablets", product.get(ProductSearchField.GTIN_NM));
+            assertFalse(product.containsKey(ProductSearchField.BRAND_NM));
+            assertFalse(product.containsKey(ProductSearchField.GPC_SEGMENT));
+        }
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        backend.verify();
+
+        final File otherDirectory = Files.createTempDirectory("pod_lucene").toFile();
+        otherDirectory.deleteOnExit();
+        try (LuceneIndexBuilder builder = new LuceneIndexBuilder(otherDirectory)) {
+            builder.add(createProduct(null, "Coca Cola 2 litros", "Coca-Cola", "Food/Beverage/Tobacco"));
+        }
+        try (LuceneBackend otherBackend = new LuceneBackend(otherDirectory)) {
+            otherBackend.verify();
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("The Lucene index has no products with a GTIN_CD field. Build it with LuceneIndexBuilder",
+                    e.getMessage());
+        }
+    }
+
+    private Map<String, Object> createProduct(String gtin, String name, String brand, String segment) {
+        final Map<String, Object> product = new HashMap<>();
+        product.put(ProductSearchField.GTIN_CD.getFieldName(), gtin);
+        product.put(ProductSearchField.GTIN_NM.getFieldName(), name);
+        product.put(ProductSearchField.BRAND_NM.getFieldName(), brand);
+        product.put(ProductSearchField.GPC_SEGMENT.getFieldName(), segment);
+        return product;
+    }
+}
@@ -0,0 +1,106 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.datacleaner.api.InputColumn;
+import org.datacleaner.data.MockInputColumn;
+import org.datacleaner.data.MockInputRow;
+import org.junit.Test;
+
+public class MatchCacheTest {
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        final MatchCache cache = new MatchCache(100, 0);
+
+        final MatchKey key = MatchCache.createKey(createInput(ProductSearchField.ALL,
+                "Fanta 6 pack"));
+        assertNull(cache.get(key));
+        cache.put(key, ProductMatch.NO_MATCH);
+
+        assertSame(ProductMatch.NO_MATCH,
+                cache.get(MatchCache.createKey(createInput(ProductSearchField.ALL, " fanta 6 PACK"))));
+        assertNull(cache.get(MatchCache.createKey(createInput(ProductSearchField.ALL, "Mars bar"))));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+
+        // peeking is not counted
+        assertSame(ProductMatch.NO_MATCH, cache.peek(key));
+        assertNull(cache.peek(MatchCache.createKey(createInput(ProductSearchField.ALL, "Mars bar"))));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testGtinKeysAreNormalized() throws Exception {
+        final MatchCache cache = new MatchCache(100, 0);
+
+        cache.put(MatchCache.createKey(createInput(ProductSearchField.GTIN_CD, "765390-68309")),
+                ProductMatch.SKIPPED);
+        assertSame(ProductMatch.SKIPPED,
+                cache.get(MatchCache.createKey(createInput(ProductSearchField.GTIN_CD, "0076539068309"))));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        // one entry per segment
+        final MatchCache cache = new MatchCache(1, 0);
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(MatchCache.createKey(createInput(ProductSearchField.GTIN_NM, "product " + i)),
+                    ProductMatch.NO_MATCH);
+        }
+        // at most one entry is retained in each of the 16 segments
+        assertTrue(cache.getEvictionCount() >= 100 - 16);
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        final MatchCache cache = new MatchCache(100, 1);
+
+        final MatchKey key = MatchCache.createKey(createInput(ProductSearchField.ALL,
+                "Mars bar"));
+        cache.put(key, ProductMatch.NO_MATCH);
+        Thread.sleep(10);
+
+        assertNull(cache.get(key));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testKeysOfBufferedRows() throws Exception {
+        final MockInputColumn<String> gtin = new MockInputColumn<>("gtin");
+        final MockInputColumn<String> brand = new MockInputColumn<>("brand");
+        final MockInputColumn<String> description = new MockInputColumn<>("description");
+        final InputBuffer input = new InputBuffer(new InputColumn[] { gtin, brand, description },
+                InputBuffer.getFieldColumns(new ProductSearchField[] { ProductSearchField.GTIN_CD,
+                        ProductSearchField.ALL, ProductSearchField.ALL }), 0);
+
+        input.read(new MockInputRow().put(gtin, "765390-68309").put(brand, " Coca-Cola").put(description, "Zero "));
+        final MatchKey key = input.getKey();
+        assertEquals(MatchCache.createKey(input.toMap()), key);
+
+        final Map<ProductSearchField, Object> map = new EnumMap<>(ProductSearchField.class);
+        map.put(ProductSearchField.GTIN_CD, "0076539068309");
+        map.put(ProductSearchField.ALL, "coca-cola zero");
+        assertEquals(MatchCache.createKey(map), key);
+
+        // the key is reused for the next row
+        input.read(new MockInputRow().put(brand, "Coca-Cola"));
+        assertEquals(MatchCache.createKey(createInput(ProductSearchField.ALL, "coca-cola")), input.getKey());
+    }
+
+    private Map<ProductSearchField, Object> createInput(ProductSearchField field, Object value) {
+        final Map<ProductSearchField, Object> input = new EnumMap<>(ProductSearchField.class);
+        input.put(field, value);
+        return input;
+    }
+}
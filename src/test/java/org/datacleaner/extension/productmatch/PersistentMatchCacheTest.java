@@ -0,0 +1,170 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersistentMatchCacheTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("match_cache", ".podcache");
+        file.delete();
+        file.deleteOnExit();
+    }
+
+    @Test
+    public void testStoreAndReopen() throws Exception {
+        final Map<ProductSearchField, Object> product = new EnumMap<>(ProductSearchField.class);
+        product.put(ProductSearchField.GTIN_CD, "7894900011517");
+        product.put(ProductSearchField.GTIN_NM, "Coca Cola 2 litros");
+        product.put(ProductSearchField.BRAND_NM, "Coca-Cola");
+        product.put(ProductSearchField.GPC_SEGMENT, null);
+        product.put(ProductSearchField.SCORE, 8.25f);
+
+        PersistentMatchCache cache = new PersistentMatchCache(file, "v1", 100);
+        assertNull(cache.get(createKey("Coca-cola 2")));
+        assertTrue(cache.put(createKey("Coca-cola 2"),
+                new ProductMatch(ProductMatchTransformer.MATCH_STATUS_GOOD, product)));
+        assertTrue(cache.put(createKey("Unknown"), ProductMatch.NO_MATCH));
+        assertFalse(cache.put(createKey("Unknown"), ProductMatch.NO_MATCH));
+        // failures are not results of the POD data
+        assertFalse(cache.put(createKey("Timed out"), ProductMatch.TIMEOUT));
+        assertEquals(2, cache.getEntryCount());
+        cache.close();
+
+        cache = new PersistentMatchCache(file, "v1", 100);
+        assertEquals(2, cache.getEntryCount());
+        final ProductMatch match = cache.get(createKey("  COCA-COLA 2 "));
+        assertEquals(ProductMatchTransformer.MATCH_STATUS_GOOD, match.getMatchStatus());
+        assertEquals("7894900011517", match.getProduct().get(ProductSearchField.GTIN_CD));
+        assertEquals("Coca Cola 2 litros", match.getProduct().get(ProductSearchField.GTIN_NM));
+        assertEquals("Coca-Cola", match.getProduct().get(ProductSearchField.BRAND_NM));
+        assertEquals(8.25f, match.getProduct().get(ProductSearchField.SCORE));
+        assertFalse(match.getProduct().containsKey(ProductSearchField.GPC_SEGMENT));
+        assertSame(ProductMatch.NO_MATCH, cache.get(createKey("unknown")));
+        assertNull(cache.get(createKey("Timed out")));
+        assertEquals(2, cache.getHitCount());
+        cache.close();
+    }
+
+    @Test
+    public void testClearedWhenTagChanges() throws Exception {
+        PersistentMatchCache cache = new PersistentMatchCache(file, "v1", 100);
+        cache.put(createKey("Unknown"), ProductMatch.NO_MATCH);
+        cache.close();
+
+        cache = new PersistentMatchCache(file, "v2", 100);
+        assertEquals(0, cache.getEntryCount());
+        assertNull(cache.get(createKey("Unknown")));
+        cache.close();
+    }
+
+    @Test
+    public void testClearedWhenNotClosed() throws Exception {
+        final File copy = File.createTempFile("match_cache_copy", ".podcache");
+        copy.deleteOnExit();
+
+        final PersistentMatchCache cache = new PersistentMatchCache(file, "v1", 100);
+        cache.put(createKey("Unknown"), ProductMatch.NO_MATCH);
+        // the state of the file if the job had crashed now
+        Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        cache.close();
+
+        PersistentMatchCache reopened = new PersistentMatchCache(copy, "v1", 100);
+        assertEquals(0, reopened.getEntryCount());
+        assertNull(reopened.get(createKey("Unknown")));
+        reopened.close();
+
+        reopened = new PersistentMatchCache(file, "v1", 100);
+        assertEquals(1, reopened.getEntryCount());
+        reopened.close();
+    }
+
+    @Test
+    public void testStopsStoringWhenFull() throws Exception {
+        final PersistentMatchCache cache = new PersistentMatchCache(file, "v1", 10);
+        int stored = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.put(createKey("input " + i), ProductMatch.NO_MATCH)) {
+                stored++;
+            }
+        }
+        assertEquals(10, stored);
+        assertSame(ProductMatch.NO_MATCH, cache.get(createKey("input 0")));
+        assertSame(ProductMatch.NO_MATCH, cache.get(createKey("input 9")));
+        assertNull(cache.get(createKey("input 10")));
+        cache.close();
+    }
+
+    @Test
+    public void testGrowsFile() throws Exception {
+        final StringBuilder name = new StringBuilder();
+        while (name.length() < 500) {
+            name.append("Coca Cola 2 litros ");
+        }
+        final Map<ProductSearchField, Object> product = new EnumMap<>(ProductSearchField.class);
+        product.put(ProductSearchField.GTIN_NM, name.toString());
+        final ProductMatch match = new ProductMatch(ProductMatchTransformer.MATCH_STATUS_GOOD, product);
+
+        PersistentMatchCache cache = new PersistentMatchCache(file, "v1", 10000);
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(cache.put(createKey("input " + i), match));
+        }
+        cache.close();
+
+        cache = new PersistentMatchCache(file, "v1", 10000);
+        assertEquals(5000, cache.getEntryCount());
+        assertEquals(name.toString(), cache.get(createKey("input 4999")).getProduct().get(ProductSearchField.GTIN_NM));
+        cache.close();
+    }
+
+    @Test
+    public void testRejectFileInUse() throws Exception {
+        final PersistentMatchCache cache = new PersistentMatchCache(file, "v1", 100);
+        try {
+            new PersistentMatchCache(file, "v1", 100);
+            fail("Exception expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Persistent match cache file is in use by another job"));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testRejectOtherFiles() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[8192]);
+        }
+        try {
+            new PersistentMatchCache(file, "v1", 100);
+            fail("Exception expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Not a persistent match cache file"));
+        }
+    }
+
+    private static MatchKey createKey(String text) {
+        final MatchKey key = new MatchKey();
+        key.putField(ProductSearchField.ALL, text);
+        key.finish();
+        return key;
+    }
+}
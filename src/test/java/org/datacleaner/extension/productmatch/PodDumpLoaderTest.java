@@ -0,0 +1,21 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class PodDumpLoaderTest {
+
+    @Test
+    public void testDocumentIdIsNormalizedGtinCode() throws Exception {
+        assertEquals("0076539068309",
+                PodDumpLoader.getDocumentId(Collections.<String, Object> singletonMap("GTIN_CD", "76539068309")));
+        assertEquals("0076539068309",
+                PodDumpLoader.getDocumentId(Collections.<String, Object> singletonMap("GTIN_CD", "0076539068309")));
+        assertNull(PodDumpLoader.getDocumentId(Collections.<String, Object> singletonMap("GTIN_CD", "n/a")));
+        assertNull(PodDumpLoader.getDocumentId(Collections.<String, Object> emptyMap()));
+    }
+}
@@ -0,0 +1,98 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PodDumpReaderTest {
+
+    private static final String[] LOOKUP_TABLES = {
+            "CREATE TABLE `brand` (",
+            "  `BSIN` varchar(6) NOT NULL,",
+            "  `BRAND_NM` varchar(255) DEFAULT NULL,",
+            "  `BRAND_LINK` varchar(255) DEFAULT NULL",
+            ") ENGINE=InnoDB;",
+            "INSERT INTO `brand` VALUES ('ABC123','Coca-Cola','http://www.coca-cola.com');",
+            "CREATE TABLE `gs1_gcp` (",
+            "  `GCP_CD` varchar(13) NOT NULL,",
+            "  `GLN_NM` varchar(255) DEFAULT NULL,",
+            "  `GLN_ADDR_CITY` varchar(255) DEFAULT NULL,",
+            "  `GLN_COUNTRY_ISO_CD` varchar(2) DEFAULT NULL",
+            ") ENGINE=InnoDB;",
+            "INSERT INTO `gs1_gcp` VALUES ('5449000','Coca-Cola Services','Brussels','BE');",
+            "CREATE TABLE `gs1_gpc` (",
+            "  `GPC_LANG` varchar(2) NOT NULL,",
+            "  `GPC_CD` varchar(8) NOT NULL,",
+            "  `GPC_NM` varchar(255) DEFAULT NULL",
+            ") ENGINE=InnoDB;",
+            "INSERT INTO `gs1_gpc` VALUES ('EN','50000000','Food/Beverage/Tobacco'),"
+                    + "('FR','50000000','Alimentation'),('EN','10000232','Soft Drinks - Carbonated');" };
+
+    private static final String[] GTIN_TABLE = {
+            "CREATE TABLE `gtin` (",
+            "  `GTIN_CD` varchar(13) NOT NULL,",
+            "  `GCP_CD` varchar(13) DEFAULT NULL,",
+            "  `BSIN` varchar(6) DEFAULT NULL,",
+            "  `GPC_S_CD` varchar(8) DEFAULT NULL,",
+            "  `GPC_B_CD` varchar(8) DEFAULT NULL,",
+            "  `GTIN_NM` varchar(255) DEFAULT NULL,",
+            "  `M_ML` decimal(10,2) DEFAULT NULL,",
+            "  `PKG_UNIT` int(11) DEFAULT NULL",
+            ") ENGINE=InnoDB;",
+            "INSERT INTO `gtin` VALUES ('5449000000996','5449000','ABC123','50000000','10000232','Coca-Cola Classic',"
+                    + "330.00,1),('0000000000017',NULL,'NOBRND',NULL,NULL,'Unknown product',NULL,NULL),"
+                    + "(NULL,NULL,NULL,NULL,NULL,'No code',NULL,NULL);" };
+
+    private static PodDumpReader createReader(String[]... parts) {
+        final StringBuilder sb = new StringBuilder();
+        for (String[] lines : parts) {
+            for (String line : lines) {
+                sb.append(line).append('\n');
+            }
+        }
+        return new PodDumpReader(new SqlDumpParser(new BufferedReader(new StringReader(sb.toString()))));
+    }
+
+    @Test
+    public void testDenormalizeProducts() throws Exception {
+        final PodDumpReader reader = createReader(LOOKUP_TABLES, GTIN_TABLE);
+
+        final Map<String, Object> product = reader.nextProduct();
+        assertEquals("5449000000996", product.get("GTIN_CD"));
+        assertEquals("Coca-Cola Classic", product.get("GTIN_NM"));
+        assertEquals(330.0, product.get("M_ML"));
+        assertEquals(1L, product.get("PKG_UNIT"));
+        assertEquals("Coca-Cola", product.get("BRAND_NM"));
+        assertEquals("http://www.coca-cola.com", product.get("BRAND_LINK"));
+        assertEquals("Coca-Cola Services", product.get("GLN_NM"));
+        assertEquals("BE", product.get("GLN_COUNTRY_ISO_CD"));
+        assertEquals("Food/Beverage/Tobacco", product.get("GPC_SEGMENT"));
+        assertEquals("Soft Drinks - Carbonated", product.get("GPC_BRICK"));
+        assertFalse(product.containsKey("GPC_FAMILY"));
+
+        final Map<String, Object> unknownProduct = reader.nextProduct();
+        assertEquals("0000000000017", unknownProduct.get("GTIN_CD"));
+        assertEquals("NOBRND", unknownProduct.get("BSIN"));
+        assertFalse(unknownProduct.containsKey("BRAND_NM"));
+        assertFalse(unknownProduct.containsKey("GCP_CD"));
+
+        // the product without a GTIN code is skipped
+        assertNull(reader.nextProduct());
+        assertEquals(2, reader.getProductCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testLookupTableAfterProducts() throws Exception {
+        final PodDumpReader reader = createReader(GTIN_TABLE, LOOKUP_TABLES);
+        while (reader.nextProduct() != null) {
+            // read all
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.datacleaner.extension.productmatch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local stand-in for the POD database, for tests and load tests that should
+ * not depend on the 'productvm' Elasticsearch server. A subset of the POD
+ * products is kept in a tab-separated fixture file and indexed into a
+ * temporary, embedded Lucene index.
+ *
+ * The match verdicts are based on absolute scores, which depend on how rare
+ * the matched terms are in the whole index. The index is therefore padded with
+ * synthetic filler products, so that the fixture products score like they do
+ * among the 900,000 products of the real POD database. A few filler names use
+ * words that are common in real product names, since a query word that is not
+ * in the index at all would skew the scores of the words that are.
+ *
+ * Products that score equally are returned in the order of the fixture file,
+ * which is chosen to return the same product as the POD cluster.
+ */
+final class PodFixture {
+
+    private static final String RESOURCE_NAME = "pod_fixture.tsv";
+
+    private static final int FILLER_PRODUCTS = 10000;
+
+    // GS1 prefix 2 is reserved for restricted circulation, so no real product
+    // has these codes
+    private static final long FILLER_GTIN_BASE = 2000000000000L;
+
+    private static final String[] COMMON_WORDS = { "Life", "Original", "Classic", "Light" };
+    private static final int COMMON_WORD_INTERVAL = 250;
+
+    private PodFixture() {
+        // prevent instantiation
+    }
+
+    /**
+     * Reads the fixture products.
+     *
+     * @return the products, keyed by POD field name
+     * @throws IOException
+     */
+    public static List<Map<String, Object>> readProducts() throws IOException {
+        final InputStream inputStream = PodFixture.class.getClassLoader().getResourceAsStream(RESOURCE_NAME);
+        if (inputStream == null) {
+            throw new IOException("Fixture not found on classpath: " + RESOURCE_NAME);
+        }
+
+        final List<Map<String, Object>> products = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            final String[] header = reader.readLine().split("\t");
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final String[] values = line.split("\t", -1);
+                final Map<String, Object> product = new HashMap<>();
+                for (int i = 0; i < header.length && i < values.length; i++) {
+                    if (!values[i].isEmpty()) {
+                        product.put(header[i], values[i]);
+                    }
+                }
+                products.add(product);
+            }
+        }
+        return products;
+    }
+
+    /**
+     * Creates a temporary Lucene index of the fixture products, to use with
+     * {@link LuceneBackend}.
+     *
+     * @return the index directory
+     * @throws IOException
+     */
+    public static File createIndex() throws IOException {
+        final File directory = Files.createTempDirectory("pod_fixture").toFile();
+        directory.deleteOnExit();
+        try (LuceneIndexBuilder builder = new LuceneIndexBuilder(directory)) {
+            for (Map<String, Object> product : readProducts()) {
+                builder.add(product);
+            }
+            for (int i = 0; i < FILLER_PRODUCTS; i++) {
+                builder.add(createFillerProduct(i));
+            }
+        }
+        return directory;
+    }
+
+    private static Map<String, Object> createFillerProduct(int index) {
+        final Map<String, Object> product = new HashMap<>();
+        product.put(ProductSearchField.GTIN_CD.getFieldName(), GtinUtils.formatGtin(FILLER_GTIN_BASE + index));
+        final String word = index % COMMON_WORD_INTERVAL == 0 ? COMMON_WORDS[(index / COMMON_WORD_INTERVAL)
+                % COMMON_WORDS.length] : "Filler";
+        product.put(ProductSearchField.GTIN_NM.getFieldName(), word + " " + index);
+        product.put(ProductSearchField.BRAND_NM.getFieldName(), "Filler brand " + (index % 100));
+        return product;
+    }
+
+    /**
+     * Creates a backend that matches against the fixture products.
+     *
+     * @return
+     * @throws IOException
+     */
+    public static ProductMatchBackend createBackend() throws IOException {
+        return new LuceneBackend(createIndex());
+    }
+}
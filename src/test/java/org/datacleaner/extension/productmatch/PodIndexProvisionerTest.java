@@ -0,0 +1,70 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.Test;
+
+public class PodIndexProvisionerTest {
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getObject(Map<String, Object> map, String key) {
+        final Object value = map.get(key);
+        assertNotNull("Missing " + key, value);
+        return (Map<String, Object>) value;
+    }
+
+    private static Map<String, Object> createIndexDefinition(int shards, int replicas) throws Exception {
+        return XContentHelper.convertToMap(PodIndexProvisioner.createIndexDefinition(shards, replicas).bytes(),
+                true).v2();
+    }
+
+    @Test
+    public void testSettings() throws Exception {
+        final Map<String, Object> settings = getObject(createIndexDefinition(3, 2), "settings");
+        assertEquals(3, settings.get("number_of_shards"));
+        assertEquals(2, settings.get("number_of_replicas"));
+
+        final Map<String, Object> analyzer = getObject(getObject(getObject(settings, "analysis"), "analyzer"),
+                PodIndexProvisioner.TEXT_ANALYZER);
+        assertEquals("standard", analyzer.get("tokenizer"));
+        assertEquals("[lowercase, asciifolding]", analyzer.get("filter").toString());
+    }
+
+    @Test
+    public void testMapping() throws Exception {
+        final Map<String, Object> mapping = getObject(getObject(createIndexDefinition(1, 0), "mappings"),
+                ProductMatchTransformer.DOCUMENT_TYPE);
+        assertEquals(PodIndexProvisioner.TEXT_ANALYZER, getObject(mapping, "_all").get("analyzer"));
+
+        final Map<String, Object> properties = getObject(mapping, "properties");
+        final Map<String, Object> gtinCode = getObject(properties, "GTIN_CD");
+        assertEquals("not_analyzed", gtinCode.get("index"));
+        assertEquals(true, gtinCode.get("doc_values"));
+        assertEquals(false, gtinCode.get("include_in_all"));
+
+        final Map<String, Object> productName = getObject(properties, "GTIN_NM");
+        assertEquals(PodIndexProvisioner.TEXT_ANALYZER, productName.get("analyzer"));
+        assertNull(productName.get("include_in_all"));
+
+        assertEquals("float", getObject(properties, "M_G").get("type"));
+        assertEquals("no", getObject(properties, "GLN_ADDR_CITY").get("index"));
+    }
+
+    @Test
+    public void testAllSearchFieldsMapped() throws Exception {
+        final Map<String, Object> properties = getObject(getObject(getObject(createIndexDefinition(1, 0),
+                "mappings"), ProductMatchTransformer.DOCUMENT_TYPE), "properties");
+        for (ProductSearchField field : ProductSearchField.values()) {
+            if (!field.isPseudoField()) {
+                getObject(properties, field.getFieldName());
+            }
+        }
+        assertFalse(properties.containsKey("_all"));
+    }
+}
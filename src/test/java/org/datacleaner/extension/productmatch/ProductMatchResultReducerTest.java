@@ -0,0 +1,108 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ProductMatchResultReducerTest {
+
+    private static ProductMatchResult createResult(long goodMatches, long noMatches, String segment,
+            long cacheHits, long connectedNodes, double rowsPerSecond, long latencyMillis) {
+        final Map<String, Long> matchStatuses = new LinkedHashMap<>();
+        matchStatuses.put(ProductMatchTransformer.MATCH_STATUS_GOOD, goodMatches);
+        matchStatuses.put(ProductMatchTransformer.MATCH_STATUS_NO_MATCH, noMatches);
+
+        final Map<String, Long> segments = new LinkedHashMap<>();
+        segments.put(segment, goodMatches);
+
+        final Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put(ProductMatchResult.METRIC_CACHE_HITS, cacheHits);
+        metrics.put(ProductMatchResult.METRIC_CONNECTED_NODES, connectedNodes);
+        metrics.put(ProductMatchResult.METRIC_ROWS_PER_SECOND, rowsPerSecond);
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        latency.record(latencyMillis, TimeUnit.MILLISECONDS);
+        final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+        latencies.put(ProductMatchResult.LATENCY_GTIN_LOOKUP, latency);
+
+        return new ProductMatchResult(matchStatuses, segments, metrics, latencies);
+    }
+
+    @Test
+    public void testReduce() throws Exception {
+        final ProductMatchResult result = new ProductMatchResultReducer().reduce(Arrays.asList(
+                createResult(10, 2, "Food/Beverage/Tobacco", 5, 2, 100.0, 10),
+                createResult(20, 3, "Beauty/Personal Care/Hygiene", 7, 3, 150.0, 30)));
+
+        assertEquals(30L, result.getMatchStatuses().get(ProductMatchTransformer.MATCH_STATUS_GOOD));
+        assertEquals(5L, result.getMatchStatuses().get(ProductMatchTransformer.MATCH_STATUS_NO_MATCH));
+        assertEquals(10L, result.getSegments().get("Food/Beverage/Tobacco"));
+        assertEquals(20L, result.getSegments().get("Beauty/Personal Care/Hygiene"));
+
+        assertEquals(12L, result.getMetrics().get(ProductMatchResult.METRIC_CACHE_HITS));
+        assertEquals(3L, result.getMetrics().get(ProductMatchResult.METRIC_CONNECTED_NODES));
+        assertEquals(250.0, result.getMetrics().get(ProductMatchResult.METRIC_ROWS_PER_SECOND));
+
+        final LatencyHistogram latency = result.getLatencies().get(ProductMatchResult.LATENCY_GTIN_LOOKUP);
+        assertEquals(2, latency.getCount());
+        assertEquals(30, latency.getMaxMillis(), 0);
+    }
+
+    @Test
+    public void testReduceDoesNotModifyPartialResults() throws Exception {
+        final ProductMatchResult partialResult = createResult(10, 2, "Food/Beverage/Tobacco", 5, 2, 100.0, 10);
+        new ProductMatchResultReducer().reduce(Arrays.asList(partialResult, partialResult));
+
+        assertEquals(10L, partialResult.getMatchStatuses().get(ProductMatchTransformer.MATCH_STATUS_GOOD));
+        assertEquals(1, partialResult.getLatencies().get(ProductMatchResult.LATENCY_GTIN_LOOKUP).getCount());
+    }
+
+    @Test
+    public void testSerializedResultCanBeReduced() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(createResult(10, 2, "Food/Beverage/Tobacco", 5, 2, 100.0, 10));
+        }
+        final ProductMatchResult deserialized;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            deserialized = (ProductMatchResult) in.readObject();
+        }
+
+        final ProductMatchResult result = new ProductMatchResultReducer().reduce(Arrays.asList(deserialized,
+                createResult(1, 1, "Food/Beverage/Tobacco", 1, 1, 50.0, 20)));
+        assertEquals(11L, result.getMatchStatuses().get(ProductMatchTransformer.MATCH_STATUS_GOOD));
+        assertEquals(11L, result.getSegments().get("Food/Beverage/Tobacco"));
+        assertEquals(2, result.getLatencies().get(ProductMatchResult.LATENCY_GTIN_LOOKUP).getCount());
+    }
+
+    @Test
+    public void testReduceTopValues() throws Exception {
+        final Map<String, Long> topBrands1 = new LinkedHashMap<>();
+        topBrands1.put("Coca-Cola", 10L);
+        topBrands1.put("Mars", 5L);
+        final Map<String, Long> topBrands2 = new LinkedHashMap<>();
+        topBrands2.put("Nestle", 8L);
+        topBrands2.put("Mars", 4L);
+
+        final ProductMatchResult result = new ProductMatchResultReducer().reduce(Arrays.asList(
+                createResult(ProductMatchResult.TOP_BRANDS, topBrands1),
+                createResult(ProductMatchResult.TOP_BRANDS, topBrands2)));
+        assertEquals("{Coca-Cola=10, Mars=9}", result.getTopValues().get(ProductMatchResult.TOP_BRANDS).toString());
+    }
+
+    private static ProductMatchResult createResult(String topValuesName, Map<String, Long> topValues) {
+        final Map<String, Map<String, Long>> topValuesMap = new LinkedHashMap<>();
+        topValuesMap.put(topValuesName, topValues);
+        return new ProductMatchResult(new LinkedHashMap<String, Long>(), new LinkedHashMap<String, Long>(),
+                topValuesMap, new LinkedHashMap<String, Number>(), new LinkedHashMap<String, LatencyHistogram>());
+    }
+}
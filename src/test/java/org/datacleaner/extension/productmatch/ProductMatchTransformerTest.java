@@ -1,118 +1,450 @@
 package org.datacleaner.extension.productmatch;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.datacleaner.api.InputColumn;
+import org.datacleaner.api.InputRow;
 import org.datacleaner.data.MockInputColumn;
 import org.datacleaner.data.MockInputRow;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import cern.colt.Arrays;
 
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Runs the matching scenarios against the local {@link PodFixture}, or against
+ * the POD cluster selected by the usual system properties when
+ * {@link #PROPERTY_LIVE} is set, e.g. by the 'live' Maven profile. Scores are
+ * only compared against the cluster, since the embedded single-shard index
+ * scores differently. Tests of the transformer's own behaviour always use the
+ * fixture.
+ */
 public class ProductMatchTransformerTest {
 
+    static final String PROPERTY_LIVE = "org.datacleaner.extension.productmatch.test.live";
+
+    private static final boolean LIVE = Boolean.getBoolean(PROPERTY_LIVE);
+
     private final MockInputColumn<String> gtin = new MockInputColumn<>("gtin");
     private final MockInputColumn<String> product = new MockInputColumn<>("product");
     private final MockInputColumn<String> brand = new MockInputColumn<>("brand");
     private final MockInputColumn<String> description1 = new MockInputColumn<>("description1");
     private final MockInputColumn<String> description2 = new MockInputColumn<>("description2");
 
+    private static File indexDirectory;
+
+    private ProductMatchTransformer transformer;
+
+    @BeforeClass
+    public static void createIndex() throws Exception {
+        indexDirectory = PodFixture.createIndex();
+    }
+
+    @After
+    public void tearDown() {
+        if (transformer != null) {
+            transformer.close();
+        }
+    }
+
     @Test
     public void testPlainTextMatchCocaCola() throws Exception {
-        final ProductMatchTransformer transformer = createTransformer(description1, description2);
+        transformer = createTransformer(description1, description2);
 
         Object[] result = transformer
                 .transform(new MockInputRow().put(description1, "Coca-cola").put(description2, "2"));
-        assertEquals(
+        assertResult(
                 "[GOOD_MATCH, 7.8549566, 7894900011517, Coca Cola 2 litros||Refrigerantes | COCA COLA 2 LTRS, Coca-Cola, 5MRM4M, Food/Beverage/Tobacco, null, null, null]",
-                Arrays.toString(result));
+                result);
 
         result = transformer.transform(new MockInputRow().put(description1, "Coca cola zero 1 liter"));
-        assertEquals(
+        assertResult(
                 "[POTENTIAL_MATCH, 4.9360476, 7894900701753, COCA COLA ZERO 1,, Coca-Cola, 5MRM4M, Food/Beverage/Tobacco, null, null, null]",
-                Arrays.toString(result));
+                result);
     }
 
     @Test
     public void testMatchOnProductAndBrandCocaCola() throws Exception {
-
-        final ProductMatchTransformer transformer = createTransformer(product, brand);
+        transformer = createTransformer(product, brand);
 
         Object[] result = transformer.transform(new MockInputRow().put(brand, "Coca-cola").put(product, "Free"));
-        assertEquals(
+        assertResult(
                 "[GOOD_MATCH, 8.123512, 0049000006131, Caffeine Free, Coca-Cola, 5MRM4M, Food/Beverage/Tobacco, null, null, null]",
-                Arrays.toString(result));
+                result);
 
         result = transformer.transform(new MockInputRow().put(brand, "Coca-cola").put(product, "Life"));
-        assertEquals(
+        assertResult(
                 "[POTENTIAL_MATCH, 3.0357375, 0049000000061, Cola With Cherry Flavor, Coca-Cola, 5MRM4M, Food/Beverage/Tobacco, null, null, null]",
-                Arrays.toString(result));
+                result);
     }
 
     @Test
     public void testMatchOnProductAndBrandLego() throws Exception {
-        final ProductMatchTransformer transformer = createTransformer(product, brand, description1);
+        transformer = createTransformer(product, brand, description1);
 
         Object[] result = transformer
                 .transform(new MockInputRow().put(brand, "Lego").put(product, "Star wars destroyer").put(description1,
                         "The elefant-like thing from the Star Wars movies"));
-        assertEquals(
+        assertResult(
                 "[POTENTIAL_MATCH, 6.065925, 0082493500007, Star Wars Imperial Star Destroyer, Lego, GSD9GK, Toys/Games, null, null, null]",
-                Arrays.toString(result));
+                result);
     }
 
     @Test
     public void testBadMatchOnProductAndBrandLego() throws Exception {
-        final ProductMatchTransformer transformer = createTransformer(product, brand, description1);
+        transformer = createTransformer(product, brand, description1);
 
         Object[] result = transformer
                 .transform(new MockInputRow().put(brand, "Lego").put(product, "Hello world").put(description1,
                         "I am looking for something quite different than this"));
-        assertEquals(
+        assertResult(
                 "[NO_MATCH, null, null, Hello world, Lego, null, null, null, null, null]",
-                Arrays.toString(result));
+                result);
     }
 
     @Test
     public void testNoMatchUnknownTerms() throws Exception {
-        final ProductMatchTransformer transformer = createTransformer(description1);
+        transformer = createTransformer(description1);
 
         Object[] result = transformer.transform(new MockInputRow().put(description1, "helloworldabracadabra"));
-        assertEquals("[NO_MATCH, null, null, null, null, null, null, null, null, null]", Arrays.toString(result));
+        assertResult("[NO_MATCH, null, null, null, null, null, null, null, null, null]", result);
     }
 
     @Test
     public void testNoMatchNoQuery() throws Exception {
-        final ProductMatchTransformer transformer = createTransformer(description1);
+        transformer = createTransformer(description1);
 
         Object[] result = transformer.transform(new MockInputRow().put(description1, ""));
-        assertEquals("[SKIPPED, null, null, null, null, null, null, null, null, null]", Arrays.toString(result));
+        assertResult("[SKIPPED, null, null, null, null, null, null, null, null, null]", result);
 
         result = transformer.transform(new MockInputRow().put(description1, null));
-        assertEquals("[SKIPPED, null, null, null, null, null, null, null, null, null]", Arrays.toString(result));
+        assertResult("[SKIPPED, null, null, null, null, null, null, null, null, null]", result);
+    }
+
+    @Test
+    public void testGtinLookupById() throws Exception {
+        transformer = configureTransformer(gtin);
+        transformer.gtinLookupById = true;
+        init(transformer);
+
+        Object[] result = transformer.transform(new MockInputRow().put(gtin, "0300743288131"));
+        assertResult(
+                "[GOOD_MATCH, null, 0300743288131, 1 Er Tablets 1x100 Mfg. Abbott Laboratories 240 mg,1 count, Abbott Laboratories, JLI2V7, Healthcare, null, null, null]",
+                result);
+
+        result = transformer.transform(new MockInputRow().put(gtin, "300743288131"));
+        assertResult(
+                "[GOOD_MATCH, null, 0300743288131, 1 Er Tablets 1x100 Mfg. Abbott Laboratories 240 mg,1 count, Abbott Laboratories, JLI2V7, Healthcare, null, null, null]",
+                result);
+    
+        result = transformer.transform(new MockInputRow().put(gtin, "9999999999999"));
+        assertResult("[NO_MATCH, null, 9999999999999, null, null, null, null, null, null, null]", result);
+    
+    
+        result = transformer.transform(new MockInputRow().put(gtin, "765390-68309"));
+        assertResult("[GOOD_MATCH, null, 0076539068309, Bbq Sauce, Naturally Fresh, KYSXQI, null, null, null, null]", result);
+  
     }
 
     @Test
-    public void testGtinLookup() throws Exception {
-        final ProductMatchTransformer transformer = createTransformer(gtin);
+    public void testGtinLookupBySearch() throws Exception {
+        transformer = createTransformer(gtin);
 
         Object[] result = transformer.transform(new MockInputRow().put(gtin, "0300743288131"));
-        assertEquals(
+        assertResult(
                 "[GOOD_MATCH, 14.041802, 0300743288131, 1 Er Tablets 1x100 Mfg. Abbott Laboratories 240 mg,1 count, Abbott Laboratories, JLI2V7, Healthcare, null, null, null]",
-                Arrays.toString(result));
+                result);
 
         result = transformer.transform(new MockInputRow().put(gtin, "300743288131"));
-        assertEquals(
+        assertResult(
                 "[GOOD_MATCH, 14.041802, 0300743288131, 1 Er Tablets 1x100 Mfg. Abbott Laboratories 240 mg,1 count, Abbott Laboratories, JLI2V7, Healthcare, null, null, null]",
-                Arrays.toString(result));
-        
+                result);
+    
         result = transformer.transform(new MockInputRow().put(gtin, "9999999999999"));
-        assertEquals("[NO_MATCH, null, 9999999999999, null, null, null, null, null, null, null]", Arrays.toString(result));
-        
-        
+        assertResult("[NO_MATCH, null, 9999999999999, null, null, null, null, null, null, null]", result);
+    
+    
         result = transformer.transform(new MockInputRow().put(gtin, "765390-68309"));
-        assertEquals("[GOOD_MATCH, 14.041802, 0076539068309, Bbq Sauce, Naturally Fresh, KYSXQI, null, null, null, null]", Arrays.toString(result));
-      
+        assertResult("[GOOD_MATCH, 14.041802, 0076539068309, Bbq Sauce, Naturally Fresh, KYSXQI, null, null, null, null]", result);
+  
+    }
+
+    @Test
+    public void testCombinedGtinAndTextQueries() throws Exception {
+        for (boolean combine : new boolean[] { false, true }) {
+            transformer = configureTransformer(gtin, product, brand);
+            transformer.combineGtinAndTextQueries = combine;
+            transformer.init(new LuceneBackend(indexDirectory));
+
+            // GTIN code found
+            Object[] result = transformer.transform(new MockInputRow().put(gtin, "0082493500007")
+                    .put(brand, "Lego").put(product, "Something else"));
+            assertEquals(
+                    "[GOOD_MATCH, null, 0082493500007, Star Wars Imperial Star Destroyer, Lego, GSD9GK, Toys/Games, null, null, null]",
+                    Arrays.toString(result));
+
+            // GTIN code not found, falls back to the text
+            result = transformer.transform(new MockInputRow().put(gtin, "4006381333931").put(brand, "Lego")
+                    .put(product, "Star wars destroyer"));
+            assertEquals(
+                    "[GOOD_MATCH, 0082493500007, Star Wars Imperial Star Destroyer, Lego, GSD9GK, Toys/Games, null, null, null]",
+                    withoutScore(result));
+            transformer.close();
+        }
+        transformer = null;
+    }
+
+    @Test
+    public void testGtinFilter() throws Exception {
+        transformer = new ProductMatchTransformer();
+        transformer.inputColumns = new InputColumn[] { gtin };
+        transformer.inputMapping = new ProductInputField[] { ProductInputField.GTIN_CODE };
+        transformer.gtinFilter = true;
+        transformer.init(new LuceneBackend(indexDirectory));
+
+        // valid check digit, but not in the POD database
+        Object[] result = transformer.transform(new MockInputRow().put(gtin, "4006381333931"));
+        assertEquals("[NO_MATCH, null, 4006381333931, null, null, null, null, null, null, null]",
+                Arrays.toString(result));
+
+        result = transformer.transform(new MockInputRow().put(gtin, "765390-68309"));
+        assertEquals("[GOOD_MATCH, null, 0076539068309, Bbq Sauce, Naturally Fresh, KYSXQI, null, null, null, null]",
+                Arrays.toString(result));
+
+        assertEquals(1L, transformer.getResult().getMetrics().get(ProductMatchResult.METRIC_SKIPPED_GTIN_LOOKUPS));
+    }
+
+    @Test
+    public void testBackendFailures() throws Exception {
+        final AtomicReference<BackendException> failure = new AtomicReference<>();
+        transformer = configureTransformer(gtin);
+        transformer.init(new LuceneBackend(indexDirectory) {
+            @Override
+            public Map<ProductSearchField, Object> lookupGtin(String gtinCode) {
+                final BackendException exception = failure.get();
+                if (exception != null) {
+                    throw exception;
+                }
+                return super.lookupGtin(gtinCode);
+            }
+        });
+
+        failure.set(new BackendException("No response", true, null));
+        Object[] result = transformer.transform(new MockInputRow().put(gtin, "765390-68309"));
+        assertEquals("[TIMEOUT, null, 765390-68309, null, null, null, null, null, null, null]",
+                Arrays.toString(result));
+
+        failure.set(new BackendException("Unavailable", false, null));
+        result = transformer.transform(new MockInputRow().put(gtin, "765390-68309"));
+        assertEquals("[ERROR, null, 765390-68309, null, null, null, null, null, null, null]",
+                Arrays.toString(result));
+
+        // failures are not cached
+        failure.set(null);
+        result = transformer.transform(new MockInputRow().put(gtin, "765390-68309"));
+        assertEquals("[GOOD_MATCH, null, 0076539068309, Bbq Sauce, Naturally Fresh, KYSXQI, null, null, null, null]",
+                Arrays.toString(result));
+    }
+
+    @Test
+    public void testWarmUpQueries() throws Exception {
+        transformer = new ProductMatchTransformer();
+        transformer.inputColumns = new InputColumn[] { gtin };
+        transformer.inputMapping = new ProductInputField[] { ProductInputField.GTIN_CODE };
+        transformer.warmUpQueries = new String[] { "Coca-cola 2 litros", "765390-68309", " " };
+        transformer.init(new LuceneBackend(indexDirectory));
+
+        final Map<String, ? extends Number> metrics = transformer.getResult().getMetrics();
+        assertEquals(2, metrics.get(ProductMatchResult.METRIC_WARM_UP_QUERIES).intValue());
+        assertTrue(metrics.get(ProductMatchResult.METRIC_STARTUP_TIME).longValue() >= 0);
+        // warm-up queries bypass the cache
+        assertEquals(0L, metrics.get(ProductMatchResult.METRIC_CACHE_MISSES));
+    }
+
+    @Test
+    public void testFailedVerificationFailsInitialization() throws Exception {
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        final ProductMatchTransformer transformer = new ProductMatchTransformer();
+        transformer.inputColumns = new InputColumn[] { gtin };
+        transformer.inputMapping = new ProductInputField[] { ProductInputField.GTIN_CODE };
+        try {
+            transformer.init(new LuceneBackend(indexDirectory) {
+                @Override
+                public void verify() {
+                    throw new IllegalStateException("No POD index");
+                }
+
+                @Override
+                public void close() {
+                    closed.set(true);
+                    super.close();
+                }
+            });
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("No POD index", e.getMessage());
+        }
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void testFailedInitializationReleasesResources() throws Exception {
+        final File cacheFile = File.createTempFile("match_cache", ".podcache");
+        cacheFile.delete();
+        cacheFile.deleteOnExit();
+        final File filterFile = File.createTempFile("gtin_filter", ".bloom");
+        filterFile.deleteOnExit();
+
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        final ProductMatchTransformer transformer = configureTransformer(gtin);
+        transformer.persistentCacheFile = cacheFile;
+        transformer.gtinFilter = true;
+        // not a GTIN filter file
+        transformer.gtinFilterFile = filterFile;
+        try {
+            transformer.init(new LuceneBackend(indexDirectory) {
+                @Override
+                public void close() {
+                    closed.set(true);
+                    super.close();
+                }
+            });
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("Failed to load or save GTIN filter file: " + filterFile, e.getMessage());
+        }
+        assertTrue(closed.get());
+
+        // the persistent cache file is no longer locked
+        new PersistentMatchCache(cacheFile, "v1", 100).close();
+    }
+
+    @Test
+    public void testPersistentCacheIsSharedAcrossRuns() throws Exception {
+        final File cacheFile = File.createTempFile("match_cache", ".podcache");
+        cacheFile.delete();
+        cacheFile.deleteOnExit();
+        final MockInputRow row = new MockInputRow().put(description1, "Coca-cola").put(description2, "2");
+
+        transformer = configureTransformer(description1, description2);
+        transformer.persistentCacheFile = cacheFile;
+        transformer.init(new LuceneBackend(indexDirectory));
+        final String expected = withoutScore(transformer.transform(row));
+        assertEquals(0L, transformer.getResult().getMetrics().get(ProductMatchResult.METRIC_PERSISTENT_CACHE_HITS));
+        transformer.close();
+
+        // the next run is served from the file, without searching
+        final AtomicInteger searches = new AtomicInteger(0);
+        transformer.init(new LuceneBackend(indexDirectory) {
+            @Override
+            public Map<ProductSearchField, Object> search(Map<ProductSearchField, Object> input) {
+                searches.incrementAndGet();
+                return super.search(input);
+            }
+        });
+        assertEquals(expected, withoutScore(transformer.transform(row)));
+        assertEquals(0, searches.get());
+        Map<String, ? extends Number> metrics = transformer.getResult().getMetrics();
+        assertEquals(1L, metrics.get(ProductMatchResult.METRIC_PERSISTENT_CACHE_HITS));
+        assertEquals(1, metrics.get(ProductMatchResult.METRIC_PERSISTENT_CACHE_ENTRIES).intValue());
+        transformer.close();
+
+        // a rebuilt index discards the stored matches
+        transformer.init(new LuceneBackend(indexDirectory) {
+            @Override
+            public Map<ProductSearchField, Object> search(Map<ProductSearchField, Object> input) {
+                searches.incrementAndGet();
+                return super.search(input);
+            }
+
+            @Override
+            public String getIndexVersion() {
+                return "rebuilt";
+            }
+        });
+        assertEquals(expected, withoutScore(transformer.transform(row)));
+        assertEquals(1, searches.get());
+        metrics = transformer.getResult().getMetrics();
+        assertEquals(0L, metrics.get(ProductMatchResult.METRIC_PERSISTENT_CACHE_HITS));
+        transformer.close();
+
+        // so do settings that change how GTIN codes are looked up
+        transformer.combineGtinAndTextQueries = true;
+        transformer.init(new LuceneBackend(indexDirectory));
+        transformer.transform(row);
+        assertEquals(0L, transformer.getResult().getMetrics().get(ProductMatchResult.METRIC_PERSISTENT_CACHE_HITS));
+        transformer.close();
+
+        transformer.gtinLookupById = true;
+        transformer.init(new LuceneBackend(indexDirectory));
+        transformer.transform(row);
+        assertEquals(0L, transformer.getResult().getMetrics().get(ProductMatchResult.METRIC_PERSISTENT_CACHE_HITS));
+        transformer.close();
+
+        // and so does the GTIN filter, when its file is rebuilt
+        final File filterFile = File.createTempFile("gtin_filter", ".bloom");
+        filterFile.delete();
+        filterFile.deleteOnExit();
+        transformer.gtinFilter = true;
+        transformer.gtinFilterFile = filterFile;
+        transformer.init(new LuceneBackend(indexDirectory));
+        transformer.transform(row);
+        assertEquals(0L, transformer.getResult().getMetrics().get(ProductMatchResult.METRIC_PERSISTENT_CACHE_HITS));
+        transformer.close();
+
+        transformer.init(new LuceneBackend(indexDirectory));
+        transformer.transform(row);
+        assertEquals(1L, transformer.getResult().getMetrics().get(ProductMatchResult.METRIC_PERSISTENT_CACHE_HITS));
+        transformer.close();
+
+        assertTrue(filterFile.setLastModified(filterFile.lastModified() - 60000));
+        transformer.init(new LuceneBackend(indexDirectory));
+        transformer.transform(row);
+        assertEquals(0L, transformer.getResult().getMetrics().get(ProductMatchResult.METRIC_PERSISTENT_CACHE_HITS));
+    }
+
+    @Test
+    public void testCachedAndSkippedRowsOnlyAllocateTheirOutput() throws Exception {
+        final ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+
+        transformer = configureTransformer(gtin);
+        transformer.init(new LuceneBackend(indexDirectory));
+        final InputRow cachedRow = new MockInputRow().put(gtin, "765390-68309");
+        final InputRow skippedRow = new MockInputRow().put(gtin, " ");
+
+        // the first row is matched and cached, and the others warm up the code
+        final int rowCount = 20000;
+        for (int i = 0; i < rowCount; i++) {
+            transformer.transform(cachedRow);
+            transformer.transform(skippedRow);
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < rowCount; i++) {
+            transformer.transform(cachedRow);
+            transformer.transform(skippedRow);
+        }
+        final long bytesPerRow = (threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / (2 * rowCount);
+
+        // the output array of 10 elements takes up to 16 + 10 * 8 bytes
+        assertTrue("Allocated " + bytesPerRow + " bytes per row", bytesPerRow <= 96);
+        assertEquals("[GOOD_MATCH, null, 0076539068309, Bbq Sauce, Naturally Fresh, KYSXQI, null, null, null, null]",
+                Arrays.toString(transformer.transform(cachedRow)));
     }
 
     @Test
@@ -126,36 +458,75 @@ public class ProductMatchTransformerTest {
         assertEquals(null, ProductMatchTransformer.normalizeGtinCode(null));
     }
 
+    private static void assertResult(String expected, Object[] result) {
+        if (LIVE) {
+            assertEquals(expected, Arrays.toString(result));
+        } else {
+            assertEquals(withoutScore(expected), withoutScore(result));
+        }
+    }
+
+    private static String withoutScore(Object[] result) {
+        return withoutScore(Arrays.toString(result));
+    }
+
+    private static String withoutScore(String result) {
+        // the score is the second element, after the match status
+        return result.replaceFirst("^\\[(\\w+), [^,]*,", "[$1,");
+    }
+
+    /**
+     * Initializes the transformer against the fixture, or against the POD
+     * cluster when running live. Live tests are skipped if the cluster cannot
+     * be reached.
+     *
+     * @param transformer
+     * @throws Exception
+     */
+    private static void init(ProductMatchTransformer transformer) throws Exception {
+        if (!LIVE) {
+            transformer.init(new LuceneBackend(indexDirectory));
+            return;
+        }
+        try {
+            transformer.init();
+        } catch (IllegalStateException e) {
+            Assume.assumeNoException("POD cluster is not available", e);
+        }
+    }
+
     /**
      * Convenient factory for the transformer to use in this test class
      * 
      * @param columns
      * @return
+     * @throws Exception
      */
-    private ProductMatchTransformer createTransformer(InputColumn<?>... columns) {
+    private ProductMatchTransformer createTransformer(InputColumn<?>... columns) throws Exception {
+        final ProductMatchTransformer transformer = configureTransformer(columns);
+        init(transformer);
+        return transformer;
+    }
+
+    private ProductMatchTransformer configureTransformer(InputColumn<?>... columns) {
         final ProductMatchTransformer transformer = new ProductMatchTransformer();
 
         final ProductInputField[] inputFields = new ProductInputField[columns.length];
         for (int i = 0; i < inputFields.length; i++) {
-            final ProductInputField inputField;
             final InputColumn<?> column = columns[i];
             if (column == product) {
-                inputField = ProductInputField.PRODUCT_NAME;
+                inputFields[i] = ProductInputField.PRODUCT_NAME;
             } else if (column == brand) {
-                inputField = ProductInputField.BRAND_NAME;
+                inputFields[i] = ProductInputField.BRAND_NAME;
             } else if (column == gtin) {
-                inputField = ProductInputField.GTIN_CODE;
+                inputFields[i] = ProductInputField.GTIN_CODE;
             } else {
-                inputField = ProductInputField.PRODUCT_DESCRIPTION_TEXT;
+                inputFields[i] = ProductInputField.PRODUCT_DESCRIPTION_TEXT;
             }
-            inputFields[i] = inputField;
         }
 
         transformer.inputColumns = columns;
         transformer.inputMapping = inputFields;
-
-        transformer.init();
-
         return transformer;
     }
 }
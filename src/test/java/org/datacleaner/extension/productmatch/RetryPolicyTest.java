@@ -0,0 +1,137 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.transport.RemoteTransportException;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testRetryUntilSuccess() {
+        final RetryPolicy retryPolicy = new RetryPolicy(2, 1, new CircuitBreaker(5, 60000));
+        final AtomicInteger attempts = new AtomicInteger(0);
+
+        final String result = retryPolicy.execute(new RetryPolicy.Attempt<String>() {
+            @Override
+            public String execute() {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new ElasticsearchTimeoutException("timeout");
+                }
+                return "ok";
+            }
+        });
+
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2, retryPolicy.getRetryCount());
+        assertEquals(2, retryPolicy.getTimeoutCount());
+    }
+
+    @Test
+    public void testTimeoutAfterAllRetries() {
+        final RetryPolicy retryPolicy = new RetryPolicy(1, 1, new CircuitBreaker(5, 60000));
+        try {
+            retryPolicy.execute(failingAttempt(new ElasticsearchTimeoutException("timeout")));
+            fail("Exception expected");
+        } catch (BackendException e) {
+            assertTrue(e.isTimeout());
+        }
+        assertEquals(1, retryPolicy.getRetryCount());
+        assertEquals(2, retryPolicy.getTimeoutCount());
+    }
+
+    @Test
+    public void testFailFastWhenCircuitBreakerIsOpen() {
+        final RetryPolicy retryPolicy = new RetryPolicy(10, 1, new CircuitBreaker(3, 60000));
+        final AtomicInteger attempts = new AtomicInteger(0);
+        final RetryPolicy.Attempt<String> attempt = new RetryPolicy.Attempt<String>() {
+            @Override
+            public String execute() {
+                attempts.incrementAndGet();
+                throw new NoNodeAvailableException("unavailable");
+            }
+        };
+
+        try {
+            retryPolicy.execute(attempt);
+            fail("Exception expected");
+        } catch (BackendException e) {
+            assertFalse(e.isTimeout());
+        }
+        // retrying stops when the breaker opens
+        assertEquals(3, attempts.get());
+
+        try {
+            retryPolicy.execute(attempt);
+            fail("Exception expected");
+        } catch (BackendException e) {
+            assertFalse(e.isTimeout());
+        }
+        assertEquals(3, attempts.get());
+        assertEquals(1, retryPolicy.getCircuitBreaker().getTripCount());
+        assertEquals(1, retryPolicy.getCircuitBreaker().getRejectedCount());
+    }
+
+    @Test
+    public void testOtherExceptionsAreNotRetried() {
+        final RetryPolicy retryPolicy = new RetryPolicy(2, 1, new CircuitBreaker(1, 60000));
+        try {
+            retryPolicy.execute(failingAttempt(new IllegalArgumentException("bug")));
+            fail("Exception expected");
+        } catch (BackendException e) {
+            assertFalse(e.isTimeout());
+            assertEquals("bug", e.getCause().getMessage());
+        }
+        try {
+            retryPolicy.execute(failingAttempt(new SearchPhaseExecutionException("query", "Failed to parse query",
+                    new ShardSearchFailure[0])));
+            fail("Exception expected");
+        } catch (BackendException e) {
+            assertFalse(e.isTimeout());
+        }
+        assertEquals(0, retryPolicy.getRetryCount());
+        // the request was at fault, not the cluster
+        assertFalse(retryPolicy.getCircuitBreaker().isOpen());
+    }
+
+    @Test
+    public void testRemoteRejectionsAreRetried() {
+        final RetryPolicy retryPolicy = new RetryPolicy(1, 1, new CircuitBreaker(5, 60000));
+        try {
+            retryPolicy.execute(failingAttempt(new RemoteTransportException("node1", new EsRejectedExecutionException(
+                    "rejected execution"))));
+            fail("Exception expected");
+        } catch (BackendException e) {
+            assertFalse(e.isTimeout());
+        }
+        assertEquals(1, retryPolicy.getRetryCount());
+    }
+
+    @Test
+    public void testRejectedItemsAreTransient() {
+        assertTrue(RetryPolicy.isTransient(RetryPolicy.createItemFailure(
+                "RemoteTransportException[[node1][search]]; nested: EsRejectedExecutionException[rejected execution]; ")));
+        assertFalse(RetryPolicy.isTransient(RetryPolicy.createItemFailure(
+                "SearchPhaseExecutionException[Failed to execute phase [query]]; nested: QueryParsingException; ")));
+    }
+
+    private static RetryPolicy.Attempt<String> failingAttempt(final RuntimeException exception) {
+        return new RetryPolicy.Attempt<String>() {
+            @Override
+            public String execute() {
+                throw exception;
+            }
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentIdenticalCallsAreCoalesced() throws Exception {
+        final SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        final AtomicInteger executions = new AtomicInteger(0);
+        final CountDownLatch leaderStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int threadCount = 4;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<Integer>> futures = new ArrayList<>();
+            futures.add(executor.submit(createCall(singleFlight, executions, leaderStarted, release)));
+            leaderStarted.await();
+            for (int i = 1; i < threadCount; i++) {
+                futures.add(executor.submit(createCall(singleFlight, executions, leaderStarted, release)));
+            }
+
+            // wait for the followers to join the leader's call
+            while (singleFlight.getCoalescedCount() < threadCount - 1) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            for (Future<Integer> future : futures) {
+                assertEquals(42, future.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, executions.get());
+        assertEquals(threadCount - 1, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void testSequentialCallsAreNotCoalesced() throws Exception {
+        final SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        final AtomicInteger executions = new AtomicInteger(0);
+        final Callable<Integer> callable = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return executions.incrementAndGet();
+            }
+        };
+
+        assertEquals(1, singleFlight.execute("key", callable).intValue());
+        assertEquals(2, singleFlight.execute("key", callable).intValue());
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void testFailureIsRethrown() throws Exception {
+        final SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        try {
+            singleFlight.execute("key", new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    throw new IllegalArgumentException("foo");
+                }
+            });
+            fail("Exception expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("foo", e.getMessage());
+        }
+    }
+
+    private Callable<Integer> createCall(final SingleFlight<String, Integer> singleFlight,
+            final AtomicInteger executions, final CountDownLatch leaderStarted, final CountDownLatch release) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return singleFlight.execute("key", new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        executions.incrementAndGet();
+                        leaderStarted.countDown();
+                        release.await();
+                        return 42;
+                    }
+                });
+            }
+        };
+    }
+}
@@ -0,0 +1,46 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.Test;
+
+public class SourceFieldDecoderTest {
+
+    @Test
+    public void testDecodeSelectedFields() throws Exception {
+        final BytesReference source = XContentFactory.jsonBuilder().startObject().field("GTIN_CD", "0300743288131")
+                .field("GTIN_NM", "1 Er Tablets").field("M_G", 250).startObject("nested").field("GTIN_NM", "x")
+                .endObject().array("GLN_NM", "a", "b").nullField("BRAND_NM").field("GPC_SEGMENT", "Healthcare")
+                .endObject().bytes();
+
+        final SourceFieldDecoder decoder = new SourceFieldDecoder(EnumSet.of(ProductSearchField.SCORE,
+                ProductSearchField.GTIN_NM, ProductSearchField.BRAND_NM, ProductSearchField.M_G,
+                ProductSearchField.GLN_NM));
+
+        final String[] fieldNames = decoder.getFieldNames();
+        Arrays.sort(fieldNames);
+        assertArrayEquals(new String[] { "BRAND_NM", "GLN_NM", "GTIN_NM", "M_G" }, fieldNames);
+
+        final Map<ProductSearchField, Object> result = new EnumMap<>(ProductSearchField.class);
+        decoder.decode(source, result);
+
+        assertEquals("1 Er Tablets", result.get(ProductSearchField.GTIN_NM));
+        assertEquals(250, ((Number) result.get(ProductSearchField.M_G)).intValue());
+        assertTrue(result.containsKey(ProductSearchField.BRAND_NM));
+        assertNull(result.get(ProductSearchField.BRAND_NM));
+        assertFalse(result.containsKey(ProductSearchField.GLN_NM));
+        assertFalse(result.containsKey(ProductSearchField.GTIN_CD));
+        assertFalse(result.containsKey(ProductSearchField.GPC_SEGMENT));
+    }
+}
@@ -0,0 +1,75 @@
+package org.datacleaner.extension.productmatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class SqlDumpParserTest {
+
+    private static SqlDumpParser createParser(String... lines) {
+        final StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return new SqlDumpParser(new BufferedReader(new StringReader(sb.toString())));
+    }
+
+    @Test
+    public void testExtendedInsert() throws Exception {
+        final SqlDumpParser parser = createParser("-- MySQL dump", "DROP TABLE IF EXISTS `brand`;",
+                "CREATE TABLE `brand` (", "  `BSIN` varchar(6) NOT NULL,", "  `BRAND_NM` varchar(255) DEFAULT NULL,",
+                "  `BRAND_TYPE_CD` int(11) DEFAULT NULL,", "  PRIMARY KEY (`BSIN`)", ") ENGINE=InnoDB;",
+                "LOCK TABLES `brand` WRITE;",
+                "INSERT INTO `brand` VALUES ('0A1B2C','Coca-Cola',1),('3D4E5F',NULL,2);",
+                "INSERT INTO `brand` VALUES ('6G7H8I','Mars',NULL);", "UNLOCK TABLES;");
+
+        assertEquals("brand", parser.nextRow());
+        assertArrayEquals(new String[] { "BSIN", "BRAND_NM", "BRAND_TYPE_CD" }, parser.getColumnNames());
+        assertArrayEquals(new Object[] { "0A1B2C", "Coca-Cola", 1L }, parser.getValues());
+        assertEquals("Coca-Cola", parser.getValue("BRAND_NM"));
+
+        assertEquals("brand", parser.nextRow());
+        assertNull(parser.getValue("BRAND_NM"));
+        assertEquals(2L, parser.getValue("BRAND_TYPE_CD"));
+
+        assertEquals("brand", parser.nextRow());
+        assertEquals("Mars", parser.getValue("BRAND_NM"));
+
+        assertNull(parser.nextRow());
+        assertNull(parser.nextRow());
+    }
+
+    @Test
+    public void testEscapes() throws Exception {
+        final SqlDumpParser parser = createParser(
+                "INSERT INTO `gtin` (`GTIN_CD`, `GTIN_NM`, `M_G`) VALUES ('0001','Ben \\'n\\' Jerry''s, (Cookie)',"
+                        + "500.5),('0002','Line 1\\nLine 2\\\\',-1.5E2);");
+
+        assertEquals("gtin", parser.nextRow());
+        assertEquals("Ben 'n' Jerry's, (Cookie)", parser.getValue("GTIN_NM"));
+        assertEquals(500.5, parser.getValue("M_G"));
+
+        assertEquals("gtin", parser.nextRow());
+        assertEquals("Line 1\nLine 2\\", parser.getValue("GTIN_NM"));
+        assertEquals(-150.0, parser.getValue("M_G"));
+        assertNull(parser.getValue("NO_SUCH_COLUMN"));
+
+        assertNull(parser.nextRow());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownColumns() throws Exception {
+        createParser("INSERT INTO `gtin` VALUES ('0001');").nextRow();
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongValueCount() throws Exception {
+        createParser("INSERT INTO `gtin` (`GTIN_CD`, `GTIN_NM`) VALUES ('0001');").nextRow();
+    }
+}